@@ -4,10 +4,6 @@ import android.support.test.runner.AndroidJUnit4;
 
 import com.amazonaws.services.sns.model.DeleteEndpointRequest;
 import com.amazonaws.services.sns.model.Endpoint;
-import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationRequest;
-import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationResult;
-import com.amazonaws.services.sns.model.ListSubscriptionsByTopicResult;
-import com.amazonaws.services.sns.model.ListTopicsResult;
 import com.amazonaws.services.sns.model.Subscription;
 import com.amazonaws.services.sns.model.Topic;
 
@@ -18,8 +14,6 @@ import org.junit.runners.MethodSorters;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.Callable;
 
 import static intelligentproduct.solutions.amazonsns.Constants.emailAddressToTest;
@@ -43,6 +37,9 @@ public class AmazonSNSHelperTest {
     static String platformARN = null;
     static String subscriptionArn = null;
 
+    // One helper is shared by all of the tests so that they reuse the same client and connections
+    static final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, samplePlatformApplicationArn, new FirebaseTokenSource());
+
     /**
      * Tests that the platform endpoint can be created
      */
@@ -50,7 +47,6 @@ public class AmazonSNSHelperTest {
     public void test1_createPlatformEndpointTest() {
 
         try {
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, samplePlatformApplicationArn);
             platformARN = snsHelper.createPlatformEndpoint();
             assertNotNull("Platform ARN is null", platformARN);
 
@@ -71,7 +67,6 @@ public class AmazonSNSHelperTest {
     public void test2_createTopicTest() {
 
         try {
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, samplePlatformApplicationArn);
             topicARN = snsHelper.createTopic(Constants.testTopicName);
             assertNotNull("Topic ARN is null", topicARN);
             assertEquals("Topic ARN does not match the expected value", topicARN, Constants.testTopicArn);
@@ -93,7 +88,6 @@ public class AmazonSNSHelperTest {
 
         try {
             assertNotNull("Topic ARN is null", topicARN);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
             snsHelper.emailSubscribe(topicARN, emailAddressToTest);
 
             //Gets the list of current subscriptions from AWS and checks that the new subscription is in this list
@@ -111,7 +105,6 @@ public class AmazonSNSHelperTest {
 
         try {
             assertNotNull("Topic ARN is null", topicARN);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
             subscriptionArn = snsHelper.pushNotificationSubscribe(topicARN, platformARN);
             assertNotNull("Subscription ARN is null", subscriptionArn);
 
@@ -138,7 +131,6 @@ public class AmazonSNSHelperTest {
                     .start();
 
             assertNotNull("Topic ARN is null", topicARN);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
             snsHelper.publishMessage(topicARN, "message", "subject");
 
             //Get log
@@ -176,7 +168,6 @@ public class AmazonSNSHelperTest {
 
         try {
             assertNotNull("Topic ARN is null", topicARN);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
             snsHelper.emailUnsubscribe(topicARN, emailAddressToTest);
 
             //Gets the list of current subscriptions from AWS and checks that the deleted subscription is not in this list
@@ -194,7 +185,6 @@ public class AmazonSNSHelperTest {
 
         try {
             assertNotNull("Subscription ARN is null", subscriptionArn);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
             snsHelper.pushNotificationUnsubscribe(subscriptionArn);
 
             //Gets the list of current subscriptions from AWS and checks that the deleted subscription is not in this list
@@ -212,7 +202,6 @@ public class AmazonSNSHelperTest {
 
         try {
             assertNotNull("Topic ARN is null", topicARN);
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, samplePlatformApplicationArn);
             snsHelper.deleteTopic(topicARN);
             topicARN = null;
 
@@ -230,7 +219,6 @@ public class AmazonSNSHelperTest {
     public void test9_deleteEndpointTest() {
 
         try {
-            final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, samplePlatformApplicationArn);
 
             assertNotNull("Platform ARN is null", platformARN);
             DeleteEndpointRequest request = new DeleteEndpointRequest();
@@ -258,19 +246,12 @@ public class AmazonSNSHelperTest {
     private Callable<Boolean> checkAWSEnpointList(AmazonSNSHelper snsHelper, String endpointARNStart) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
-                //Gets the list of current endpoints from AWS
-                ListEndpointsByPlatformApplicationRequest endpointListRequest = new ListEndpointsByPlatformApplicationRequest();
-                endpointListRequest.setPlatformApplicationArn(samplePlatformApplicationArn);
-                ListEndpointsByPlatformApplicationResult currentEndpoints = snsHelper.pushClient.listEndpointsByPlatformApplication(endpointListRequest);
-                List<Endpoint> endpointObjList = currentEndpoints.getEndpoints();
-
-                // Checks if the endpoint was found in the list that was returned
-                boolean endpointFound = false;
-                for (Endpoint endpoint : endpointObjList) {
+                // Checks every page of the current endpoints in AWS for the endpoint
+                for (Endpoint endpoint : snsHelper.endpointsByPlatformApplication()) {
                     if (endpoint.getEndpointArn().startsWith(endpointARNStart))
-                        endpointFound = true;
+                        return true;
                 }
-                return endpointFound;
+                return false;
             }
         };
     }
@@ -283,13 +264,11 @@ public class AmazonSNSHelperTest {
     private Callable<Boolean> checkAWSTopicList(AmazonSNSHelper snsHelper) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
-                ListTopicsResult currentTopics = snsHelper.pushClient.listTopics();
-                List<Topic> topicList = currentTopics.getTopics();
-                List<String> topicARNs = new ArrayList<>();
-                for (Topic topic : topicList) {
-                    topicARNs.add(topic.getTopicArn());
+                for (Topic topic : snsHelper.topics()) {
+                    if (topic.getTopicArn().equals(topicARN))
+                        return true;
                 }
-                return topicARNs.contains(topicARN);
+                return false;
             }
         };
     }
@@ -303,17 +282,14 @@ public class AmazonSNSHelperTest {
     private Callable<Boolean> checkAWSPushSubscriptionList(AmazonSNSHelper snsHelper) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
-                ListSubscriptionsByTopicResult currentSubscriptions = snsHelper.pushClient.listSubscriptionsByTopic(topicARN);
-                List<Subscription> subscriptionList = currentSubscriptions.getSubscriptions();
                 String endpointARNStart = samplePlatformApplicationArn.replace("app", "endpoint");
-                boolean subscriptionFound = false;
-                for (Subscription subs : subscriptionList) {
+                for (Subscription subs : snsHelper.subscriptionsByTopic(topicARN)) {
 
                     if (subs.getEndpoint().startsWith(endpointARNStart) && subs.getProtocol().equals("application"))
-                        subscriptionFound = true;
+                        return true;
                 }
 
-                return subscriptionFound;
+                return false;
             }
         };
     }
@@ -327,14 +303,12 @@ public class AmazonSNSHelperTest {
     private Callable<Boolean> checkAWSEmailSubscriptionList(AmazonSNSHelper snsHelper) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
-                ListSubscriptionsByTopicResult currentSubscriptions = snsHelper.pushClient.listSubscriptionsByTopic(topicARN);
-                List<Subscription> subscriptionList = currentSubscriptions.getSubscriptions();
-                List<String> subscriptions = new ArrayList<>();
-                for (Subscription subs : subscriptionList) {
-                    subscriptions.add(subs.getEndpoint());
+                for (Subscription subs : snsHelper.subscriptionsByTopic(topicARN)) {
+                    if (subs.getEndpoint().equals(emailAddressToTest))
+                        return true;
                 }
 
-                return subscriptions.contains(emailAddressToTest);
+                return false;
             }
         };
     }
@@ -1,8 +1,11 @@
 package intelligentproduct.solutions.activities;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.SharedPreferences;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AlertDialog;
@@ -11,16 +14,24 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.TextView;
 
 import com.amazonaws.services.sns.model.DeleteEndpointRequest;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import intelligentproduct.solutions.amazonsns.AmazonSNSHelper;
-import intelligentproduct.solutions.amazonsns.Constants;
 import intelligentproduct.solutions.amazonsns.R;
 import intelligentproduct.solutions.amazonsns.SNSAsyncTaskResponse;
+import intelligentproduct.solutions.amazonsns.SNSComponents;
+import intelligentproduct.solutions.amazonsns.SNSEndpointRegistry;
+import intelligentproduct.solutions.amazonsns.SNSMessageLog;
+import intelligentproduct.solutions.amazonsns.SNSOutbox;
+import intelligentproduct.solutions.amazonsns.SNSStateStore;
+import intelligentproduct.solutions.amazonsns.SNSTokenSource;
 
 
 /**
@@ -31,14 +42,25 @@ public class AmazonSNSActivity  extends AppCompatActivity {
     String TAG = "Amazon SNS Test";
     Context context = this;
 
-    final AmazonSNSHelper snsHelper = new AmazonSNSHelper(Constants.sampleAccessKey, Constants.sampleSecretKey, Constants.samplePlatformApplicationArn);
+    final SNSTokenSource tokenSource = SNSComponents.getTokenSource();
 
-    String sharedPrefsAppName = "AmazonSNSTest";
-    String sharedPrefsSubscriptionARN = "subscriptionARN";
-    String sharedPrefsNewTopic = "newTopic";
-    String sharedPrefsPlatEndpointARN = "platformEndpoint";
-    SharedPreferences prefs ;
+    // The keys of the ARNs that are kept in the state store
+    String stateSubscriptionARN = "subscriptionARN";
+    String stateNewTopic = "newTopic";
+    String statePlatEndpointARN = "platformEndpoint";
     String emailAddress;
+    // The sequence number of the last received message that is shown
+    long messageCursor = 0;
+
+    // Tells the outbox to send its messages as soon as the device is connected again
+    BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                SNSComponents.retryOutbox();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,7 +68,7 @@ public class AmazonSNSActivity  extends AppCompatActivity {
 
         setContentView(R.layout.amazon_sns_activity);
 
-        prefs = context.getSharedPreferences(sharedPrefsAppName, Context.MODE_PRIVATE);
+        registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
 
         /*********
          * Sets up the button listeners which start the necessary async tasks that will handle the
@@ -58,14 +80,9 @@ public class AmazonSNSActivity  extends AppCompatActivity {
             @Override
             public void onClick(View v) {
                 try {
-                    String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
-                    if(newTopicARN == null) {
-                        new CreateTopic().execute();
-                    }
-                    else
-                    {
-                        showAlertDialog("Topic already created", "A new topic has already been created with this device. Please delete it and before creating a new one.");
-                    }
+                    // The task checks for a topic that was already created, since the state store
+                    // may still be opening
+                    new CreateTopic().execute();
                 } catch (Exception e) {
 
                 }
@@ -149,14 +166,7 @@ public class AmazonSNSActivity  extends AppCompatActivity {
             @Override
             public void onClick(View v) {
                 try {
-                    String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
-                    if(newTopicARN != null) {
-                        new DeleteTopic().execute();
-                    }
-                    else
-                    {
-                        showAlertDialog("Topic not found", "Could not find a topic to delete. One may not have been made with this device. Please create one and try again.");
-                    }
+                    new DeleteTopic().execute();
                 } catch (Exception e) {
 
                 }
@@ -178,6 +188,68 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Makes the helper and warms up its connection in the background, so the screen is shown
+        // right away and the first button tap does not wait for the TLS handshake
+        SNSComponents.warmUp(this);
+
+        // The user has seen the app, so the message notifications are removed
+        SNSComponents.resetNotifications();
+
+        // Shows the messages that arrived since the activity was last shown
+        new ReadMessages().execute();
+    }
+
+    @Override
+    protected void onDestroy() {
+        unregisterReceiver(connectivityReceiver);
+        super.onDestroy();
+    }
+
+    /**
+     * Gets the helper, making it the first time it is needed. This creates the AmazonSNSClient, so it
+     * must not be called on the main thread.
+     */
+    AmazonSNSHelper getHelper() {
+        return SNSComponents.getHelper();
+    }
+
+    /**
+     * Opens the state store the first time it is needed. SNSComponents.warmUp opens it in the
+     * background when the activity is shown, but it may still be opening, so this must not be
+     * called on the main thread either.
+     */
+    SNSStateStore getStateStore() throws IOException {
+        return SNSComponents.getStateStore(this);
+    }
+
+    /**
+     * Opens the outbox the first time it is needed. This reads files, so it must not be called on
+     * the main thread.
+     */
+    SNSOutbox getOutbox() throws IOException {
+        return SNSComponents.getOutbox(this);
+    }
+
+    /**
+     * Opens the endpoint registry the first time it is needed. This reads a file, so it must not be
+     * called on the main thread.
+     */
+    SNSEndpointRegistry getEndpointRegistry() throws IOException {
+        return SNSComponents.getEndpointRegistry(this);
+    }
+
+    /**
+     * Opens the log of received messages the first time it is needed. This reads a file, so it must
+     * not be called on the main thread.
+     */
+    SNSMessageLog getMessageLog() throws IOException {
+        return SNSComponents.getMessageLog(this);
+    }
+
     public void showAlertDialog(String title, String message) {
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
         builder.setMessage(message)
@@ -204,21 +276,27 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         @Override
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
-            // Creates a new PlatformEndpoint and gets its ARN
-            String platformEndpointARN = snsHelper.createPlatformEndpoint();
-            prefs.edit().putString(sharedPrefsPlatEndpointARN, platformEndpointARN).apply();
+            try {
+                // Gets the PlatformEndpoint for the device's token. It is only created or checked
+                // with AWS when the token has changed or it has not been checked for a day
+                String platformEndpointARN = getEndpointRegistry().getEndpoint(tokenSource.getToken());
+                SNSStateStore.Editor state = getStateStore().edit().put(statePlatEndpointARN, platformEndpointARN);
 
-            String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
-            if(newTopicARN != null) {
-                String subscriptionARN = snsHelper.pushNotificationSubscribe(newTopicARN, platformEndpointARN);
+                String newTopicARN = getStateStore().get(stateNewTopic);
+                if(newTopicARN != null) {
+                    String subscriptionARN = getHelper().pushNotificationSubscribe(newTopicARN, platformEndpointARN);
 
-                // Saves the subscription ARN to shared preferences to remember the ARN if the app is closed
-                prefs.edit().putString(sharedPrefsSubscriptionARN, subscriptionARN).apply();
-                return new SNSAsyncTaskResponse("Success", null);
-            }
-            else
-            {
-                Exception e = new Exception("Could not get the topic ARN");
+                    // Saves the endpoint and subscription ARNs together to remember them if the app is closed
+                    state.put(stateSubscriptionARN, subscriptionARN).apply();
+                    return new SNSAsyncTaskResponse("Success", null);
+                }
+                else
+                {
+                    state.apply();
+                    Exception e = new Exception("Could not get the topic ARN");
+                    return new SNSAsyncTaskResponse(null, e);
+                }
+            } catch (Exception e) {
                 return new SNSAsyncTaskResponse(null, e);
             }
         }
@@ -248,11 +326,11 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
             try {
-                // Gets the topic ARN that was saved to shared preferences
-                String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
+                // Gets the topic ARN that was saved to the state store
+                String newTopicARN = getStateStore().get(stateNewTopic);
                 if(newTopicARN != null) {
                     // Subscribes the email address to the topic
-                    snsHelper.emailSubscribe(newTopicARN, emailAddress);
+                    getHelper().emailSubscribe(newTopicARN, emailAddress);
                     return new SNSAsyncTaskResponse("Success", null);
                 }
                 else
@@ -291,12 +369,12 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
             try {
-                // Gets the subscription ARN that was saved to shared preferences
-                String subscriptionARN = prefs.getString(sharedPrefsSubscriptionARN, null);
+                // Gets the subscription ARN that was saved to the state store
+                String subscriptionARN = getStateStore().get(stateSubscriptionARN);
                 if(subscriptionARN != null)
                 {
                     // Uses the subscription ARN to unsubscribe the device from the topic
-                    snsHelper.pushNotificationUnsubscribe(subscriptionARN);
+                    getHelper().pushNotificationUnsubscribe(subscriptionARN);
                     return new SNSAsyncTaskResponse("Success", null);
                 }
                 else
@@ -332,16 +410,21 @@ public class AmazonSNSActivity  extends AppCompatActivity {
     private class EmailUnsubscribe extends AsyncTask<String, Void, SNSAsyncTaskResponse> {
         @Override
         protected SNSAsyncTaskResponse doInBackground(String... s) {
-            // Gets the topic ARN that was saved in shared preferences
-            String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
-            if(newTopicARN != null) {
-                // Unsubscribes the email address from the topic
-                snsHelper.emailUnsubscribe(newTopicARN, emailAddress);
-                return new SNSAsyncTaskResponse("Success", null);
-            }
-            else
-            {
-                Exception e = new Exception("Could not get the topic ARN");
+
+            try {
+                // Gets the topic ARN that was saved in the state store
+                String newTopicARN = getStateStore().get(stateNewTopic);
+                if(newTopicARN != null) {
+                    // Unsubscribes the email address from the topic
+                    getHelper().emailUnsubscribe(newTopicARN, emailAddress);
+                    return new SNSAsyncTaskResponse("Success", null);
+                }
+                else
+                {
+                    Exception e = new Exception("Could not get the topic ARN");
+                    return new SNSAsyncTaskResponse(null, e);
+                }
+            } catch (Exception e) {
                 return new SNSAsyncTaskResponse(null, e);
             }
         }
@@ -363,21 +446,26 @@ public class AmazonSNSActivity  extends AppCompatActivity {
     }
 
     /*
-        Sends an Amazon SNS message to any subscriptions on the topic
+        Sends an Amazon SNS message to any subscriptions on the topic. The message is added to the
+        outbox, which sends it right away if the device is online, or as soon as it is online again
      */
     private class SendMessage extends AsyncTask<String, Void, SNSAsyncTaskResponse> {
         @Override
         protected SNSAsyncTaskResponse doInBackground(String... s) {
-            // Gets the topic ARN that was saved in shared preferences
-            String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
-            if(newTopicARN != null) {
-                // Publishes a test message to the topic which will be sent to anything that is subscribed to it
-                snsHelper.publishMessage(newTopicARN, "Test message", "Amazon SNS Test");
-                return new SNSAsyncTaskResponse("Success", null);
-            }
-            else
-            {
-                Exception e = new Exception("Could not get the topic ARN");
+            try {
+                // Gets the topic ARN that was saved in the state store
+                String newTopicARN = getStateStore().get(stateNewTopic);
+                if(newTopicARN != null) {
+                    // Queues a test message for the topic which will be sent to anything that is subscribed to it
+                    getOutbox().enqueuePublish(newTopicARN, "Test message", "Amazon SNS Test");
+                    return new SNSAsyncTaskResponse("Success", null);
+                }
+                else
+                {
+                    Exception e = new Exception("Could not get the topic ARN");
+                    return new SNSAsyncTaskResponse(null, e);
+                }
+            } catch (Exception e) {
                 return new SNSAsyncTaskResponse(null, e);
             }
         }
@@ -387,7 +475,7 @@ public class AmazonSNSActivity  extends AppCompatActivity {
             super.onPostExecute(result);
 
             if (result.error == null) {
-                showAlertDialog("Message Sent", "Message sent successfully");
+                showAlertDialog("Message Sent", "The message will be sent as soon as the device is online");
             } else {
                 Throwable error = result.error;
                 showAlertDialog("Alert", "Error when sending the message");
@@ -405,15 +493,21 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
         String currentDateandTime = sdf.format(new Date());
         String topicName = "AmazonSNSTest" + currentDateandTime.toString();
+        boolean alreadyCreated = false;
         @Override
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
             try {
+                if (getStateStore().get(stateNewTopic) != null) {
+                    alreadyCreated = true;
+                    return new SNSAsyncTaskResponse(null, null);
+                }
+
                 // Creates a new topic
-                String newTopicARN = snsHelper.createTopic(topicName);
+                String newTopicARN = getHelper().createTopic(topicName);
 
-                // Saves the topic ARN to shared preferences
-                prefs.edit().putString(sharedPrefsNewTopic, newTopicARN).apply();
+                // Saves the topic ARN to the state store
+                getStateStore().edit().put(stateNewTopic, newTopicARN).apply();
                 return new SNSAsyncTaskResponse("Success", null);
             } catch (Exception e) {
                 String ex = e.toString();
@@ -425,7 +519,9 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         protected void onPostExecute(SNSAsyncTaskResponse result) {
             super.onPostExecute(result);
 
-            if (result.error == null) {
+            if (alreadyCreated) {
+                showAlertDialog("Topic already created", "A new topic has already been created with this device. Please delete it and before creating a new one.");
+            } else if (result.error == null) {
                 showAlertDialog("Topic created", "The following topic was created successfully: " + topicName);
             } else {
                 Throwable error = result.error;
@@ -441,22 +537,24 @@ public class AmazonSNSActivity  extends AppCompatActivity {
      * Deletes the topic that was created
      */
     private class DeleteTopic extends AsyncTask<String, Void, SNSAsyncTaskResponse> {
+        boolean notFound = false;
         @Override
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
             try {
-                // Gets the topic ARN that was saved in shared preferences
-                String newTopicARN = prefs.getString(sharedPrefsNewTopic, null);
+                // Gets the topic ARN that was saved in the state store
+                String newTopicARN = getStateStore().get(stateNewTopic);
                 if(newTopicARN != null) {
                     // Deletes the topic
-                    snsHelper.deleteTopic(newTopicARN);
+                    getHelper().deleteTopic(newTopicARN);
 
-                    // Deletes the topic ARN from shared preferences
-                    prefs.edit().putString(sharedPrefsNewTopic, null).apply();
+                    // Deletes the topic ARN and the subscription to it from the state store
+                    getStateStore().edit().remove(stateNewTopic).remove(stateSubscriptionARN).apply();
                     return new SNSAsyncTaskResponse("Success", null);
                 }
                 else
                 {
+                    notFound = true;
                     Exception e = new Exception("Could not find topic to delete");
                     return new SNSAsyncTaskResponse(null, e);
                 }
@@ -470,7 +568,9 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         protected void onPostExecute(SNSAsyncTaskResponse result) {
             super.onPostExecute(result);
 
-            if (result.error == null) {
+            if (notFound) {
+                showAlertDialog("Topic not found", "Could not find a topic to delete. One may not have been made with this device. Please create one and try again.");
+            } else if (result.error == null) {
                 showAlertDialog("Topic deleted", "Topic deleted successfully");
             } else {
                 Throwable error = result.error;
@@ -490,16 +590,17 @@ public class AmazonSNSActivity  extends AppCompatActivity {
         protected SNSAsyncTaskResponse doInBackground(String... s) {
 
             try {
-                // Gets the platform endpoint ARN from shared preferences
-                String endpointARN = prefs.getString(sharedPrefsPlatEndpointARN, null);
+                // Gets the platform endpoint ARN from the state store
+                String endpointARN = getStateStore().get(statePlatEndpointARN);
                 if(endpointARN != null) {
                     // Creates a DeleteEndpointRequest object containing the platform endpoint ARN
                     DeleteEndpointRequest request = new DeleteEndpointRequest();
                     request.setEndpointArn(endpointARN);
-                    snsHelper.deleteEndpoint(request);
+                    getHelper().deleteEndpoint(request);
+                    getEndpointRegistry().remove(endpointARN);
 
-                    // Deletes the platform endpoint ARN from shared preferences
-                    prefs.edit().putString(sharedPrefsPlatEndpointARN, null).apply();
+                    // Deletes the platform endpoint ARN from the state store
+                    getStateStore().edit().remove(statePlatEndpointARN).apply();
                     return new SNSAsyncTaskResponse("Success", null);
                 }
                 else
@@ -529,4 +630,44 @@ public class AmazonSNSActivity  extends AppCompatActivity {
             }
         }
     }
-}
\ No newline at end of file
+
+    /*
+        Reads the messages that were received after the last one that is shown, and adds them to
+        the list on the screen. Only the new messages are read from the log
+     */
+    public class ReadMessages extends AsyncTask<Void, Void, List<SNSMessageLog.Entry>> {
+        @Override
+        protected List<SNSMessageLog.Entry> doInBackground(Void... v) {
+            try {
+                return getMessageLog().readAfter(messageCursor, SNSMessageLog.DEFAULT_SLOT_COUNT);
+            } catch (IOException e) {
+                Log.e(TAG, "Error: " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<SNSMessageLog.Entry> entries) {
+            super.onPostExecute(entries);
+
+            if (entries == null || entries.isEmpty()) {
+                return;
+            }
+            TextView receivedMessages = (TextView) findViewById(R.id.received_messages);
+            StringBuilder text = new StringBuilder(messageCursor == 0 ? "" : receivedMessages.getText());
+            SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+            for (SNSMessageLog.Entry entry : entries) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(format.format(new Date(entry.receivedMillis))).append("  ");
+                if (!entry.title.isEmpty()) {
+                    text.append(entry.title).append(": ");
+                }
+                text.append(entry.body);
+            }
+            receivedMessages.setText(text);
+            messageCursor = entries.get(entries.size() - 1).sequence;
+        }
+    }
+}
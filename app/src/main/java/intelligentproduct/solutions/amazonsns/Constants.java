@@ -8,6 +8,9 @@ public class Constants {
     public static String sampleAccessKey = "";
     public static String sampleSecretKey = "";
 
+    // Opens a connection to SNS in the background when the app starts, so the first call does not wait for the TLS handshake
+    public static boolean warmUpConnection = true;
+
     //Unit Test Constants
     public static String testEndpointArn = "";
     public static String testTopicName = "createTopicTest";
@@ -5,6 +5,8 @@ import android.util.Log;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.firebase.iid.FirebaseInstanceIdService;
 
+import java.io.IOException;
+
 /**
  * Created by mariettam on 9/15/17.
  */
@@ -20,5 +22,13 @@ public class FirebaseInstanceIDService extends FirebaseInstanceIdService {
         // Get updated InstanceID token.
         String refreshedToken = FirebaseInstanceId.getInstance().getToken();
         Log.d("Amazon SNS Test", "Refreshed Firebase token: " + refreshedToken);
+
+        // Gives the app's SNS endpoint the new token instead of leaving it with the old one.
+        // Refreshes that come close together are sent as one update
+        try {
+            SNSComponents.getTokenUpdater(this).onTokenRefresh(refreshedToken);
+        } catch (IOException e) {
+            Log.e("Amazon SNS Test", "Could not open the endpoint registry: " + e.getMessage());
+        }
     }
 }
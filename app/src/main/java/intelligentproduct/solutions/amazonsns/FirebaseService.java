@@ -1,20 +1,12 @@
 package intelligentproduct.solutions.amazonsns;
 
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.media.RingtoneManager;
-import android.net.Uri;
-import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
-import java.util.Date;
-
-import intelligentproduct.solutions.activities.AmazonSNSActivity;
+import java.io.IOException;
+import java.util.Map;
 
 
 /**
@@ -22,6 +14,11 @@ import intelligentproduct.solutions.activities.AmazonSNSActivity;
  */
 
 public class FirebaseService extends FirebaseMessagingService {
+    private static final String TAG = "Amazon SNS Test";
+    private static final SNSPayloadDecoder payloadDecoder = new SNSPayloadDecoder();
+    // Kept for the whole process, since the service can be destroyed between the chunks of a message
+    private static final SNSPayloadAssembler payloadAssembler = new SNSPayloadAssembler();
+
     /**
      * Called when message is received.
      *
@@ -29,57 +26,86 @@ public class FirebaseService extends FirebaseMessagingService {
      */
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
-
-        StringBuilder message = new StringBuilder();
+        Map<String, String> data = remoteMessage.getData();
 
         // Check if message contains a data payload.
-        if (remoteMessage.getData().size() > 0) {
-            Log.d("Amazon SNS Test", "Amazon SNS message received - Message data payload: " + remoteMessage.getData());
-            String messageString = remoteMessage.getData().get("message");
-            if(messageString != null)
-            {
-                message.append(messageString);
+        if (data.size() > 0) {
+            SNSPayloadDecoder.Payload payload;
+            String text = data.containsKey("message") ? data.get("message") : data.get("default");
+            if (SNSPayloadCodec.isEncoded(text)) {
+                // A compressed message, or one chunk of one, sent with publishEncodedMessage
+                try {
+                    text = payloadAssembler.add(text);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Could not decode the message: " + e.getMessage());
+                    return;
+                }
+                if (text == null) {
+                    // The rest of the chunks have not arrived yet
+                    return;
+                }
+                payload = payloadDecoder.decode(text);
+            } else {
+                // Reads the message straight out of the payload, including SNS JSON envelopes
+                payload = payloadDecoder.decode(data);
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Amazon SNS message received - " + payload.title + ": " + payload.body);
+            }
+
+            if (isDuplicate(payload)) {
+                // SNS and Firebase can deliver a message more than once
+                return;
             }
-            else
-            {
-                //Try to get the default message if the notification does not have the "message" attribute
-                message.append( remoteMessage.getData().get("default"));
+
+            String message = payload.body != null ? payload.body : payload.title;
+            if (message != null) {
+                saveMessage(payload);
+                displayNotification(message);
             }
+        }
+    }
 
-            displayNotification(message.toString());
+    /**
+     * Checks if the message was already received, by its SNS MessageId or, when it has none, by
+     * its content
+     */
+    private boolean isDuplicate(SNSPayloadDecoder.Payload payload) {
+        try {
+            if (payload.messageId != null) {
+                return SNSComponents.getMessageIdDeduplicator(this).isDuplicate(payload.messageId);
+            }
+            return SNSComponents.getContentDeduplicator(this).isDuplicate(payload.title + "\n" + payload.body);
+        } catch (IOException e) {
+            // Showing a message twice is better than not showing it
+            Log.e(TAG, "Could not open the message deduplicator: " + e.getMessage());
+            return false;
         }
     }
 
     /**
-     * Create and show a simple notification containing the received message.
+     * Adds the message to the log that the activity shows, so it is kept after the notification
+     * is gone
+     */
+    private void saveMessage(SNSPayloadDecoder.Payload payload) {
+        try {
+            SNSComponents.getMessageLog(this).append(payload.title, payload.body);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a notification containing the received message. Messages that arrive close together
+     * are shown together, see SNSNotificationCoalescer.
      *
      * @param messageBody FCM message body received.
      */
     private void displayNotification(String messageBody) {
-        // The notification will go to the test screen
-        Intent intent = new Intent(this, AmazonSNSActivity.class);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent,
-                PendingIntent.FLAG_UPDATE_CURRENT);
-
-        Uri defaultSoundUri= RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-
-        // Sets the text to display and sound to play when a notification is received
-        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this)
-                .setSmallIcon(R.mipmap.ic_launcher)
-                .setContentTitle("Amazon SNS Test")
-                .setContentText(messageBody)
-                .setAutoCancel(true)
-                .setSound(defaultSoundUri)
-                .setContentIntent(pendingIntent);
-
-        NotificationManager notificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-        // Generates a unique number so that multiple notifications can be displayed at one time
-        int unique_number = (int) ((new Date().getTime() / 1000L) % Integer.MAX_VALUE);
-
-        // Displays the message
-        notificationManager.notify(unique_number, notificationBuilder.build());
+        try {
+            SNSComponents.getNotificationCoalescer(this).add(messageBody);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open the state store: " + e.getMessage());
+        }
     }
 }
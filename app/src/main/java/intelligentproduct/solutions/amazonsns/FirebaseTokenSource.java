@@ -0,0 +1,13 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.google.firebase.iid.FirebaseInstanceId;
+
+/**
+ * Gets the device's push notification token from Firebase
+ */
+public class FirebaseTokenSource implements SNSTokenSource {
+    @Override
+    public String getToken() {
+        return FirebaseInstanceId.getInstance().getToken();
+    }
+}
@@ -0,0 +1,292 @@
+package intelligentproduct.solutions.amazonsns;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the SNS objects that are shared by the whole app, such as the activity and the Firebase
+ * services, so there is only ever one of each per process. The ones that read files are opened the
+ * first time they are needed, so their getters must not be called on the main thread. The helper
+ * creates its AmazonSNSClient when it is made, so getHelper must not be called on the main thread
+ * either; call warmUp from the main thread instead.
+ * Each object is made under its own lock, and once it is made its getter takes no lock, so a
+ * thread that is opening one file never holds up a thread that uses another object.
+ */
+public final class SNSComponents {
+    private static final String TAG = "Amazon SNS Test";
+    private static final SNSTokenSource tokenSource = new FirebaseTokenSource();
+
+    // Runs warmUp on one thread, which stops when it has been idle for a while
+    private static final ThreadPoolExecutor warmUpExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), SNSExecutors.newThreadFactory("sns-warm-up"));
+    // Set while a warm up is queued or running, so calls in the meantime do not queue another
+    private static final AtomicBoolean warmingUp = new AtomicBoolean();
+
+    static {
+        warmUpExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Lazy<SNSOutbox> outbox = new Lazy<SNSOutbox>() {
+        @Override
+        SNSOutbox create(Context context) throws IOException {
+            SNSOutbox outbox = new SNSOutbox(new File(context.getFilesDir(), "sns-outbox"), getHelper());
+            outbox.setListener(new SNSOutbox.Listener() {
+                @Override
+                public void onRejected(SNSOperation operation, String[] arguments, RuntimeException error) {
+                    Log.e(TAG, "SNS rejected the queued " + operation + " to " + arguments[0] + ": " + error.getMessage());
+                }
+            });
+            outbox.start();
+            return outbox;
+        }
+    };
+
+    private static final Lazy<SNSEndpointRegistry> endpointRegistry = new Lazy<SNSEndpointRegistry>() {
+        @Override
+        SNSEndpointRegistry create(Context context) throws IOException {
+            return new SNSEndpointRegistry(getHelper(), new File(context.getFilesDir(), "sns-endpoints"));
+        }
+    };
+
+    private static final Lazy<SNSTokenUpdater> tokenUpdater = new Lazy<SNSTokenUpdater>() {
+        @Override
+        SNSTokenUpdater create(Context context) throws IOException {
+            return new SNSTokenUpdater(getEndpointRegistry(context));
+        }
+    };
+
+    private static final Lazy<SNSStateStore> stateStore = new Lazy<SNSStateStore>() {
+        @Override
+        SNSStateStore create(Context context) throws IOException {
+            SNSStateStore stateStore = new SNSStateStore(new File(context.getFilesDir(), "sns-state"));
+            importSharedPreferences(context, stateStore);
+            return stateStore;
+        }
+    };
+
+    private static final Lazy<SNSNotificationCoalescer> notificationCoalescer = new Lazy<SNSNotificationCoalescer>() {
+        @Override
+        SNSNotificationCoalescer create(Context context) throws IOException {
+            SNSNotificationDisplay display = new SNSNotificationDisplay(context, getStateStore(context));
+            return new SNSNotificationCoalescer(display, SNSNotificationCoalescer.DEFAULT_WINDOW_MILLIS,
+                    SNSNotificationCoalescer.DEFAULT_MIN_INTERVAL_MILLIS, SNSNotificationCoalescer.DEFAULT_MAX_SEPARATE,
+                    display.getNextId());
+        }
+    };
+
+    private static final Lazy<SNSMessageDeduplicator> messageIdDeduplicator = new Lazy<SNSMessageDeduplicator>() {
+        @Override
+        SNSMessageDeduplicator create(Context context) throws IOException {
+            return new SNSMessageDeduplicator(new File(context.getFilesDir(), "sns-dedup-ids"));
+        }
+    };
+
+    private static final Lazy<SNSMessageDeduplicator> contentDeduplicator = new Lazy<SNSMessageDeduplicator>() {
+        @Override
+        SNSMessageDeduplicator create(Context context) throws IOException {
+            return new SNSMessageDeduplicator(new File(context.getFilesDir(), "sns-dedup-content"),
+                    TimeUnit.MINUTES.toMillis(1), SNSMessageDeduplicator.DEFAULT_CAPACITY,
+                    SNSMessageDeduplicator.DEFAULT_FALSE_POSITIVE_RATE);
+        }
+    };
+
+    private static final Lazy<SNSMessageLog> messageLog = new Lazy<SNSMessageLog>() {
+        @Override
+        SNSMessageLog create(Context context) throws IOException {
+            return new SNSMessageLog(new File(context.getFilesDir(), "sns-messages"));
+        }
+    };
+
+    private SNSComponents() {
+    }
+
+    /**
+     * Makes one shared object the first time it is asked for. The object is kept in a volatile
+     * field, so once it is made it is read without taking the lock
+     */
+    private abstract static class Lazy<T> {
+        private volatile T value;
+
+        /**
+         * @param context any context of the app. The object is given the application context
+         */
+        T get(Context context) throws IOException {
+            T result = value;
+            if (result == null) {
+                synchronized (this) {
+                    result = value;
+                    if (result == null) {
+                        result = create(context.getApplicationContext());
+                        value = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the object, or null if it has not been made yet
+         */
+        T peek() {
+            return value;
+        }
+
+        abstract T create(Context context) throws IOException;
+    }
+
+    /**
+     * The helper is made the first time this class is used, by the class loader, which makes
+     * sure only one thread makes it
+     */
+    private static final class HelperHolder {
+        static final AmazonSNSHelper helper = new AmazonSNSHelper(Constants.sampleAccessKey,
+                Constants.sampleSecretKey, Constants.samplePlatformApplicationArn, tokenSource);
+    }
+
+    public static SNSTokenSource getTokenSource() {
+        return tokenSource;
+    }
+
+    public static AmazonSNSHelper getHelper() {
+        return HelperHolder.helper;
+    }
+
+    /**
+     * Makes the helper and opens the state store on a background thread and, if
+     * Constants.warmUpConnection is set, opens a connection to SNS with the helper, so the first
+     * call from the app runs at the speed of a warm connection. Safe to call from the main thread
+     * and more than once, such as from each onResume, which also keeps the connection from being
+     * closed for being idle. A call while an earlier warm up has not finished does nothing
+     */
+    public static void warmUp(final Context context) {
+        if (!warmingUp.compareAndSet(false, true)) {
+            // The warm up that is already on its way does the same work
+            return;
+        }
+        final Context applicationContext = context.getApplicationContext();
+        warmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try {
+                        getStateStore(applicationContext);
+                    } catch (IOException e) {
+                        // It is opened again when it is first used, which reports the error
+                    }
+                    AmazonSNSHelper helper = getHelper();
+                    if (Constants.warmUpConnection) {
+                        helper.warmUp();
+                    }
+                } finally {
+                    warmingUp.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the outbox the first time it is needed. Messages that were left in the outbox the last
+     * time the app ran are sent once it is open. Calls that SNS rejects are logged.
+     */
+    public static SNSOutbox getOutbox(Context context) throws IOException {
+        return outbox.get(context);
+    }
+
+    /**
+     * Tells the outbox to send its messages now if it is open, such as when the device is online
+     * again. Safe to call from the main thread
+     */
+    public static void retryOutbox() {
+        SNSOutbox opened = outbox.peek();
+        if (opened != null) {
+            opened.retryNow();
+        }
+    }
+
+    public static SNSEndpointRegistry getEndpointRegistry(Context context) throws IOException {
+        return endpointRegistry.get(context);
+    }
+
+    public static SNSTokenUpdater getTokenUpdater(Context context) throws IOException {
+        return tokenUpdater.get(context);
+    }
+
+    /**
+     * Opens the store of the app's topic, subscription and endpoint ARNs the first time it is
+     * needed. Values that older versions of the app kept in SharedPreferences are moved into it
+     */
+    public static SNSStateStore getStateStore(Context context) throws IOException {
+        return stateStore.get(context);
+    }
+
+    private static void importSharedPreferences(Context context, SNSStateStore store) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences("AmazonSNSTest", Context.MODE_PRIVATE);
+        Map<String, ?> values = prefs.getAll();
+        if (values.isEmpty()) {
+            return;
+        }
+
+        SNSStateStore.Editor editor = store.edit();
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            if (value.getValue() instanceof String && store.get(value.getKey()) == null) {
+                editor.put(value.getKey(), (String) value.getValue());
+            }
+        }
+        editor.commit();
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * Gets the coalescer that groups received messages into notifications. It is kept for the
+     * whole process because the Firebase service can be destroyed between messages. Its IDs carry
+     * on from the last process, so the state store is opened first
+     */
+    public static SNSNotificationCoalescer getNotificationCoalescer(Context context) throws IOException {
+        return notificationCoalescer.get(context);
+    }
+
+    /**
+     * Gets the deduplicator for received messages that have an SNS MessageId
+     */
+    public static SNSMessageDeduplicator getMessageIdDeduplicator(Context context) throws IOException {
+        return messageIdDeduplicator.get(context);
+    }
+
+    /**
+     * Gets the deduplicator for received messages without an ID, which are told apart by their
+     * content. It only remembers them for one to two minutes, since the same text can be sent again
+     * on purpose, such as the test activity's message
+     */
+    public static SNSMessageDeduplicator getContentDeduplicator(Context context) throws IOException {
+        return contentDeduplicator.get(context);
+    }
+
+    /**
+     * Opens the log of received messages the first time it is needed. Firebase writes to it and the
+     * activity reads from it, so it is shared by the whole process. Once it is open neither of them
+     * takes a lock to get it
+     */
+    public static SNSMessageLog getMessageLog(Context context) throws IOException {
+        return messageLog.get(context);
+    }
+
+    /**
+     * Removes the message notifications, such as when the user has opened the app and seen them.
+     * Safe to call from the main thread
+     */
+    public static void resetNotifications() {
+        SNSNotificationCoalescer coalescer = notificationCoalescer.peek();
+        if (coalescer != null) {
+            coalescer.reset();
+        }
+    }
+}
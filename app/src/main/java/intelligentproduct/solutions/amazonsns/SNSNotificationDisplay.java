@@ -0,0 +1,107 @@
+package intelligentproduct.solutions.amazonsns;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.media.RingtoneManager;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.List;
+
+import intelligentproduct.solutions.activities.AmazonSNSActivity;
+
+/**
+ * Posts the notifications for the messages that SNSNotificationCoalescer groups together.
+ * Every notification is in the same group, so Android 7.0 and later bundle them under the summary.
+ * The ID after the last one that was shown is saved in the state store, so the next process does
+ * not reuse the IDs of notifications that are still showing.
+ */
+public class SNSNotificationDisplay implements SNSNotificationCoalescer.Display {
+    private static final String GROUP_KEY = "intelligentproduct.solutions.amazonsns.MESSAGES";
+    private static final String TITLE = "Amazon SNS Test";
+    // The key of the next notification ID in the state store
+    private static final String STATE_NEXT_ID = "nextNotificationId";
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final SNSStateStore stateStore;
+
+    /**
+     * @param stateStore the store the next notification ID is saved in
+     */
+    public SNSNotificationDisplay(Context context, SNSStateStore stateStore) {
+        this.context = context.getApplicationContext();
+        this.stateStore = stateStore;
+        notificationManager = (NotificationManager) this.context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    /**
+     * @return the ID after the last one the app showed, to start the coalescer's counter with
+     */
+    public int getNextId() {
+        String nextId = stateStore.get(STATE_NEXT_ID);
+        try {
+            return nextId == null ? SNSNotificationCoalescer.SUMMARY_ID + 1 : Integer.parseInt(nextId);
+        } catch (NumberFormatException e) {
+            return SNSNotificationCoalescer.SUMMARY_ID + 1;
+        }
+    }
+
+    @Override
+    public void show(int id, String message) {
+        Notification notification = newBuilder()
+                .setContentText(message)
+                .build();
+        notificationManager.notify(id, notification);
+        // Saved in the background. The coalescer skips the summary's ID if this wraps around
+        stateStore.edit().put(STATE_NEXT_ID, String.valueOf(id + 1)).apply();
+    }
+
+    @Override
+    public void showSummary(int id, List<String> latestMessages, int count) {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(count + " new messages");
+        for (int i = latestMessages.size() - 1; i >= 0; i--) {
+            style.addLine(latestMessages.get(i));
+        }
+        if (count > latestMessages.size()) {
+            style.setSummaryText("+" + (count - latestMessages.size()) + " more");
+        }
+
+        // Only the first post of the summary plays a sound, not every update during a burst
+        Notification notification = newBuilder()
+                .setContentText(count + " new messages")
+                .setNumber(count)
+                .setStyle(style)
+                .setGroupSummary(true)
+                .setOnlyAlertOnce(true)
+                .build();
+        notificationManager.notify(id, notification);
+    }
+
+    @Override
+    public void cancel(int id) {
+        notificationManager.cancel(id);
+    }
+
+    /**
+     * Sets the parts that every notification has: the title, the sound, and going to the test
+     * screen when it is tapped
+     */
+    private NotificationCompat.Builder newBuilder() {
+        Intent intent = new Intent(context, AmazonSNSActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        return new NotificationCompat.Builder(context)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(TITLE)
+                .setAutoCancel(true)
+                .setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION))
+                .setGroup(GROUP_KEY)
+                .setContentIntent(pendingIntent);
+    }
+}
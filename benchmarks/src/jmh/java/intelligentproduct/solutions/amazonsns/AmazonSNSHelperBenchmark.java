@@ -0,0 +1,55 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the helper's publish, subscribe and endpoint creation calls against
+ * a stub client. Run with the gc profiler to see how much each call allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AmazonSNSHelperBenchmark {
+    private AmazonSNSHelper helper;
+
+    @Setup
+    public void setUp() {
+        helper = StubSNSClient.newHelper(new StubSNSClient(0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.getExecutor().shutdownNow();
+    }
+
+    @Benchmark
+    public String publishMessage() {
+        return helper.publishMessage(StubSNSClient.TOPIC_ARN, "message", "subject");
+    }
+
+    @Benchmark
+    public String publishAsync() throws InterruptedException, ExecutionException {
+        return helper.publishAsync(StubSNSClient.TOPIC_ARN, "message", "subject", null).get();
+    }
+
+    @Benchmark
+    public String pushNotificationSubscribe() {
+        return helper.pushNotificationSubscribe(StubSNSClient.TOPIC_ARN,
+                StubSNSClient.PLATFORM_APPLICATION_ARN + "/endpoint");
+    }
+
+    @Benchmark
+    public String createPlatformEndpoint() {
+        return helper.createPlatformEndpoint("token");
+    }
+}
@@ -0,0 +1,59 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures emailUnsubscribe on topics with more and more subscribers, both when the subscription
+ * index already knows the address and when the topic's subscriptions have to be listed and scanned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmailUnsubscribeBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int subscriptions;
+
+    private AmazonSNSHelper helper;
+    private String emailAddress;
+
+    @Setup
+    public void setUp() {
+        helper = StubSNSClient.newHelper(new StubSNSClient(subscriptions));
+        // The last address is on the last page, the worst case for a scan
+        emailAddress = StubSNSClient.emailAddress(subscriptions - 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.getExecutor().shutdownNow();
+    }
+
+    /**
+     * The index knows the subscription, so only the unsubscribe call is made
+     */
+    @Benchmark
+    public void indexed() {
+        helper.getSubscriptionIndex().put(StubSNSClient.TOPIC_ARN, "email", emailAddress,
+                StubSNSClient.TOPIC_ARN + ":" + (subscriptions - 1));
+        helper.emailUnsubscribe(StubSNSClient.TOPIC_ARN, emailAddress);
+    }
+
+    /**
+     * The index does not know the subscription, so every page of the topic is listed first
+     */
+    @Benchmark
+    public void listAndScan() {
+        helper.getSubscriptionIndex().removeTopic(StubSNSClient.TOPIC_ARN);
+        helper.emailUnsubscribe(StubSNSClient.TOPIC_ARN, emailAddress);
+    }
+}
@@ -0,0 +1,53 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding the data of a received message, both a plain message and an SNS envelope
+ * whose platform payload has a large data section that is skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadDecoderBenchmark {
+    private final SNSPayloadDecoder decoder = new SNSPayloadDecoder();
+    private Map<String, String> plain;
+    private Map<String, String> envelope;
+
+    @Setup
+    public void setUp() {
+        plain = new HashMap<>();
+        plain.put("default", "Test message");
+
+        StringBuilder data = new StringBuilder("{\"message\": \"data message\"");
+        for (int i = 0; i < 50; i++) {
+            data.append(", \"key").append(i).append("\": \"value ").append(i).append("\"");
+        }
+        data.append('}');
+        String gcm = "{\"notification\": {\"title\": \"Amazon SNS Test\", \"body\": \"Test message\"}, \"data\": "
+                + data + "}";
+        envelope = new HashMap<>();
+        envelope.put("default", "{\"default\": \"Test message\", \"GCM\": \""
+                + gcm.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+    }
+
+    @Benchmark
+    public SNSPayloadDecoder.Payload plainMessage() {
+        return decoder.decode(plain);
+    }
+
+    @Benchmark
+    public SNSPayloadDecoder.Payload snsEnvelope() {
+        return decoder.decode(envelope);
+    }
+}
@@ -0,0 +1,60 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publishing through the whole client, HTTP included, against an SNSStandInServer with
+ * a fixed latency, so the results are the same from run to run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class StandInPublishBenchmark {
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    private SNSStandInServer server;
+    private AmazonSNSHelper helper;
+    private String topicARN;
+
+    @Setup
+    public void setUp() throws IOException {
+        SNSStandInServer.enableNoDelay();
+        server = new SNSStandInServer().start();
+        server.setLatencyMillis(latencyMillis);
+        server.setRecordMessages(false);
+        SNSClientSettings settings = new SNSClientSettings.Builder()
+                .setEndpoint(server.getEndpoint())
+                .setRetryPolicy(SNSRetryPolicy.NONE)
+                .build();
+        helper = new AmazonSNSHelper("benchmarkAccessKey", "secretKey", StubSNSClient.PLATFORM_APPLICATION_ARN,
+                null, settings, Executors.newSingleThreadExecutor());
+        helper.getRateLimiter().setRate(SNSOperation.PUBLISH, 1e9);
+        topicARN = helper.createTopic("benchmarkTopic");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+        helper.getExecutor().shutdownNow();
+    }
+
+    @Benchmark
+    public String publishMessage() {
+        return helper.publishMessage(topicARN, "message", "subject");
+    }
+}
@@ -0,0 +1,99 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.CreatePlatformEndpointRequest;
+import com.amazonaws.services.sns.model.CreatePlatformEndpointResult;
+import com.amazonaws.services.sns.model.ListSubscriptionsByTopicResult;
+import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.services.sns.model.SubscribeRequest;
+import com.amazonaws.services.sns.model.SubscribeResult;
+import com.amazonaws.services.sns.model.Subscription;
+import com.amazonaws.services.sns.model.UnsubscribeRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for SNS that answers every call straight away without going over the network,
+ * so the benchmarks only measure the helper's own work. Its answers are made up front so the
+ * stub does not add to the allocation rate.
+ */
+class StubSNSClient extends AmazonSNSClient {
+    static final String TOPIC_ARN = "arn:aws:sns:us-east-1:123456789098:benchmarkTopic";
+    static final String PLATFORM_APPLICATION_ARN = "arn:aws:sns:us-east-1:123456789098:app/GCM/benchmark";
+
+    private static final int PAGE_SIZE = 100;
+
+    private final PublishResult publishResult = new PublishResult().withMessageId("messageId");
+    private final SubscribeResult subscribeResult = new SubscribeResult()
+            .withSubscriptionArn(TOPIC_ARN + ":subscription");
+    private final CreatePlatformEndpointResult endpointResult = new CreatePlatformEndpointResult()
+            .withEndpointArn(PLATFORM_APPLICATION_ARN.replace(":app/", ":endpoint/") + "/endpoint");
+    private final List<ListSubscriptionsByTopicResult> subscriptionPages = new ArrayList<>();
+
+    /**
+     * @param emailSubscriptions the number of email addresses subscribed to TOPIC_ARN
+     */
+    StubSNSClient(int emailSubscriptions) {
+        for (int start = 0; start < emailSubscriptions; start += PAGE_SIZE) {
+            List<Subscription> page = new ArrayList<>();
+            for (int i = start; i < Math.min(start + PAGE_SIZE, emailSubscriptions); i++) {
+                page.add(new Subscription()
+                        .withTopicArn(TOPIC_ARN)
+                        .withProtocol("email")
+                        .withEndpoint(emailAddress(i))
+                        .withSubscriptionArn(TOPIC_ARN + ":" + i));
+            }
+            int next = start + PAGE_SIZE;
+            subscriptionPages.add(new ListSubscriptionsByTopicResult()
+                    .withSubscriptions(page)
+                    .withNextToken(next < emailSubscriptions ? String.valueOf(next / PAGE_SIZE) : null));
+        }
+        if (subscriptionPages.isEmpty()) {
+            subscriptionPages.add(new ListSubscriptionsByTopicResult().withSubscriptions(new ArrayList<Subscription>()));
+        }
+    }
+
+    static String emailAddress(int number) {
+        return "user" + number + "@example.com";
+    }
+
+    /**
+     * Creates a helper that sends its calls to a stub client. The rate limits are raised out of
+     * the way so they do not cap the throughput that is measured.
+     */
+    static AmazonSNSHelper newHelper(StubSNSClient client) {
+        SNSRateLimiter rateLimiter = new SNSRateLimiter();
+        for (SNSOperation operation : SNSOperation.values()) {
+            rateLimiter.setRate(operation, 1e9);
+        }
+        return new AmazonSNSHelper(client, PLATFORM_APPLICATION_ARN, null,
+                Executors.newFixedThreadPool(4, SNSExecutors.newThreadFactory("sns-benchmark")),
+                rateLimiter, SNSRetryPolicy.NONE);
+    }
+
+    @Override
+    public PublishResult publish(String topicArn, String message, String subject) {
+        return publishResult;
+    }
+
+    @Override
+    public SubscribeResult subscribe(SubscribeRequest subscribeRequest) {
+        return subscribeResult;
+    }
+
+    @Override
+    public void unsubscribe(UnsubscribeRequest unsubscribeRequest) {
+    }
+
+    @Override
+    public CreatePlatformEndpointResult createPlatformEndpoint(CreatePlatformEndpointRequest createPlatformEndpointRequest) {
+        return endpointResult;
+    }
+
+    @Override
+    public ListSubscriptionsByTopicResult listSubscriptionsByTopic(String topicArn, String nextToken) {
+        return subscriptionPages.get(nextToken == null ? 0 : Integer.parseInt(nextToken));
+    }
+}
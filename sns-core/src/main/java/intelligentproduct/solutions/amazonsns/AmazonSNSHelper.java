@@ -0,0 +1,1033 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.CreatePlatformEndpointRequest;
+import com.amazonaws.services.sns.model.CreatePlatformEndpointResult;
+import com.amazonaws.services.sns.model.CreateTopicResult;
+import com.amazonaws.services.sns.model.DeleteEndpointRequest;
+import com.amazonaws.services.sns.model.Endpoint;
+import com.amazonaws.services.sns.model.GetEndpointAttributesRequest;
+import com.amazonaws.services.sns.model.GetEndpointAttributesResult;
+import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationRequest;
+import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationResult;
+import com.amazonaws.services.sns.model.ListSubscriptionsByTopicResult;
+import com.amazonaws.services.sns.model.ListTopicsResult;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.services.sns.model.SetEndpointAttributesRequest;
+import com.amazonaws.services.sns.model.SubscribeRequest;
+import com.amazonaws.services.sns.model.SubscribeResult;
+import com.amazonaws.services.sns.model.Subscription;
+import com.amazonaws.services.sns.model.Topic;
+import com.amazonaws.services.sns.model.UnsubscribeRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Created by mariettam on 9/15/17.
+ */
+
+/**
+ * This class implements AWS functions for setting up, subscribing to, and unsubscribing to Amazon SNS for sending and receiving messages.
+ * The full AWS API can be found here:
+ * http://docs.aws.amazon.com/AWSJavaSDK/latest/javadoc/com/amazonaws/services/sns/AmazonSNSClient.html
+ */
+public class AmazonSNSHelper {
+    private final AmazonSNSClient pushClient;
+    private final String platformApplicationArn;
+    private final SNSTokenSource tokenSource;
+    private final ExecutorService executor;
+    private final SNSRateLimiter rateLimiter;
+    private final SNSRetryPolicy retryPolicy;
+    private final SNSClientSettings settings;
+    private final SNSSubscriptionIndex subscriptionIndex;
+    private final SNSMetrics metrics = new SNSMetrics();
+    // Merges identical CreateTopic, Subscribe and CreatePlatformEndpoint calls that run at the same time
+    private final SNSSingleFlight singleFlight = new SNSSingleFlight();
+    private final SNSTopicCache topicCache = new SNSTopicCache();
+
+    /**
+     * Creates the helper without a token source. createPlatformEndpoint(String) has to be used to
+     * create endpoints
+     */
+    public AmazonSNSHelper(String accessKey, String secretKey, String platformAppArn){
+        this(accessKey, secretKey, platformAppArn, null, SNSClientSettings.defaults(), SNSExecutors.defaultExecutor());
+    }
+
+    /**
+     * Creates the helper with the source of the device's push notification token
+     * @param tokenSource the source of the token used by createPlatformEndpoint(), such as FirebaseTokenSource
+     */
+    public AmazonSNSHelper(String accessKey, String secretKey, String platformAppArn, SNSTokenSource tokenSource){
+        this(accessKey, secretKey, platformAppArn, tokenSource, SNSClientSettings.defaults(), SNSExecutors.defaultExecutor());
+    }
+
+    /**
+     * Creates the helper with its own executor for the asynchronous calls
+     * @param executor the executor that runs the asynchronous calls. See SNSExecutors.newBoundedExecutor
+     */
+    public AmazonSNSHelper(String accessKey, String secretKey, String platformAppArn, ExecutorService executor){
+        this(accessKey, secretKey, platformAppArn, null, SNSClientSettings.defaults(), executor);
+    }
+
+    /**
+     * Creates the helper with its own connection settings and executor.
+     * The AmazonSNSClient is shared with every other helper that uses the same credentials,
+     * platform application and settings, see SNSClientRegistry, and the rate limits are shared with
+     * every other helper of the same account and region, see SNSRateLimiter
+     * @param tokenSource the source of the token used by createPlatformEndpoint(), may be null
+     * @param settings the region, connection pool and retry settings of the client
+     * @param executor the executor that runs the asynchronous calls. See SNSExecutors.newBoundedExecutor
+     */
+    public AmazonSNSHelper(String accessKey, String secretKey, String platformAppArn, SNSTokenSource tokenSource,
+                           SNSClientSettings settings, ExecutorService executor){
+        this(SNSClientRegistry.getClient(accessKey, secretKey, platformAppArn, settings), platformAppArn, tokenSource,
+                executor, SNSRateLimiter.forAccount(accessKey, settings.getRegion()), settings.getRetryPolicy(), settings);
+    }
+
+    /**
+     * Creates the helper around a client that was made elsewhere, such as a stub client in tests
+     * @param pushClient the client that sends the calls
+     * @param rateLimiter the rate limits of the client's account and region
+     * @param retryPolicy the policy for trying failed calls again
+     */
+    AmazonSNSHelper(AmazonSNSClient pushClient, String platformAppArn, SNSTokenSource tokenSource,
+                    ExecutorService executor, SNSRateLimiter rateLimiter, SNSRetryPolicy retryPolicy){
+        this(pushClient, platformAppArn, tokenSource, executor, rateLimiter, retryPolicy, null);
+    }
+
+    /**
+     * @param settings the settings the client was made with, used by warmUp. May be null, in which
+     *                 case warmUp does nothing
+     */
+    private AmazonSNSHelper(AmazonSNSClient pushClient, String platformAppArn, SNSTokenSource tokenSource,
+                            ExecutorService executor, SNSRateLimiter rateLimiter, SNSRetryPolicy retryPolicy,
+                            SNSClientSettings settings){
+        this.pushClient = pushClient;
+        this.platformApplicationArn = platformAppArn;
+        this.tokenSource = tokenSource;
+        this.executor = executor;
+        this.rateLimiter = rateLimiter;
+        this.retryPolicy = retryPolicy;
+        this.settings = settings;
+        subscriptionIndex = new SNSSubscriptionIndex(this);
+    }
+
+    /**
+     * Gets the shared client this helper sends its calls with, for SNS functions that the helper
+     * does not implement
+     * @return the AmazonSNSClient
+     */
+    public AmazonSNSClient getClient()
+    {
+        return pushClient;
+    }
+
+    /**
+     * Gets the local index of the subscriptions that this helper has seen. Call
+     * startBackgroundRefresh on it to also pick up subscriptions that are changed outside of the app
+     * @return the subscription index
+     */
+    public SNSSubscriptionIndex getSubscriptionIndex()
+    {
+        return subscriptionIndex;
+    }
+
+    /**
+     * Gets the rate limiter of this helper's account and region, which can be used to change the
+     * rate of a call
+     * @return the rate limiter
+     */
+    public SNSRateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Gets the cache of topic ARNs that createTopic has resolved
+     * @return the cache, which can be cleared or checked for its hit count
+     */
+    public SNSTopicCache getTopicCache()
+    {
+        return topicCache;
+    }
+
+    /**
+     * Gets the latency histograms and counters of this helper's calls
+     * @return the metrics, which can be read with snapshot()
+     */
+    public SNSMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return the ARN of the platform application that endpoints are created in
+     */
+    public String getPlatformApplicationArn()
+    {
+        return platformApplicationArn;
+    }
+
+    /**
+     * Opens a connection to the SNS endpoint ahead of the first call, so that call does not wait
+     * for the DNS lookup and TLS handshake. The connection is left in the keep-alive pool that the
+     * client sends its calls through. Nothing is sent to the SNS API, so no rate limit is used.
+     * Does nothing if the helper was not made with SNSClientSettings
+     * @return true if the connection was opened
+     */
+    public boolean warmUp()
+    {
+        if (settings == null)
+        {
+            return false;
+        }
+
+        HttpURLConnection connection = null;
+        try
+        {
+            connection = (HttpURLConnection) new URL(settings.getEndpointUrl()).openConnection();
+            connection.setConnectTimeout(settings.getConnectionTimeoutMillis());
+            connection.setReadTimeout(settings.getSocketTimeoutMillis());
+            // SNS answers a request without an action with an error, which is all that is needed
+            int statusCode = connection.getResponseCode();
+            InputStream body = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body != null)
+            {
+                // The connection only goes back to the pool once its response has been read to the end
+                byte[] buffer = new byte[1024];
+                while (body.read(buffer) != -1)
+                {
+                    // Discards the response
+                }
+                body.close();
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            if (connection != null)
+            {
+                connection.disconnect();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates the PlatformEndpoint for the app with the token from the helper's token source
+     * @return the ARN of the PlatformEndpoint that was created
+     */
+    public String createPlatformEndpoint()
+    {
+        if (tokenSource == null)
+        {
+            throw new IllegalStateException("The helper was created without a token source");
+        }
+        return createPlatformEndpoint(tokenSource.getToken());
+    }
+
+    /**
+     * Creates a PlatformEndpoint for a push notification token
+     * @param token the device's push notification token, such as its Firebase token
+     * @return the ARN of the PlatformEndpoint that was created
+     */
+    public String createPlatformEndpoint(String token)
+    {
+        // Makes the platform application for the app
+        final CreatePlatformEndpointRequest platformEndpointRequest = new CreatePlatformEndpointRequest();
+        platformEndpointRequest.setCustomUserData("Android app");
+        platformEndpointRequest.setToken(token);
+        platformEndpointRequest.setPlatformApplicationArn(platformApplicationArn);
+
+        String key = "CreatePlatformEndpoint\n" + platformApplicationArn + "\n" + token;
+        CreatePlatformEndpointResult result = invokeOnce(key, SNSOperation.CREATE_PLATFORM_ENDPOINT, new Callable<CreatePlatformEndpointResult>() {
+            @Override
+            public CreatePlatformEndpointResult call() {
+                return pushClient.createPlatformEndpoint(platformEndpointRequest);
+            }
+        });
+        return result.getEndpointArn();
+    }
+
+    /**
+     * Creates a new topic, or gets the ARN of the topic if it already exists. The ARN is cached, so
+     * calling this before every publish to make sure the topic exists only calls SNS once every
+     * few minutes, see SNSTopicCache
+     * @param topicName The name of the topic to create
+     * @return the topic ARN
+     */
+    public String createTopic(final String topicName)
+    {
+        String topicArn = topicCache.get(topicName);
+        if (topicArn != null)
+        {
+            return topicArn;
+        }
+
+        // A call that was already running before a topic was deleted is neither joined nor cached
+        long generation = topicCache.getGeneration();
+        CreateTopicResult createTopicResult = invokeOnce("CreateTopic\n" + generation + "\n" + topicName, SNSOperation.CREATE_TOPIC, new Callable<CreateTopicResult>() {
+            @Override
+            public CreateTopicResult call() {
+                return pushClient.createTopic(topicName);
+            }
+        });
+        topicCache.put(topicName, createTopicResult.getTopicArn(), generation);
+        return createTopicResult.getTopicArn();
+    }
+
+    /**
+     * Deletes a topic
+     * @param topicARN The topic ARN of the topic to delete
+     */
+    public void deleteTopic(final String topicARN)
+    {
+        invoke(SNSOperation.DELETE_TOPIC, new Callable<Void>() {
+            @Override
+            public Void call() {
+                pushClient.deleteTopic(topicARN);
+                return null;
+            }
+        });
+        subscriptionIndex.removeTopic(topicARN);
+        topicCache.removeArn(topicARN);
+    }
+
+    /**
+     * Deletes the Amazon SNS endpoint for this application
+     * @param deleteEndpointRequest the DeleteEndpointRequest containing the endpoint ARN for this application
+     */
+    public void deleteEndpoint(final DeleteEndpointRequest deleteEndpointRequest)
+    {
+        invoke(SNSOperation.DELETE_ENDPOINT, new Callable<Void>() {
+            @Override
+            public Void call() {
+                pushClient.deleteEndpoint(deleteEndpointRequest);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reads the attributes of a platform endpoint, such as its "Token" and whether it is "Enabled"
+     * @param endpointARN the ARN of the endpoint
+     * @return the endpoint's attributes
+     * @throws com.amazonaws.services.sns.model.NotFoundException if the endpoint was deleted
+     */
+    public Map<String, String> getEndpointAttributes(String endpointARN)
+    {
+        final GetEndpointAttributesRequest request = new GetEndpointAttributesRequest().withEndpointArn(endpointARN);
+        GetEndpointAttributesResult result = invoke(SNSOperation.GET_ENDPOINT_ATTRIBUTES, new Callable<GetEndpointAttributesResult>() {
+            @Override
+            public GetEndpointAttributesResult call() {
+                return pushClient.getEndpointAttributes(request);
+            }
+        });
+        return result.getAttributes();
+    }
+
+    /**
+     * Changes attributes of a platform endpoint, such as giving it a new "Token" or setting "Enabled" to "true"
+     * @param endpointARN the ARN of the endpoint
+     * @param attributes the attributes to change. Attributes that are not given keep their values
+     */
+    public void setEndpointAttributes(String endpointARN, Map<String, String> attributes)
+    {
+        final SetEndpointAttributesRequest request = new SetEndpointAttributesRequest()
+                .withEndpointArn(endpointARN)
+                .withAttributes(attributes);
+        invoke(SNSOperation.SET_ENDPOINT_ATTRIBUTES, new Callable<Void>() {
+            @Override
+            public Void call() {
+                pushClient.setEndpointAttributes(request);
+                return null;
+            }
+        });
+    }
+
+    /**
+     *
+     * Subscribes an email address to receive notifications from Amazon SNS
+     * @param topicARN the topic that was received from the bridge that the app will subscribe to
+     * @param emailAddress the email address to subscribe to the notifications
+     */
+    public void emailSubscribe(String topicARN, String emailAddress)
+    {
+        // Creates the subscription request and subscribes the email address to the topic
+        SubscribeRequest sr = new SubscribeRequest();
+        sr.setTopicArn(topicARN);
+        sr.setEndpoint(emailAddress);
+        sr.setProtocol("email");
+        SubscribeResult subResult = subscribe(sr);
+
+        // Email subscriptions only get an ARN once they are confirmed, so this is only added
+        // to the index if the address had already confirmed an earlier subscription
+        subscriptionIndex.put(topicARN, "email", emailAddress, subResult.getSubscriptionArn());
+    }
+
+    /**
+     * Unsubscribes the email address from receiving notifications from Amazon SNS
+     * @param topicARN
+     * @param emailAddress the email address to unsubscribe from notifications
+     */
+    public void emailUnsubscribe(String topicARN, String emailAddress)
+    {
+        // Looks the subscription up in the local index, and only reads the topic's
+        // subscriptions from SNS if the index does not know about it. An address that a recent
+        // read did not find, such as one whose subscription is still waiting for confirmation,
+        // is not looked for again until the index forgets the miss
+        String subscriptionARN = subscriptionIndex.find(topicARN, "email", emailAddress);
+        if (subscriptionARN == null)
+        {
+            if (subscriptionIndex.isKnownMissing(topicARN, "email", emailAddress))
+            {
+                return;
+            }
+            subscriptionIndex.refresh(topicARN);
+            subscriptionARN = subscriptionIndex.find(topicARN, "email", emailAddress);
+            if (subscriptionARN == null)
+            {
+                subscriptionIndex.putMissing(topicARN, "email", emailAddress);
+            }
+        }
+
+        if (subscriptionARN != null)
+        {
+            try
+            {
+                unsubscribe(subscriptionARN);
+            }
+            catch (NotFoundException e)
+            {
+                // The index was out of date, so this reads the topic again and retries once
+                subscriptionIndex.removeSubscription(subscriptionARN);
+                subscriptionIndex.refresh(topicARN);
+                subscriptionARN = subscriptionIndex.find(topicARN, "email", emailAddress);
+                if (subscriptionARN != null)
+                {
+                    unsubscribe(subscriptionARN);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Publishes a message to a topic. Any device or address that is subcribed to this topic will receive the message
+     * @param topicArn The topic ARN that the message will be published to
+     * @param message The message that will be sent
+     * @param subject The subject of the message that will be sent
+     * @return the message ID that SNS assigned to the message
+     */
+    public String publishMessage(final String topicArn, final String message, final String subject)
+    {
+        PublishResult publishResult;
+        try
+        {
+            publishResult = invoke(SNSOperation.PUBLISH, new Callable<PublishResult>() {
+                @Override
+                public PublishResult call() {
+                    return pushClient.publish(topicArn, message, subject);
+                }
+            });
+        }
+        catch (NotFoundException e)
+        {
+            // The topic was deleted, so the next createTopic asks SNS for it again
+            topicCache.removeArn(topicArn);
+            throw e;
+        }
+        return publishResult.getMessageId();
+    }
+
+    /**
+     * Publishes up to SNSBatchClient.MAX_BATCH_SIZE messages to a topic in a single PublishBatch
+     * request. See SNSPublishBatcher to group messages from many callers
+     * @param topicArn The topic ARN that the messages will be published to
+     * @param entries The messages and their subjects
+     * @return the message ID or the error of each message, in the order they were given
+     * @throws UnsupportedOperationException if the helper's client did not come from SNSClientRegistry
+     */
+    public SNSBatchClient.Result publishBatch(final String topicArn, final List<SNSBatchClient.Entry> entries)
+    {
+        if (!(pushClient instanceof SNSBatchClient))
+        {
+            throw new UnsupportedOperationException("PublishBatch needs an SNSBatchClient");
+        }
+        final SNSBatchClient batchClient = (SNSBatchClient) pushClient;
+        try
+        {
+            return invoke(SNSOperation.PUBLISH_BATCH, new Callable<SNSBatchClient.Result>() {
+                @Override
+                public SNSBatchClient.Result call() {
+                    return batchClient.publishBatch(topicArn, entries);
+                }
+            });
+        }
+        catch (NotFoundException e)
+        {
+            topicCache.removeArn(topicArn);
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes a message straight to one platform endpoint instead of to a topic. See
+     * SNSFanOutPublisher to send to many endpoints at once
+     * @param endpointArn the ARN of the endpoint that will receive the message
+     * @param message The message that will be sent
+     * @return the message ID that SNS assigned to the message
+     * @throws com.amazonaws.services.sns.model.EndpointDisabledException if SNS disabled the endpoint
+     * @throws NotFoundException if the endpoint was deleted
+     */
+    public String publishToEndpoint(String endpointArn, String message)
+    {
+        final PublishRequest publishRequest = new PublishRequest();
+        publishRequest.setTargetArn(endpointArn);
+        publishRequest.setMessage(message);
+
+        PublishResult publishResult = invoke(SNSOperation.PUBLISH, new Callable<PublishResult>() {
+            @Override
+            public PublishResult call() {
+                return pushClient.publish(publishRequest);
+            }
+        });
+        return publishResult.getMessageId();
+    }
+
+    /**
+     * Publishes a message that may be larger than a push notification can hold. Messages that fit
+     * are published as they are. Larger ones are compressed and split into chunks if needed, see
+     * SNSPayloadCodec, and the chunks are published at the same time on the helper's executor.
+     * The calling thread sends the chunks that no executor thread has started, so this can be
+     * called from the executor itself, and a full executor only makes it slower.
+     * The app puts them back together with SNSPayloadAssembler
+     * @param topicArn The topic ARN that the message will be published to
+     * @param message The message that will be sent
+     * @param subject The subject of the message that will be sent
+     * @return the message IDs of the chunks, in order
+     */
+    public List<String> publishEncodedMessage(String topicArn, String message, String subject)
+    {
+        return publishEncodedMessage(topicArn, message, subject, SNSPayloadCodec.DEFAULT_MAX_CHUNK_BYTES);
+    }
+
+    /**
+     * Publishes a message that may be larger than a push notification can hold, see
+     * publishEncodedMessage(String, String, String)
+     * @param maxChunkBytes the largest payload that can be sent, in UTF-8 bytes
+     * @return the message IDs of the chunks, in order
+     */
+    public List<String> publishEncodedMessage(final String topicArn, String message, final String subject, int maxChunkBytes)
+    {
+        List<String> payloads = SNSPayloadCodec.encode(message, maxChunkBytes);
+        if (payloads.size() == 1)
+        {
+            return Collections.singletonList(publishMessage(topicArn, payloads.get(0), subject));
+        }
+
+        List<FutureTask<String>> chunks = new ArrayList<>(payloads.size());
+        for (final String payload : payloads)
+        {
+            FutureTask<String> chunk = new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return publishMessage(topicArn, payload, subject);
+                }
+            });
+            chunks.add(chunk);
+            try
+            {
+                executor.execute(chunk);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The executor is full or shut down, so the chunk is sent below instead
+            }
+        }
+
+        // Waits for every chunk before reporting a failure, so none are still being sent afterwards
+        List<String> messageIds = new ArrayList<>(chunks.size());
+        RuntimeException failure = null;
+        for (FutureTask<String> chunk : chunks)
+        {
+            // Does nothing if an executor thread already started it, so get() only waits for a
+            // chunk that is being sent
+            chunk.run();
+            try
+            {
+                messageIds.add(chunk.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while publishing the chunks", e);
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new AmazonClientException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return messageIds;
+    }
+
+    /**
+     * Subscribes the application to receive push notifications from Amazon SNS
+     * @param topicARN the topic that was received from the bridge that the app will subscribe to
+     */
+    public String pushNotificationSubscribe(String topicARN, String platformEndpointARN)
+    {
+        // Creates the subscription request and subscribes to SNS
+        SubscribeRequest sr = new SubscribeRequest();
+        sr.setTopicArn(topicARN);
+        sr.setEndpoint(platformEndpointARN);
+        sr.setProtocol("application");
+        SubscribeResult subResult = subscribe(sr);
+        subscriptionIndex.put(topicARN, "application", platformEndpointARN, subResult.getSubscriptionArn());
+        return subResult.getSubscriptionArn();
+    }
+
+    /**
+     * Unsubscribes the application from receiving push notifications from Amazon SNS
+     * @param subscriptionARN the subscription ARN to unsubscribe with
+     */
+    public void pushNotificationUnsubscribe(String subscriptionARN)
+    {
+        unsubscribe(subscriptionARN);
+    }
+
+    /**
+     * Sends a subscription request
+     * @param subscribeRequest the request
+     * @return the result of the request
+     */
+    private SubscribeResult subscribe(final SubscribeRequest subscribeRequest)
+    {
+        String key = "Subscribe\n" + subscribeRequest.getTopicArn() + "\n" + subscribeRequest.getProtocol()
+                + "\n" + subscribeRequest.getEndpoint();
+        return invokeOnce(key, SNSOperation.SUBSCRIBE, new Callable<SubscribeResult>() {
+            @Override
+            public SubscribeResult call() {
+                return pushClient.subscribe(subscribeRequest);
+            }
+        });
+    }
+
+    /**
+     * Creates the unsubscription request, unsubscribes and removes the subscription from the index
+     * @param subscriptionARN the subscription ARN to unsubscribe with
+     */
+    private void unsubscribe(String subscriptionARN)
+    {
+        final UnsubscribeRequest ur = new UnsubscribeRequest();
+        ur.setSubscriptionArn(subscriptionARN);
+        invoke(SNSOperation.UNSUBSCRIBE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                pushClient.unsubscribe(ur);
+                return null;
+            }
+        });
+        subscriptionIndex.removeSubscription(subscriptionARN);
+    }
+
+    /**
+     * Lists every topic in the account. Pages are read as the iteration reaches them, with the next
+     * page read in the background
+     * @return the topics
+     */
+    public SNSPagedIterable<Topic> topics()
+    {
+        return new SNSPagedIterable<Topic>(executor, null) {
+            @Override
+            protected Page<Topic> fetchPage(final String nextToken) {
+                ListTopicsResult result = invoke(SNSOperation.LIST_TOPICS, new Callable<ListTopicsResult>() {
+                    @Override
+                    public ListTopicsResult call() {
+                        return pushClient.listTopics(nextToken);
+                    }
+                });
+                return new Page<>(result.getTopics(), result.getNextToken());
+            }
+        };
+    }
+
+    /**
+     * Lists every subscription of a topic. Pages are read as the iteration reaches them, with the
+     * next page read in the background
+     * @param topicARN the topic whose subscriptions are listed
+     * @return the subscriptions
+     */
+    public SNSPagedIterable<Subscription> subscriptionsByTopic(final String topicARN)
+    {
+        return new SNSPagedIterable<Subscription>(executor, null) {
+            @Override
+            protected Page<Subscription> fetchPage(final String nextToken) {
+                ListSubscriptionsByTopicResult result = invoke(SNSOperation.LIST_SUBSCRIPTIONS_BY_TOPIC, new Callable<ListSubscriptionsByTopicResult>() {
+                    @Override
+                    public ListSubscriptionsByTopicResult call() {
+                        return pushClient.listSubscriptionsByTopic(topicARN, nextToken);
+                    }
+                });
+                return new Page<>(result.getSubscriptions(), result.getNextToken());
+            }
+        };
+    }
+
+    /**
+     * Lists every endpoint of this helper's platform application. Pages are read as the iteration
+     * reaches them, with the next page read in the background
+     * @return the endpoints
+     */
+    public SNSPagedIterable<Endpoint> endpointsByPlatformApplication()
+    {
+        return endpointsByPlatformApplication(null);
+    }
+
+    /**
+     * Lists the endpoints of this helper's platform application, starting from a page that an
+     * earlier listing reached, such as one saved from PageIterator.getPageToken()
+     * @param startToken the NextToken of the page to start from, or null to start from the first page
+     * @return the endpoints
+     */
+    public SNSPagedIterable<Endpoint> endpointsByPlatformApplication(String startToken)
+    {
+        return new SNSPagedIterable<Endpoint>(executor, startToken) {
+            @Override
+            protected Page<Endpoint> fetchPage(String nextToken) {
+                final ListEndpointsByPlatformApplicationRequest request = new ListEndpointsByPlatformApplicationRequest();
+                request.setPlatformApplicationArn(platformApplicationArn);
+                request.setNextToken(nextToken);
+                ListEndpointsByPlatformApplicationResult result = invoke(SNSOperation.LIST_ENDPOINTS_BY_PLATFORM_APPLICATION, new Callable<ListEndpointsByPlatformApplicationResult>() {
+                    @Override
+                    public ListEndpointsByPlatformApplicationResult call() {
+                        return pushClient.listEndpointsByPlatformApplication(request);
+                    }
+                });
+                return new Page<>(result.getEndpoints(), result.getNextToken());
+            }
+        };
+    }
+
+    /**
+     * Sends a call to SNS like invoke, unless an identical call is already running on another
+     * thread, in which case this waits for it and returns its result. Only for calls that give the
+     * same result however many times they are made
+     * @param key names the operation and every parameter of the call
+     */
+    private <T> T invokeOnce(String key, final SNSOperation operation, final Callable<T> call)
+    {
+        return singleFlight.run(key, new Callable<T>() {
+            @Override
+            public T call() {
+                return invoke(operation, call);
+            }
+        });
+    }
+
+    /**
+     * Sends a call to SNS within the rate limit of its operation, and tries it again with back off
+     * if it fails with an error that may go away, such as throttling or a network error
+     * @param operation the SNS operation of the call
+     * @param call the call to the client
+     * @return the result of the call
+     */
+    private <T> T invoke(SNSOperation operation, Callable<T> call)
+    {
+        long startNanos = metrics.onStart(operation);
+        long delayMillis = 0;
+        for (int retries = 0; ; retries++)
+        {
+            try
+            {
+                rateLimiter.acquire(operation);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                metrics.onError(operation, startNanos);
+                throw new AmazonClientException("Interrupted while waiting for the SNS rate limit", e);
+            }
+
+            try
+            {
+                T result = call.call();
+                rateLimiter.onSuccess(operation);
+                metrics.onSuccess(operation, startNanos);
+                return result;
+            }
+            catch (RuntimeException e)
+            {
+                if (SNSRetryPolicy.isThrottle(e))
+                {
+                    rateLimiter.onThrottled(operation);
+                    metrics.onThrottled(operation);
+                }
+                if (!retryPolicy.shouldRetry(e, retries))
+                {
+                    metrics.onError(operation, startNanos);
+                    throw e;
+                }
+
+                delayMillis = retryPolicy.nextDelayMillis(delayMillis);
+                try
+                {
+                    Thread.sleep(delayMillis);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                    metrics.onError(operation, startNanos);
+                    throw e;
+                }
+            }
+            catch (Exception e)
+            {
+                // The calls only throw unchecked AWS exceptions
+                metrics.onError(operation, startNanos);
+                throw new AmazonClientException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /******************
+     * Asynchronous calls
+     * These run the functions above on the helper's executor so they can be called from any thread,
+     * including the main thread. Each returns a Future for the result and also reports it to the
+     * optional callback, which is run on the executor thread.
+     ******************/
+
+    /**
+     * Opens a connection to the SNS endpoint without blocking the calling thread, see warmUp
+     * @return a Future that is true once the connection was opened
+     */
+    public Future<Boolean> warmUpAsync()
+    {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return warmUp();
+            }
+        }, null);
+    }
+
+    /**
+     * Creates the PlatformEndpoint for the app without blocking the calling thread
+     * @param callback optional callback that receives the ARN of the PlatformEndpoint, may be null
+     * @return a Future for the ARN of the PlatformEndpoint that was created
+     */
+    public Future<String> createPlatformEndpointAsync(SNSCallback<String> callback)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return createPlatformEndpoint();
+            }
+        }, callback);
+    }
+
+    /**
+     * Creates a new topic without blocking the calling thread
+     * @param topicName The name of the topic to create
+     * @param callback optional callback that receives the topic ARN, may be null
+     * @return a Future for the topic ARN
+     */
+    public Future<String> createTopicAsync(final String topicName, SNSCallback<String> callback)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return createTopic(topicName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes a topic without blocking the calling thread
+     * @param topicARN The topic ARN of the topic to delete
+     * @param callback optional callback that is told when the topic was deleted, may be null
+     * @return a Future that completes when the topic was deleted
+     */
+    public Future<Void> deleteTopicAsync(final String topicARN, SNSCallback<Void> callback)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteTopic(topicARN);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes the Amazon SNS endpoint for this application without blocking the calling thread
+     * @param deleteEndpointRequest the DeleteEndpointRequest containing the endpoint ARN for this application
+     * @param callback optional callback that is told when the endpoint was deleted, may be null
+     * @return a Future that completes when the endpoint was deleted
+     */
+    public Future<Void> deleteEndpointAsync(final DeleteEndpointRequest deleteEndpointRequest, SNSCallback<Void> callback)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteEndpoint(deleteEndpointRequest);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Subscribes an email address to a topic without blocking the calling thread
+     * @param topicARN the topic to subscribe to
+     * @param emailAddress the email address to subscribe to the notifications
+     * @param callback optional callback that is told when the subscription request was sent, may be null
+     * @return a Future that completes when the subscription request was sent
+     */
+    public Future<Void> emailSubscribeAsync(final String topicARN, final String emailAddress, SNSCallback<Void> callback)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                emailSubscribe(topicARN, emailAddress);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Unsubscribes an email address from a topic without blocking the calling thread
+     * @param topicARN the topic to unsubscribe from
+     * @param emailAddress the email address to unsubscribe from notifications
+     * @param callback optional callback that is told when the address was unsubscribed, may be null
+     * @return a Future that completes when the address was unsubscribed
+     */
+    public Future<Void> emailUnsubscribeAsync(final String topicARN, final String emailAddress, SNSCallback<Void> callback)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                emailUnsubscribe(topicARN, emailAddress);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Publishes a message to a topic without blocking the calling thread
+     * @param topicArn The topic ARN that the message will be published to
+     * @param message The message that will be sent
+     * @param subject The subject of the message that will be sent
+     * @param callback optional callback that receives the message ID, may be null
+     * @return a Future for the message ID that SNS assigned to the message
+     */
+    public Future<String> publishAsync(final String topicArn, final String message, final String subject, SNSCallback<String> callback)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return publishMessage(topicArn, message, subject);
+            }
+        }, callback);
+    }
+
+    /**
+     * Subscribes a platform endpoint to a topic without blocking the calling thread
+     * @param topicARN the topic to subscribe to
+     * @param platformEndpointARN the ARN of the platform endpoint to subscribe
+     * @param callback optional callback that receives the subscription ARN, may be null
+     * @return a Future for the subscription ARN
+     */
+    public Future<String> pushNotificationSubscribeAsync(final String topicARN, final String platformEndpointARN, SNSCallback<String> callback)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return pushNotificationSubscribe(topicARN, platformEndpointARN);
+            }
+        }, callback);
+    }
+
+    /**
+     * Unsubscribes a platform endpoint without blocking the calling thread
+     * @param subscriptionARN the subscription ARN to unsubscribe with
+     * @param callback optional callback that is told when the endpoint was unsubscribed, may be null
+     * @return a Future that completes when the endpoint was unsubscribed
+     */
+    public Future<Void> pushNotificationUnsubscribeAsync(final String subscriptionARN, SNSCallback<Void> callback)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                pushNotificationUnsubscribe(subscriptionARN);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Gets the executor that runs the asynchronous calls
+     * @return the executor that was given to the constructor
+     */
+    ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Runs a call on the helper's executor and reports its result to the callback
+     * @param call the SNS call to run
+     * @param callback optional callback for the result, may be null
+     * @return a Future for the result of the call
+     * @throws java.util.concurrent.RejectedExecutionException if the executor's queue is full
+     */
+    private <T> Future<T> submit(final Callable<T> call, final SNSCallback<T> callback)
+    {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result;
+                try
+                {
+                    result = call.call();
+                }
+                catch (Exception e)
+                {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                    throw e;
+                }
+
+                if (callback != null) {
+                    callback.onSuccess(result);
+                }
+                return result;
+            }
+        });
+    }
+}
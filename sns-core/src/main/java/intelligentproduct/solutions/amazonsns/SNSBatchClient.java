@@ -0,0 +1,210 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.http.DefaultErrorResponseHandler;
+import com.amazonaws.http.ExecutionContext;
+import com.amazonaws.http.HttpClient;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.http.StaxResponseHandler;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.transform.StaxUnmarshallerContext;
+import com.amazonaws.transform.Unmarshaller;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An AmazonSNSClient that can also send PublishBatch, which this version of the SDK does not have.
+ * The call is built, signed and sent the same way as the SDK's own calls, through the client's
+ * connections and with its credentials, endpoint and error handling, so up to MAX_BATCH_SIZE
+ * messages to one topic cost a single request.
+ */
+public class SNSBatchClient extends AmazonSNSClient {
+    public static final int MAX_BATCH_SIZE = 10;
+
+    private static final String API_VERSION = "2010-03-31";
+
+    private final AWSCredentialsProvider credentialsProvider;
+
+    /**
+     * A message to send with PublishBatch
+     */
+    public static final class Entry {
+        public final String message;
+        public final String subject;
+
+        /**
+         * @param subject the subject of the message, or null for none
+         */
+        public Entry(String message, String subject) {
+            this.message = message;
+            this.subject = subject;
+        }
+    }
+
+    /**
+     * What happened to each message of a PublishBatch, in the order the messages were given
+     */
+    public static final class Result {
+        // The message ID SNS gave each message, or null if it failed
+        public final List<String> messageIds;
+        // Why each message failed, or null if it was sent
+        public final List<AmazonServiceException> errors;
+
+        Result(List<String> messageIds, List<AmazonServiceException> errors) {
+            this.messageIds = Collections.unmodifiableList(messageIds);
+            this.errors = Collections.unmodifiableList(errors);
+        }
+    }
+
+    public SNSBatchClient(AWSCredentialsProvider credentialsProvider, ClientConfiguration configuration,
+                          HttpClient httpClient) {
+        super(credentialsProvider, configuration, httpClient);
+        this.credentialsProvider = credentialsProvider;
+    }
+
+    /**
+     * Publishes up to MAX_BATCH_SIZE messages to a topic in one request. A message that SNS
+     * refuses only fails its own entry of the result
+     * @param topicArn the topic the messages are published to
+     * @param entries the messages
+     * @return the message ID or the error of each message
+     * @throws AmazonServiceException if SNS refused the whole request, for example because the
+     *         topic does not exist or the call was throttled
+     */
+    public Result publishBatch(String topicArn, List<Entry> entries) {
+        if (entries.isEmpty() || entries.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A batch holds from 1 to " + MAX_BATCH_SIZE + " messages");
+        }
+
+        AmazonWebServiceRequest originalRequest = new AmazonWebServiceRequest() {
+        };
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(originalRequest, "AmazonSNS");
+        request.setHttpMethod(HttpMethodName.POST);
+        request.addParameter("Action", "PublishBatch");
+        request.addParameter("Version", API_VERSION);
+        request.addParameter("TopicArn", topicArn);
+        for (int i = 0; i < entries.size(); i++) {
+            // The entries are numbered from 1, and the index doubles as the entry's ID
+            String prefix = "PublishBatchRequestEntries.member." + (i + 1) + ".";
+            request.addParameter(prefix + "Id", String.valueOf(i));
+            request.addParameter(prefix + "Message", entries.get(i).message);
+            if (entries.get(i).subject != null) {
+                request.addParameter(prefix + "Subject", entries.get(i).subject);
+            }
+        }
+        request.setEndpoint(endpoint);
+        request.setTimeOffset(timeOffset);
+
+        ExecutionContext executionContext = createExecutionContext(originalRequest);
+        executionContext.setCredentials(credentialsProvider.getCredentials());
+        return client.execute(request, new StaxResponseHandler<>(new ResultUnmarshaller(entries.size())),
+                new DefaultErrorResponseHandler(exceptionUnmarshallers), executionContext).getAwsResponse();
+    }
+
+    /**
+     * Reads the Successful and Failed lists of a PublishBatch response
+     */
+    private static final class ResultUnmarshaller implements Unmarshaller<Result, StaxUnmarshallerContext> {
+        private final int size;
+
+        ResultUnmarshaller(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Result unmarshall(StaxUnmarshallerContext context) throws Exception {
+            List<String> messageIds = new ArrayList<>(Collections.<String>nCopies(size, null));
+            List<AmazonServiceException> errors = new ArrayList<>(Collections.<AmazonServiceException>nCopies(size, null));
+            Member member = null;
+
+            int originalDepth = context.getCurrentDepth();
+            int targetDepth = originalDepth + 1;
+            if (context.isStartOfDocument()) {
+                targetDepth += 2;
+            }
+            while (true) {
+                int xmlEvent = context.nextEvent();
+                if (xmlEvent == XmlPullParser.END_DOCUMENT) {
+                    break;
+                }
+                if (xmlEvent == XmlPullParser.START_TAG) {
+                    if (context.testExpression("Successful/member", targetDepth)
+                            || context.testExpression("Failed/member", targetDepth)) {
+                        // A member's fields can come in any order, so it is only stored once the next begins
+                        store(member, messageIds, errors);
+                        member = new Member(context.testExpression("Failed/member", targetDepth));
+                    } else if (member != null) {
+                        member.read(context, targetDepth + 1);
+                    }
+                } else if (xmlEvent == XmlPullParser.END_TAG && context.getCurrentDepth() < originalDepth) {
+                    break;
+                }
+            }
+            store(member, messageIds, errors);
+            return new Result(messageIds, errors);
+        }
+
+        private void store(Member member, List<String> messageIds, List<AmazonServiceException> errors) {
+            if (member == null || member.id == null) {
+                return;
+            }
+            int index = Integer.parseInt(member.id);
+            if (index < 0 || index >= size) {
+                return;
+            }
+            if (member.failed) {
+                AmazonServiceException error = new AmazonServiceException(member.message);
+                error.setErrorCode(member.code);
+                error.setErrorType(member.senderFault ? AmazonServiceException.ErrorType.Client
+                        : AmazonServiceException.ErrorType.Service);
+                error.setStatusCode(member.senderFault ? 400 : 500);
+                error.setServiceName("AmazonSNS");
+                errors.set(index, error);
+            } else {
+                messageIds.set(index, member.messageId);
+            }
+        }
+    }
+
+    /**
+     * One entry of the Successful or Failed list
+     */
+    private static final class Member {
+        final boolean failed;
+        String id;
+        String messageId;
+        String code;
+        String message;
+        boolean senderFault;
+
+        Member(boolean failed) {
+            this.failed = failed;
+        }
+
+        /**
+         * Reads the field that starts at the current element, if it is one of the member's
+         * @param memberDepth the depth of the member element
+         */
+        void read(StaxUnmarshallerContext context, int memberDepth) throws Exception {
+            if (context.testExpression("member/Id", memberDepth)) {
+                id = context.readText();
+            } else if (context.testExpression("member/MessageId", memberDepth)) {
+                messageId = context.readText();
+            } else if (context.testExpression("member/Code", memberDepth)) {
+                code = context.readText();
+            } else if (context.testExpression("member/Message", memberDepth)) {
+                message = context.readText();
+            } else if (context.testExpression("member/SenderFault", memberDepth)) {
+                senderFault = Boolean.parseBoolean(context.readText());
+            }
+        }
+    }
+}
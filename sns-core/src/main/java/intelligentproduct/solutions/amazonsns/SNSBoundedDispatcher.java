@@ -0,0 +1,91 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on an executor with at most a fixed number of them running at the same time. The
+ * calling thread waits for a free slot before handing over each task, so a caller that reads its
+ * work from a stream of any size only holds the tasks that are running.
+ * The dispatcher either makes its own pool of threads, which shutdown() stops, or uses one it was
+ * given, which the caller stops when it is done with it.
+ */
+final class SNSBoundedDispatcher {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int concurrency;
+    private final Semaphore permits;
+
+    /**
+     * Creates a dispatcher with its own pool of concurrency threads
+     * @param threadName the name of the threads, see SNSExecutors.newThreadFactory
+     */
+    SNSBoundedDispatcher(int concurrency, String threadName) {
+        // The pool starts its threads as tasks arrive, so none are left behind if concurrency is refused
+        this(Executors.newFixedThreadPool(Math.max(1, concurrency), SNSExecutors.newThreadFactory(threadName)),
+                true, concurrency);
+    }
+
+    /**
+     * @param executor runs the tasks. It must be able to run concurrency tasks at the same time
+     */
+    SNSBoundedDispatcher(ExecutorService executor, int concurrency) {
+        this(executor, false, concurrency);
+    }
+
+    private SNSBoundedDispatcher(ExecutorService executor, boolean ownsExecutor, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+    }
+
+    /**
+     * Waits until fewer than concurrency tasks are running and hands the task to the executor
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     * @throws RejectedExecutionException if the executor did not take the task
+     */
+    void execute(final Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every task that was handed over has finished
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    void awaitIdle() throws InterruptedException {
+        // Every permit is free again once the last task has finished
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+    }
+
+    /**
+     * Stops the threads if the dispatcher made them. An executor that was passed in is left to
+     * its owner
+     */
+    void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package intelligentproduct.solutions.amazonsns;
+
+/**
+ * Receives the result of an asynchronous AmazonSNSHelper call.
+ * The callback is run on the helper's executor thread, so anything that touches the UI must be
+ * posted back to the main thread.
+ * @param <T> the type of the result of the call
+ */
+public interface SNSCallback<T> {
+    /**
+     * Called when the SNS call completed successfully
+     * @param result the result of the call, or null for calls that do not return anything
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the SNS call threw an exception
+     * @param error the exception that was thrown
+     */
+    void onError(Throwable error);
+}
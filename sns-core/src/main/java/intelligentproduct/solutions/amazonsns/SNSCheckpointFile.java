@@ -0,0 +1,77 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes the small files that the library keeps its state and progress in, such as the
+ * endpoints the app registered. Each file starts with a version number. A file is written to a temporary
+ * file, synced to the disk and renamed over the old one, so a crash part way through leaves the
+ * old file and never a broken one.
+ */
+final class SNSCheckpointFile {
+
+    /**
+     * Writes what follows the version number
+     */
+    interface Contents {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private SNSCheckpointFile() {
+    }
+
+    /**
+     * Replaces the file with the version number and the contents
+     * @throws IOException if the file could not be written or replaced
+     */
+    static void write(File file, int version, Contents contents) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(version);
+            contents.writeTo(out);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Opens the file to read what follows the version number. The caller closes it
+     * @return the stream, or null if there is no file, or it has another version, or it is too
+     *         damaged to read the version
+     * @throws IOException if the file could not be opened
+     */
+    static DataInputStream read(File file, int version) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        boolean matches = false;
+        try {
+            matches = in.readInt() == version;
+        } catch (IOException e) {
+            // An empty or cut off file holds nothing that can be used
+        } finally {
+            if (!matches) {
+                in.close();
+            }
+        }
+        return matches ? in : null;
+    }
+}
@@ -0,0 +1,242 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.HttpClient;
+import com.amazonaws.http.HttpRequest;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.http.UrlHttpClient;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.sns.AmazonSNSClient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares AmazonSNSClients across the whole process.
+ * An AmazonSNSClient is thread safe and holds its own connection pool, so creating one for every
+ * AmazonSNSHelper throws away warm connections and repeats the TLS handshake. Helpers that use the
+ * same credentials, region, platform application and settings get the same client from here.
+ */
+public final class SNSClientRegistry {
+    private static final ConcurrentMap<Key, AmazonSNSClient> clients = new ConcurrentHashMap<>();
+
+    private SNSClientRegistry() {
+    }
+
+    /**
+     * Gets the shared client for these values, creating it if this is the first time it is asked for
+     * @param accessKey the AWS access key ID
+     * @param secretKey the AWS secret access key
+     * @param platformApplicationArn the ARN of the platform application the client is used with
+     * @param settings the connection settings of the client
+     * @return the shared client
+     */
+    public static AmazonSNSClient getClient(String accessKey, String secretKey, String platformApplicationArn,
+                                            SNSClientSettings settings) {
+        Key key = new Key(accessKey, secretKey, platformApplicationArn, settings);
+        AmazonSNSClient client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+
+        synchronized (clients) {
+            client = clients.get(key);
+            if (client == null) {
+                client = createClient(accessKey, secretKey, settings);
+                clients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Shuts down every shared client and releases its connections.
+     * Helpers that still hold one of these clients must not be used afterwards.
+     */
+    public static void shutdown() {
+        synchronized (clients) {
+            for (AmazonSNSClient client : clients.values()) {
+                client.shutdown();
+            }
+            clients.clear();
+        }
+    }
+
+    private static AmazonSNSClient createClient(String accessKey, String secretKey, SNSClientSettings settings) {
+        ClientConfiguration configuration = settings.toClientConfiguration();
+        HttpClient httpClient = new UrlHttpClient(configuration);
+        if (!settings.isKeepAlive()) {
+            httpClient = new CloseConnectionHttpClient(httpClient);
+        }
+        httpClient = new ConnectionLimitHttpClient(httpClient, settings.getMaxConnections());
+
+        AmazonSNSClient client = new SNSBatchClient(
+                new StaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey)), configuration, httpClient);
+        client.setRegion(Region.getRegion(Regions.fromName(settings.getRegion())));
+        if (settings.getEndpoint() != null) {
+            client.setEndpoint(settings.getEndpoint());
+        }
+        return client;
+    }
+
+    /**
+     * Asks the server to close the connection after each call, for a client whose settings turn
+     * keep-alive off. This is set on the client's own requests instead of the http.keepAlive system
+     * property, which would change every HttpURLConnection in the process. Connection is one of the
+     * headers the JVM's HttpURLConnection does not let callers set, but it makes an exception for
+     * "close", and on Android the header is sent as it is, so both close the connection once the
+     * response has been read
+     */
+    private static final class CloseConnectionHttpClient implements HttpClient {
+        private final HttpClient httpClient;
+
+        CloseConnectionHttpClient(HttpClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) throws IOException {
+            // The request's headers can not be changed, so it is copied with the extra header
+            Map<String, String> headers = new HashMap<>(request.getHeaders());
+            headers.put("Connection", "close");
+            return httpClient.execute(new HttpRequest(request.getMethod(), request.getUri(), headers, request.getContent()));
+        }
+
+        @Override
+        public void shutdown() {
+            httpClient.shutdown();
+        }
+    }
+
+    /**
+     * Lets at most maxConnections calls of one client use a connection at the same time.
+     * UrlHttpClient opens a connection for every call it is given and does not read the limit from
+     * the ClientConfiguration, so calls past the limit wait here for one of the others to finish.
+     * A call holds its connection until the SDK has read and closed the response, so its permit is
+     * only given back then
+     */
+    private static final class ConnectionLimitHttpClient implements HttpClient {
+        private final HttpClient httpClient;
+        private final Semaphore permits;
+
+        ConnectionLimitHttpClient(HttpClient httpClient, int maxConnections) {
+            this.httpClient = httpClient;
+            this.permits = new Semaphore(Math.max(1, maxConnections), true);
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection");
+            }
+            boolean handedOver = false;
+            try {
+                HttpResponse response = httpClient.execute(request);
+                InputStream content = response.getRawContent();
+                if (content == null) {
+                    // Without a body nothing holds the connection
+                    return response;
+                }
+                HttpResponse.Builder builder = HttpResponse.builder()
+                        .statusCode(response.getStatusCode())
+                        .statusText(response.getStatusText())
+                        .content(new PermitReleasingInputStream(content, permits));
+                for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+                    builder.header(header.getKey(), header.getValue());
+                }
+                handedOver = true;
+                return builder.build();
+            } finally {
+                if (!handedOver) {
+                    permits.release();
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            httpClient.shutdown();
+        }
+    }
+
+    /**
+     * Gives a permit back the first time the response is closed
+     */
+    private static final class PermitReleasingInputStream extends FilterInputStream {
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PermitReleasingInputStream(InputStream in, Semaphore permits) {
+            super(in);
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * The values that decide whether two helpers can share a client
+     */
+    private static final class Key {
+        private final String accessKey;
+        private final String secretKey;
+        private final String platformApplicationArn;
+        private final SNSClientSettings settings;
+
+        Key(String accessKey, String secretKey, String platformApplicationArn, SNSClientSettings settings) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            this.platformApplicationArn = platformApplicationArn;
+            this.settings = settings;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return accessKey.equals(other.accessKey)
+                    && secretKey.equals(other.secretKey)
+                    && (platformApplicationArn == null
+                            ? other.platformApplicationArn == null
+                            : platformApplicationArn.equals(other.platformApplicationArn))
+                    && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = accessKey.hashCode();
+            result = 31 * result + secretKey.hashCode();
+            result = 31 * result + (platformApplicationArn != null ? platformApplicationArn.hashCode() : 0);
+            result = 31 * result + settings.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+
+/**
+ * The connection settings for the AmazonSNSClient that is shared through SNSClientRegistry.
+ * Instances can not be changed after they are built, so the same settings always map to the same
+ * shared client.
+ */
+public final class SNSClientSettings {
+    public static final String DEFAULT_REGION = "us-east-1";
+
+    private static final SNSClientSettings DEFAULTS = new Builder().build();
+
+    private final String region;
+    private final String endpoint;
+    private final int maxConnections;
+    private final int connectionTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final boolean keepAlive;
+    private final SNSRetryPolicy retryPolicy;
+
+    private SNSClientSettings(Builder builder) {
+        region = builder.region;
+        endpoint = builder.endpoint;
+        maxConnections = builder.maxConnections;
+        connectionTimeoutMillis = builder.connectionTimeoutMillis;
+        socketTimeoutMillis = builder.socketTimeoutMillis;
+        keepAlive = builder.keepAlive;
+        retryPolicy = builder.retryPolicy;
+    }
+
+    /**
+     * Gets the settings that are used when a helper is not given any
+     * @return the default settings
+     */
+    public static SNSClientSettings defaults() {
+        return DEFAULTS;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * @return the URL the client sends its calls to instead of the region's SNS endpoint, or null
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the URL the client sends its calls to, which is the endpoint if one was set and
+     *         otherwise the region's SNS endpoint
+     */
+    String getEndpointUrl() {
+        String url = endpoint != null
+                ? endpoint
+                : Region.getRegion(Regions.fromName(region)).getServiceEndpoint("sns");
+        return url.contains("://") ? url : "https://" + url;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public SNSRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Creates the AWS client configuration for these settings. The SDK's own retries are turned off
+     * because AmazonSNSHelper retries with its rate limiter and retry policy
+     * @return a new ClientConfiguration
+     */
+    ClientConfiguration toClientConfiguration() {
+        ClientConfiguration configuration = new ClientConfiguration();
+        configuration.setMaxConnections(maxConnections);
+        configuration.setConnectionTimeout(connectionTimeoutMillis);
+        configuration.setSocketTimeout(socketTimeoutMillis);
+        configuration.setMaxErrorRetry(0);
+        return configuration;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SNSClientSettings)) {
+            return false;
+        }
+        SNSClientSettings other = (SNSClientSettings) o;
+        return maxConnections == other.maxConnections
+                && connectionTimeoutMillis == other.connectionTimeoutMillis
+                && socketTimeoutMillis == other.socketTimeoutMillis
+                && keepAlive == other.keepAlive
+                && retryPolicy == other.retryPolicy
+                && region.equals(other.region)
+                && (endpoint == null ? other.endpoint == null : endpoint.equals(other.endpoint));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = region.hashCode();
+        result = 31 * result + (endpoint != null ? endpoint.hashCode() : 0);
+        result = 31 * result + maxConnections;
+        result = 31 * result + connectionTimeoutMillis;
+        result = 31 * result + socketTimeoutMillis;
+        result = 31 * result + (keepAlive ? 1 : 0);
+        result = 31 * result + retryPolicy.hashCode();
+        return result;
+    }
+
+    /**
+     * Builds SNSClientSettings. Any value that is not set keeps its default.
+     */
+    public static final class Builder {
+        private String region = DEFAULT_REGION;
+        private String endpoint;
+        private int maxConnections = 16;
+        private int connectionTimeoutMillis = 15 * 1000;
+        private int socketTimeoutMillis = 30 * 1000;
+        private boolean keepAlive = true;
+        private SNSRetryPolicy retryPolicy = SNSRetryPolicy.DEFAULT;
+
+        /**
+         * @param region the AWS region name of the SNS endpoint, such as "us-east-1"
+         */
+        public Builder setRegion(String region) {
+            if (region == null) {
+                throw new IllegalArgumentException("region can not be null");
+            }
+            this.region = region;
+            return this;
+        }
+
+        /**
+         * @param endpoint the URL to send calls to instead of the region's SNS endpoint, such as
+         *                 the address of an SNSStandInServer. Null uses the region's endpoint
+         */
+        public Builder setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * @param maxConnections the maximum number of calls the client makes at the same time, and
+         *                       so of the connections it has in use. Further calls wait for one to
+         *                       finish. How many idle connections are kept for reuse is set for the
+         *                       whole process by the http.maxConnections system property
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            return this;
+        }
+
+        public Builder setSocketTimeoutMillis(int socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param keepAlive true to keep connections open between calls so that later calls skip
+         *                  the DNS lookup and TLS handshake
+         */
+        public Builder setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy decides which failed calls are tried again and how long to wait
+         *                    before each try. Use SNSRetryPolicy.NONE to turn retries off
+         */
+        public Builder setRetryPolicy(SNSRetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy can not be null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public SNSClientSettings build() {
+            return new SNSClientSettings(this);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registers a platform endpoint for each of a large number of push tokens, such as when a device
+ * fleet is moved to a new platform application. The tokens are read one at a time as there is
+ * room for them, tokens that were already seen are dropped, and up to the concurrency limit of
+ * CreatePlatformEndpoint calls run at the same time within the helper's rate limit. Each token and
+ * its endpoint ARN are written to the output as a line as soon as the endpoint is created, so
+ * neither the tokens nor the results are held in memory.
+ * With a checkpoint file, an import that was stopped can be run again with the same tokens in the
+ * same order and carries on where it stopped. Up to the checkpoint interval of tokens can be
+ * registered a second time, which gives the same endpoint since SNS returns the existing endpoint
+ * for a token, so the output can repeat a few lines.
+ */
+public class SNSEndpointImporter {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private static final int FILE_VERSION = 1;
+
+    private final AmazonSNSHelper helper;
+    private final SNSBoundedDispatcher dispatcher;
+    private final File checkpoint;
+    private final int checkpointInterval;
+
+    /**
+     * The number of tokens that ended each way after an import
+     */
+    public static final class Totals {
+        public final long registered;
+        // Tokens that appeared earlier in the stream
+        public final long duplicates;
+        // Tokens that an earlier run had already handled
+        public final long skipped;
+        public final long failed;
+
+        Totals(long registered, long duplicates, long skipped, long failed) {
+            this.registered = registered;
+            this.duplicates = duplicates;
+            this.skipped = skipped;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "registered=" + registered + " duplicates=" + duplicates + " skipped=" + skipped + " failed=" + failed;
+        }
+    }
+
+    /**
+     * Creates an importer with its own pool of concurrency threads
+     * @param concurrency the most endpoints that are created at the same time
+     * @param checkpoint the file the progress is saved in, or null to always start from the beginning
+     */
+    public SNSEndpointImporter(AmazonSNSHelper helper, int concurrency, File checkpoint) {
+        this(helper, new SNSBoundedDispatcher(concurrency, "sns-import"), checkpoint, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param executor runs the calls. It must be able to run concurrency calls at the same time, and
+     *                 the caller stops it when it is done with it
+     * @param concurrency the most endpoints that are created at the same time
+     * @param checkpoint the file the progress is saved in, or null to always start from the beginning
+     * @param checkpointInterval the number of tokens read between saves of the progress
+     */
+    public SNSEndpointImporter(AmazonSNSHelper helper, ExecutorService executor, int concurrency, File checkpoint,
+                               int checkpointInterval) {
+        this(helper, new SNSBoundedDispatcher(executor, concurrency), checkpoint, checkpointInterval);
+    }
+
+    private SNSEndpointImporter(AmazonSNSHelper helper, SNSBoundedDispatcher dispatcher, File checkpoint,
+                                int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be at least 1");
+        }
+        this.helper = helper;
+        this.dispatcher = dispatcher;
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Registers every token and waits until each one has an endpoint or has failed
+     * @param tokens the push tokens, in the same order every time the import is run
+     * @param output receives a line for each token, with the token and its endpoint ARN separated
+     *               by a tab. The ARN is empty if the endpoint could not be created. The output is
+     *               flushed before each checkpoint, so open it to append when carrying on
+     * @return the number of tokens that ended each way
+     * @throws IOException if the output or the checkpoint could not be written
+     * @throws InterruptedException if the calling thread is interrupted. The checkpoint is left at
+     *                              the last save, so the import can be carried on
+     */
+    public Totals importTokens(Iterable<String> tokens, final Writer output) throws IOException, InterruptedException {
+        long start = loadCheckpoint();
+        final AtomicLong registered = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final IOException[] writeError = new IOException[1];
+        // Positions of the tokens being registered. Every token before the first one is done
+        final TreeSet<Long> inFlight = new TreeSet<>();
+        TokenHashSet seen = new TokenHashSet();
+        long duplicates = 0;
+        long skipped = 0;
+
+        long position = 0;
+        Iterator<String> iterator = tokens.iterator();
+        while (iterator.hasNext()) {
+            final String token = iterator.next();
+            final long tokenPosition = position++;
+            boolean added = seen.add(token);
+            if (tokenPosition < start) {
+                // Done by an earlier run, but still remembered so later copies are dropped
+                skipped++;
+                continue;
+            }
+            if (!added) {
+                duplicates++;
+            } else {
+                synchronized (inFlight) {
+                    inFlight.add(tokenPosition);
+                }
+                try {
+                    dispatcher.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                String endpointArn = register(token);
+                                (endpointArn != null ? registered : failed).incrementAndGet();
+                                synchronized (output) {
+                                    if (writeError[0] == null) {
+                                        output.write(token + "\t" + (endpointArn != null ? endpointArn : "") + "\n");
+                                    }
+                                }
+                            } catch (IOException e) {
+                                synchronized (output) {
+                                    writeError[0] = e;
+                                }
+                            } finally {
+                                synchronized (inFlight) {
+                                    inFlight.remove(tokenPosition);
+                                }
+                            }
+                        }
+                    });
+                } catch (InterruptedException | RejectedExecutionException e) {
+                    synchronized (inFlight) {
+                        inFlight.remove(tokenPosition);
+                    }
+                    throw e;
+                }
+            }
+
+            if (position % checkpointInterval == 0) {
+                long done;
+                synchronized (inFlight) {
+                    done = inFlight.isEmpty() ? position : inFlight.first();
+                }
+                flush(output, writeError);
+                saveCheckpoint(done);
+            }
+        }
+
+        dispatcher.awaitIdle();
+        flush(output, writeError);
+        saveCheckpoint(position);
+        return new Totals(registered.get(), duplicates, skipped, failed.get());
+    }
+
+    /**
+     * Stops the importer's threads, if it made its own
+     */
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    /**
+     * @return the endpoint ARN, or null if it could not be created after the helper's retries
+     */
+    private String register(String token) {
+        try {
+            return helper.createPlatformEndpoint(token);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void flush(Writer output, IOException[] writeError) throws IOException {
+        synchronized (output) {
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * @return the number of tokens that an earlier run finished
+     */
+    private long loadCheckpoint() throws IOException {
+        if (checkpoint == null) {
+            return 0;
+        }
+        DataInputStream in = SNSCheckpointFile.read(checkpoint, FILE_VERSION);
+        if (in == null) {
+            return 0;
+        }
+        try {
+            return in.readLong();
+        } catch (IOException e) {
+            // A damaged checkpoint starts the import again, which only repeats work
+            return 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void saveCheckpoint(final long done) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        SNSCheckpointFile.write(checkpoint, FILE_VERSION, new SNSCheckpointFile.Contents() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeLong(done);
+            }
+        });
+    }
+
+    /**
+     * A set of 64-bit token hashes in one array with open addressing, which takes 8 to 16 bytes for
+     * each token instead of the 100 or more of a HashSet of strings. The chance that two different
+     * tokens in a million have the same hash, and one is dropped, is about one in 30 million
+     */
+    static final class TokenHashSet {
+        // 0 marks an empty slot, so no hash is ever 0
+        private long[] slots = new long[1024];
+        private int size;
+
+        /**
+         * @return true if the token was not in the set yet
+         */
+        boolean add(String token) {
+            long hash = hash(token);
+            if (size * 2 >= slots.length) {
+                grow();
+            }
+            if (!insert(slots, hash)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            long[] larger = new long[slots.length * 2];
+            for (long hash : slots) {
+                if (hash != 0) {
+                    insert(larger, hash);
+                }
+            }
+            slots = larger;
+        }
+
+        private static boolean insert(long[] table, long hash) {
+            int mask = table.length - 1;
+            int slot = (int) hash & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == hash) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = hash;
+            return true;
+        }
+
+        static long hash(String token) {
+            long hash = SNSHashes.hash(token);
+            return hash != 0 ? hash : 1;
+        }
+    }
+}
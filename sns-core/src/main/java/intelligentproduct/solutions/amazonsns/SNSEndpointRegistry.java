@@ -0,0 +1,231 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the platform endpoint that was registered for each platform application and push token,
+ * so the app does not call CreatePlatformEndpoint every time it starts.
+ * When the token is the same as the last time and the endpoint was checked within the TTL, the
+ * endpoint is returned without any calls to SNS. When the token has changed the endpoint is given
+ * the new token in place, and when the TTL is up it is checked with GetEndpointAttributes and
+ * enabled again if SNS disabled it. It is only created again if it was deleted.
+ * The registrations are saved to a file so they last across app restarts. Only a hash of each
+ * token is saved.
+ */
+public class SNSEndpointRegistry {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int FILE_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AmazonSNSHelper helper;
+    private final File file;
+    private final long ttlMillis;
+    // Platform application ARN to the endpoint registered in it
+    private final Map<String, Registration> registrations = new HashMap<>();
+
+    /**
+     * Creates a registry that checks its endpoints with SNS once a day
+     * @param file the file the registrations are saved in
+     */
+    public SNSEndpointRegistry(AmazonSNSHelper helper, File file) throws IOException {
+        this(helper, file, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param file the file the registrations are saved in
+     * @param ttlMillis how long an endpoint is used without checking it with SNS
+     */
+    public SNSEndpointRegistry(AmazonSNSHelper helper, File file, long ttlMillis) throws IOException {
+        this.helper = helper;
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        load();
+    }
+
+    /**
+     * Gets the endpoint for a push token in the helper's platform application, registering or
+     * updating it in SNS only when needed
+     * @param token the device's push notification token. Null, such as before Firebase has made
+     *              one, is never cached, so the call goes to SNS and reports its error
+     * @return the ARN of the endpoint
+     */
+    public synchronized String getEndpoint(String token) throws IOException {
+        if (token == null) {
+            return helper.createPlatformEndpoint(null);
+        }
+        String platformApplicationArn = helper.getPlatformApplicationArn();
+        String tokenHash = hash(token);
+        Registration registration = registrations.get(platformApplicationArn);
+        long now = System.currentTimeMillis();
+
+        if (registration != null && registration.tokenHash.equals(tokenHash)
+                && now - registration.checkedAtMillis < ttlMillis) {
+            return registration.endpointArn;
+        }
+
+        String endpointArn = null;
+        if (registration != null) {
+            endpointArn = registration.tokenHash.equals(tokenHash)
+                    ? revalidate(registration.endpointArn, token)
+                    : update(registration.endpointArn, token);
+        }
+        if (endpointArn == null) {
+            endpointArn = helper.createPlatformEndpoint(token);
+        }
+        registrations.put(platformApplicationArn, new Registration(tokenHash, endpointArn, now));
+        save();
+        return endpointArn;
+    }
+
+    /**
+     * Gives the registered endpoint a new token, such as when the push service refreshes it, and
+     * enables it again. Nothing is done if no endpoint has been registered yet, since getEndpoint
+     * registers the token that is current at the time
+     * @param token the device's new push notification token
+     * @return the ARN of the endpoint, or null if there is none yet or the token is null
+     */
+    public synchronized String updateToken(String token) throws IOException {
+        String platformApplicationArn = helper.getPlatformApplicationArn();
+        Registration registration = registrations.get(platformApplicationArn);
+        if (registration == null || token == null) {
+            return null;
+        }
+        String tokenHash = hash(token);
+        if (registration.tokenHash.equals(tokenHash)) {
+            return registration.endpointArn;
+        }
+
+        String endpointArn = update(registration.endpointArn, token);
+        if (endpointArn == null) {
+            endpointArn = helper.createPlatformEndpoint(token);
+        }
+        registrations.put(platformApplicationArn, new Registration(tokenHash, endpointArn, System.currentTimeMillis()));
+        save();
+        return endpointArn;
+    }
+
+    /**
+     * Forgets an endpoint, such as after it was deleted, so the next getEndpoint creates a new one
+     * @param endpointArn the ARN of the endpoint
+     */
+    public synchronized void remove(String endpointArn) throws IOException {
+        for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+            if (entry.getValue().endpointArn.equals(endpointArn)) {
+                registrations.remove(entry.getKey());
+                save();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks that an endpoint still exists, giving it the token and enabling it if needed
+     * @return the ARN of the endpoint, or null if it was deleted and has to be created again
+     */
+    private String revalidate(String endpointArn, String token) {
+        Map<String, String> attributes;
+        try {
+            attributes = helper.getEndpointAttributes(endpointArn);
+        } catch (NotFoundException e) {
+            return null;
+        }
+
+        if (!token.equals(attributes.get("Token")) || !"true".equalsIgnoreCase(attributes.get("Enabled"))) {
+            return update(endpointArn, token);
+        }
+        return endpointArn;
+    }
+
+    /**
+     * Gives an endpoint a new token and enables it, in one call
+     * @return the ARN of the endpoint, or null if it was deleted and has to be created again
+     */
+    private String update(String endpointArn, String token) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("Token", token);
+        attributes.put("Enabled", "true");
+        try {
+            helper.setEndpointAttributes(endpointArn, attributes);
+        } catch (NotFoundException e) {
+            return null;
+        }
+        return endpointArn;
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = SNSCheckpointFile.read(file, FILE_VERSION);
+        if (in == null) {
+            // Registrations from another version are dropped and made again when they are asked for
+            return;
+        }
+
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String platformApplicationArn = in.readUTF();
+                registrations.put(platformApplicationArn, new Registration(in.readUTF(), in.readUTF(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // A file that was cut short only costs a call to SNS, so it is not an error
+            registrations.clear();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save() throws IOException {
+        SNSCheckpointFile.write(file, FILE_VERSION, new SNSCheckpointFile.Contents() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(registrations.size());
+                for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().tokenHash);
+                    out.writeUTF(entry.getValue().endpointArn);
+                    out.writeLong(entry.getValue().checkedAtMillis);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the SHA-256 hash of the token in hex
+     */
+    static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Registration {
+        final String tokenHash;
+        final String endpointArn;
+        final long checkedAtMillis;
+
+        Registration(String tokenHash, String endpointArn, long checkedAtMillis) {
+            this.tokenHash = tokenHash;
+            this.endpointArn = endpointArn;
+            this.checkedAtMillis = checkedAtMillis;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.model.DeleteEndpointRequest;
+import com.amazonaws.services.sns.model.Endpoint;
+import com.amazonaws.services.sns.model.InvalidParameterException;
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes the dead endpoints of the helper's platform application. An endpoint is dead when SNS
+ * disabled it, when it has no token, or when the token check says its token is stale, such as a
+ * token that a device has since replaced. The endpoints are listed page by page and up to the
+ * concurrency limit of them are deleted at the same time within the helper's rate limit, so only
+ * two pages and the endpoints being deleted are held in memory, however many the application has.
+ * With a checkpoint file, a sweep that was stopped carries on from the page it was on, or starts
+ * from the first page if SNS no longer accepts the saved token. Once a sweep finishes the
+ * checkpoint is removed, so the next sweep starts from the first page. Dry runs always list every
+ * endpoint and leave the checkpoint alone.
+ */
+public class SNSEndpointSweeper {
+    private static final int FILE_VERSION = 1;
+
+    private final AmazonSNSHelper helper;
+    private final SNSBoundedDispatcher dispatcher;
+    private final File checkpoint;
+    private final TokenCheck tokenCheck;
+
+    /**
+     * Tells which tokens are stale
+     */
+    public interface TokenCheck {
+        /**
+         * Called on the sweeping thread for each enabled endpoint
+         * @param token the push token of the endpoint
+         * @return true if the endpoint should be deleted
+         */
+        boolean isStale(String token);
+    }
+
+    /**
+     * Receives each dead endpoint. It is called on the sweeper's threads, so it must be thread safe
+     */
+    public interface Listener {
+        /**
+         * @param endpoint the dead endpoint
+         * @param error the error if it could not be deleted, or null if it was deleted or this is a dry run
+         */
+        void onDeadEndpoint(Endpoint endpoint, RuntimeException error);
+    }
+
+    /**
+     * The number of endpoints found each way after a sweep
+     */
+    public static final class Totals {
+        public final long checked;
+        public final long dead;
+        public final long deleted;
+        public final long failed;
+
+        Totals(long checked, long dead, long deleted, long failed) {
+            this.checked = checked;
+            this.dead = dead;
+            this.deleted = deleted;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "checked=" + checked + " dead=" + dead + " deleted=" + deleted + " failed=" + failed;
+        }
+    }
+
+    /**
+     * Creates a sweeper with its own pool of concurrency threads, which deletes disabled endpoints
+     * and endpoints without a token
+     * @param concurrency the most endpoints that are deleted at the same time
+     * @param checkpoint the file the progress is saved in, or null to always start from the first page
+     */
+    public SNSEndpointSweeper(AmazonSNSHelper helper, int concurrency, File checkpoint) {
+        this(helper, new SNSBoundedDispatcher(concurrency, "sns-sweep"), checkpoint, null);
+    }
+
+    /**
+     * @param executor runs the deletes. It must be able to run concurrency calls at the same time,
+     *                 and the caller stops it when it is done with it
+     * @param concurrency the most endpoints that are deleted at the same time
+     * @param checkpoint the file the progress is saved in, or null to always start from the first page
+     * @param tokenCheck tells which tokens of enabled endpoints are stale, or null to keep them all
+     */
+    public SNSEndpointSweeper(AmazonSNSHelper helper, ExecutorService executor, int concurrency, File checkpoint,
+                              TokenCheck tokenCheck) {
+        this(helper, new SNSBoundedDispatcher(executor, concurrency), checkpoint, tokenCheck);
+    }
+
+    private SNSEndpointSweeper(AmazonSNSHelper helper, SNSBoundedDispatcher dispatcher, File checkpoint,
+                               TokenCheck tokenCheck) {
+        this.helper = helper;
+        this.dispatcher = dispatcher;
+        this.checkpoint = checkpoint;
+        this.tokenCheck = tokenCheck;
+    }
+
+    /**
+     * Lists every endpoint and deletes the dead ones
+     * @param dryRun true to only find the dead endpoints without deleting them. A dry run neither
+     *               reads nor changes the checkpoint
+     * @param listener receives each dead endpoint, may be null
+     * @return the number of endpoints found each way
+     * @throws IOException if the checkpoint could not be written
+     * @throws InterruptedException if the calling thread is interrupted. The checkpoint is left at
+     *                              the last page that was finished, so the sweep can be carried on
+     */
+    public Totals sweep(boolean dryRun, final Listener listener) throws IOException, InterruptedException {
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        long checked = 0;
+        long dead = 0;
+
+        String startToken = dryRun ? null : loadCheckpoint();
+        SNSPagedIterable.PageIterator<Endpoint> endpoints = helper.endpointsByPlatformApplication(startToken).iterator();
+        if (startToken != null) {
+            try {
+                endpoints.hasNext();
+            } catch (InvalidParameterException e) {
+                // SNS no longer accepts the saved token, such as one that has expired
+                startToken = null;
+                endpoints = helper.endpointsByPlatformApplication(null).iterator();
+            }
+        }
+        String pageToken = startToken;
+        while (endpoints.hasNext()) {
+            final Endpoint endpoint = endpoints.next();
+            checked++;
+
+            String token = endpoints.getPageToken();
+            if (token != null && !token.equals(pageToken)) {
+                // Every endpoint of the earlier pages is done once nothing is running
+                dispatcher.awaitIdle();
+                pageToken = token;
+                if (!dryRun) {
+                    saveCheckpoint(pageToken);
+                }
+            }
+
+            if (!isDead(endpoint)) {
+                continue;
+            }
+            dead++;
+            if (dryRun) {
+                if (listener != null) {
+                    listener.onDeadEndpoint(endpoint, null);
+                }
+                continue;
+            }
+
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RuntimeException error = delete(endpoint.getEndpointArn());
+                    (error == null ? deleted : failed).incrementAndGet();
+                    if (listener != null) {
+                        listener.onDeadEndpoint(endpoint, error);
+                    }
+                }
+            });
+        }
+
+        dispatcher.awaitIdle();
+        if (!dryRun && checkpoint != null && checkpoint.exists() && !checkpoint.delete()) {
+            throw new IOException("Could not delete " + checkpoint);
+        }
+        return new Totals(checked, dead, deleted.get(), failed.get());
+    }
+
+    /**
+     * Stops the sweeper's threads, if it made its own
+     */
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    private boolean isDead(Endpoint endpoint) {
+        Map<String, String> attributes = endpoint.getAttributes();
+        if (attributes == null || !"true".equalsIgnoreCase(attributes.get("Enabled"))) {
+            return true;
+        }
+        String token = attributes.get("Token");
+        return token == null || token.isEmpty() || (tokenCheck != null && tokenCheck.isStale(token));
+    }
+
+    /**
+     * @return the error, or null if the endpoint was deleted or was already gone
+     */
+    private RuntimeException delete(String endpointArn) {
+        try {
+            helper.deleteEndpoint(new DeleteEndpointRequest().withEndpointArn(endpointArn));
+            return null;
+        } catch (NotFoundException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * @return the token of the page to start from, or null to start from the first page
+     */
+    private String loadCheckpoint() throws IOException {
+        if (checkpoint == null) {
+            return null;
+        }
+        DataInputStream in = SNSCheckpointFile.read(checkpoint, FILE_VERSION);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return in.readUTF();
+        } catch (IOException e) {
+            // A damaged checkpoint starts the sweep again, which only repeats work
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void saveCheckpoint(final String pageToken) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        SNSCheckpointFile.write(checkpoint, FILE_VERSION, new SNSCheckpointFile.Contents() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeUTF(pageToken);
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread pools that run the asynchronous AmazonSNSHelper calls.
+ * The pools are bounded in both threads and queued tasks so that a burst of calls can not create
+ * an unlimited number of threads or use up the memory of the device. Server-side workers that
+ * make many calls at once can use a thread per call instead, see newThreadPerTaskExecutor.
+ */
+public final class SNSExecutors {
+    public static final int DEFAULT_THREAD_COUNT = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 512;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+    private static ExecutorService defaultExecutor;
+
+    private SNSExecutors() {
+    }
+
+    /**
+     * Creates a thread pool with a fixed maximum number of threads and a bounded work queue.
+     * Idle threads are stopped after a short time so the pool does not hold on to threads when
+     * the app is not using SNS. Tasks that are submitted while the queue is full are rejected with
+     * a RejectedExecutionException instead of blocking the calling thread.
+     * @param threadCount the maximum number of SNS calls that can run at the same time
+     * @param queueCapacity the maximum number of calls that can wait for a free thread
+     * @return the new executor
+     */
+    public static ExecutorService newBoundedExecutor(int threadCount, int queueCapacity) {
+        if (threadCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("threadCount and queueCapacity must be at least 1");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                newThreadFactory("sns-worker"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor that runs every call on a thread of its own, so there is no pool to size.
+     * On Java 21 and later these are virtual threads, which are cheap to create and do not hold an
+     * OS thread while they wait for SNS, so a single worker can have tens of thousands of subscribe
+     * or publish calls running at the same time. On older JVMs and on Android each call gets a
+     * daemon platform thread instead, which costs far more, so a bounded executor is the better
+     * choice there. See supportsVirtualThreads
+     * @return the new executor
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // Virtual threads are a preview feature that is turned off on Java 19 and 20
+            }
+        }
+        return Executors.newCachedThreadPool(newThreadFactory("sns-task"));
+    }
+
+    /**
+     * @return true if newThreadPerTaskExecutor runs its calls on virtual threads
+     */
+    public static boolean supportsVirtualThreads() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            return false;
+        }
+        try {
+            ((ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null)).shutdown();
+            return true;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the executor that is shared by every AmazonSNSHelper that was not given its own
+     * @return the shared executor, which is created on first use
+     */
+    public static synchronized ExecutorService defaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = newBoundedExecutor(DEFAULT_THREAD_COUNT, DEFAULT_QUEUE_CAPACITY);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates a thread factory for daemon threads so that pending SNS work never keeps the
+     * process alive
+     * @param namePrefix the prefix of the names of the threads
+     * @return the thread factory
+     */
+    static ThreadFactory newThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which this library can not call
+     * directly because it is built for Java 8 and Android
+     */
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.amazonaws.services.sns.model.InvalidParameterException;
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a different message to each of many platform endpoints, such as personalized pushes.
+ * Up to the concurrency limit of messages are sent at the same time, so the throughput grows with
+ * the limit instead of being held back by the latency of each call. The targets are read one at a
+ * time as there is room for them, and each result is passed to the listener as soon as it is
+ * known, so a list of any size can be sent without holding it or its results in memory.
+ * Endpoints that SNS disabled and endpoints that do not exist are reported apart from other
+ * failures, so they can be deleted. The helper's SNSClientSettings.getMaxConnections() is the
+ * most calls that are made at the same time, so a concurrency limit above it only adds waiting
+ * threads. Connections are kept for reuse up to the http.maxConnections system property.
+ */
+public class SNSFanOutPublisher {
+    private final AmazonSNSHelper helper;
+    private final SNSBoundedDispatcher dispatcher;
+
+    /**
+     * What happened to the message for one endpoint
+     */
+    public enum Status {
+        SENT,
+        // SNS disabled the endpoint, usually because the push service said its token is no longer valid
+        DISABLED,
+        // The endpoint was deleted or its ARN is not valid
+        INVALID,
+        // Any other error, which remained after the helper's retries
+        FAILED
+    }
+
+    /**
+     * A message for one endpoint
+     */
+    public static final class Target {
+        public final String endpointArn;
+        public final String message;
+
+        public Target(String endpointArn, String message) {
+            this.endpointArn = endpointArn;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The result for one endpoint
+     */
+    public static final class Result {
+        public final String endpointArn;
+        public final Status status;
+        // Set when the message was sent
+        public final String messageId;
+        // Set when the message was not sent
+        public final RuntimeException error;
+
+        Result(String endpointArn, Status status, String messageId, RuntimeException error) {
+            this.endpointArn = endpointArn;
+            this.status = status;
+            this.messageId = messageId;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Receives the result for each endpoint. It is called on the publisher's threads, so it must
+     * be thread safe
+     */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    /**
+     * The number of endpoints with each status after a fan-out
+     */
+    public static final class Totals {
+        public final long sent;
+        public final long disabled;
+        public final long invalid;
+        public final long failed;
+
+        Totals(long sent, long disabled, long invalid, long failed) {
+            this.sent = sent;
+            this.disabled = disabled;
+            this.invalid = invalid;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "sent=" + sent + " disabled=" + disabled + " invalid=" + invalid + " failed=" + failed;
+        }
+    }
+
+    /**
+     * Creates a publisher with its own pool of concurrency threads
+     * @param concurrency the most messages that are sent at the same time
+     */
+    public SNSFanOutPublisher(AmazonSNSHelper helper, int concurrency) {
+        this(helper, new SNSBoundedDispatcher(concurrency, "sns-fanout"));
+    }
+
+    /**
+     * @param executor runs the calls, such as SNSExecutors.newThreadPerTaskExecutor() for a large
+     *                 concurrency. It must be able to run concurrency calls at the same time, and
+     *                 the caller stops it when it is done with it
+     * @param concurrency the most messages that are sent at the same time
+     */
+    public SNSFanOutPublisher(AmazonSNSHelper helper, ExecutorService executor, int concurrency) {
+        this(helper, new SNSBoundedDispatcher(executor, concurrency));
+    }
+
+    private SNSFanOutPublisher(AmazonSNSHelper helper, SNSBoundedDispatcher dispatcher) {
+        this.helper = helper;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sends each target its message and waits until every one has a result
+     * @param targets the endpoints and their messages, which are read as there is room for them
+     * @param listener receives the result for each endpoint, may be null
+     * @return the number of endpoints with each status
+     * @throws InterruptedException if the calling thread is interrupted. Messages that were already
+     *                              handed to the executor are still sent
+     */
+    public Totals publish(Iterable<Target> targets, final Listener listener) throws InterruptedException {
+        final AtomicLong[] counts = new AtomicLong[Status.values().length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicLong();
+        }
+
+        Iterator<Target> iterator = targets.iterator();
+        while (iterator.hasNext()) {
+            final Target target = iterator.next();
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Result result = send(target);
+                    counts[result.status.ordinal()].incrementAndGet();
+                    if (listener != null) {
+                        listener.onResult(result);
+                    }
+                }
+            });
+        }
+
+        dispatcher.awaitIdle();
+        return new Totals(counts[Status.SENT.ordinal()].get(), counts[Status.DISABLED.ordinal()].get(),
+                counts[Status.INVALID.ordinal()].get(), counts[Status.FAILED.ordinal()].get());
+    }
+
+    /**
+     * Stops the publisher's threads, if it made its own
+     */
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    private Result send(Target target) {
+        try {
+            return new Result(target.endpointArn, Status.SENT, helper.publishToEndpoint(target.endpointArn, target.message), null);
+        } catch (RuntimeException e) {
+            return new Result(target.endpointArn, classify(e), null, e);
+        }
+    }
+
+    static Status classify(RuntimeException error) {
+        if (!(error instanceof AmazonServiceException)) {
+            return Status.FAILED;
+        }
+        // The SDK does not turn every error code into its own exception type, so the codes are checked too
+        String errorCode = ((AmazonServiceException) error).getErrorCode();
+        if (error instanceof EndpointDisabledException || "EndpointDisabled".equals(errorCode)) {
+            return Status.DISABLED;
+        }
+        if (error instanceof NotFoundException || "NotFound".equals(errorCode)) {
+            return Status.INVALID;
+        }
+        // Only a bad ARN makes the endpoint invalid, not a bad message
+        if ((error instanceof InvalidParameterException || "InvalidParameter".equals(errorCode))
+                && error.getMessage() != null && error.getMessage().contains("TargetArn")) {
+            return Status.INVALID;
+        }
+        return Status.FAILED;
+    }
+}
@@ -0,0 +1,27 @@
+package intelligentproduct.solutions.amazonsns;
+
+/**
+ * The 64-bit hash that the in-memory sets of keys use, such as the token set of
+ * SNSEndpointImporter and the Bloom filters of SNSMessageDeduplicator. It is fast and spreads
+ * similar keys apart, but it is not meant to hide the keys, see SNSEndpointRegistry for that.
+ */
+final class SNSHashes {
+
+    private SNSHashes() {
+    }
+
+    static long hash(String key) {
+        // FNV-1a over the characters, then mixed so every bit depends on every character and the
+        // low bits are as well spread as the high ones
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
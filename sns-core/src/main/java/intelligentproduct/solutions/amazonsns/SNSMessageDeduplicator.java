@@ -0,0 +1,271 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes messages that were already received, since SNS and Firebase can both deliver a
+ * message more than once. The keys of the messages are kept in two Bloom filters that take turns:
+ * new keys go into the current one, and after each window the older one is cleared and becomes
+ * the current one. A key is remembered for at least one window and at most two, and the memory
+ * and the time of each check stay the same however many messages arrive.
+ * A Bloom filter can mistake a new key for one it has seen, which drops a message. With the
+ * default sizes that is about one in 10,000 when a window holds 4096 messages, and far less when
+ * it holds the few that a device gets.
+ * With a file, the filters are saved in the background after each new key, so redeliveries are
+ * still recognized after the process was stopped.
+ */
+public class SNSMessageDeduplicator {
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.0001;
+
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Tells the time, so tests can move it forward without waiting
+     */
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final File file;
+    private final long windowMillis;
+    private final int bitCount;
+    private final int hashCount;
+    private final Clock clock;
+    private final ExecutorService writer;
+    private final Object fileLock = new Object();
+
+    // Guarded by this
+    private long[] current;
+    private long[] previous;
+    private long currentStartMillis;
+    private long version;
+    private boolean writePending;
+    private boolean closed;
+
+    // Guarded by fileLock
+    private long writtenVersion;
+
+    /**
+     * Creates a deduplicator that remembers each key for 10 to 20 minutes
+     * @param file the file the filters are saved in, or null to only keep them in memory
+     */
+    public SNSMessageDeduplicator(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_MILLIS, DEFAULT_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * @param file the file the filters are saved in, or null to only keep them in memory
+     * @param windowMillis how long each filter takes new keys. A key is remembered for one to two windows
+     * @param capacity the most keys a window is expected to hold
+     * @param falsePositiveRate the chance of mistaking a new key for a seen one when a window is full
+     */
+    public SNSMessageDeduplicator(File file, long windowMillis, int capacity, double falsePositiveRate)
+            throws IOException {
+        this(file, windowMillis, capacity, falsePositiveRate, SYSTEM_CLOCK);
+    }
+
+    SNSMessageDeduplicator(File file, long windowMillis, int capacity, double falsePositiveRate, Clock clock)
+            throws IOException {
+        if (windowMillis <= 0 || capacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Bad window, capacity or false positive rate");
+        }
+        this.file = file;
+        this.windowMillis = windowMillis;
+        // The standard sizes for a Bloom filter, rounded up to whole longs
+        double bits = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.ceil(bits / 64) * 64);
+        this.hashCount = Math.max(1, (int) Math.round(bits / capacity * Math.log(2)));
+        this.current = new long[bitCount / 64];
+        this.previous = new long[bitCount / 64];
+        this.clock = clock;
+        this.currentStartMillis = clock.currentTimeMillis();
+        this.writer = file == null ? null
+                : Executors.newSingleThreadExecutor(SNSExecutors.newThreadFactory("sns-dedup"));
+        if (file != null) {
+            load();
+        }
+    }
+
+    /**
+     * Checks a message and remembers it
+     * @param key the SNS MessageId of the message, or its content when it has no ID
+     * @return true if the key was seen within the window, so the message is a duplicate
+     */
+    public boolean isDuplicate(String key) {
+        long hash = SNSHashes.hash(key);
+        // Two hashes from the halves of one, combined into as many as needed
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+
+        boolean seen;
+        synchronized (this) {
+            rotate(clock.currentTimeMillis());
+            boolean inCurrent = true;
+            boolean inPrevious = true;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+                long mask = 1L << bit;
+                if ((current[bit >>> 6] & mask) == 0) {
+                    inCurrent = false;
+                    // A key found only in the previous filter is copied too, so it is remembered
+                    // for as long as it keeps arriving
+                    current[bit >>> 6] |= mask;
+                }
+                inPrevious = inPrevious && (previous[bit >>> 6] & mask) != 0;
+            }
+            if (inCurrent) {
+                return true;
+            }
+            version++;
+            seen = inPrevious;
+        }
+        scheduleWrite();
+        return seen;
+    }
+
+    /**
+     * Writes any keys that are still waiting to the file now
+     */
+    public void flush() throws IOException {
+        write();
+    }
+
+    /**
+     * Writes any keys that are still waiting and stops the background writer. Keys checked after
+     * this are only kept in memory
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        if (writer != null) {
+            writer.shutdown();
+        }
+        // A write that is still queued finds nothing left to write once this one is done
+        write();
+    }
+
+    private void rotate(long now) {
+        long elapsed = now - currentStartMillis;
+        if (elapsed < windowMillis && elapsed >= 0) {
+            return;
+        }
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0);
+        if (elapsed < 2 * windowMillis && elapsed >= 0) {
+            previous = current;
+            current = cleared;
+            currentStartMillis += windowMillis;
+        } else {
+            // Nothing arrived for two windows, or the clock went back, so both are forgotten
+            Arrays.fill(current, 0);
+            currentStartMillis = now;
+        }
+        version++;
+    }
+
+    private synchronized void scheduleWrite() {
+        if (writer == null || writePending || closed) {
+            return;
+        }
+        writePending = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write();
+                } catch (IOException e) {
+                    // The keys are still in memory, and the next new key or flush tries again
+                }
+            }
+        });
+    }
+
+    private void write() throws IOException {
+        if (file == null) {
+            return;
+        }
+        synchronized (fileLock) {
+            long[] currentCopy;
+            long[] previousCopy;
+            long startMillis;
+            long filtersVersion;
+            synchronized (this) {
+                writePending = false;
+                if (version == writtenVersion) {
+                    return;
+                }
+                currentCopy = current.clone();
+                previousCopy = previous.clone();
+                startMillis = currentStartMillis;
+                filtersVersion = version;
+            }
+            save(currentCopy, previousCopy, startMillis);
+            writtenVersion = filtersVersion;
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = SNSCheckpointFile.read(file, FILE_VERSION);
+        if (in == null) {
+            return;
+        }
+        try {
+            if (in.readInt() != bitCount || in.readInt() != hashCount) {
+                // Saved with other sizes, so its bits mean nothing to these filters
+                return;
+            }
+            long startMillis = in.readLong();
+            long[] loadedCurrent = new long[current.length];
+            long[] loadedPrevious = new long[previous.length];
+            for (int i = 0; i < loadedCurrent.length; i++) {
+                loadedCurrent[i] = in.readLong();
+            }
+            for (int i = 0; i < loadedPrevious.length; i++) {
+                loadedPrevious[i] = in.readLong();
+            }
+            synchronized (this) {
+                current = loadedCurrent;
+                previous = loadedPrevious;
+                currentStartMillis = startMillis;
+            }
+        } catch (IOException e) {
+            // A damaged file only means that some redeliveries are shown again
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save(final long[] currentCopy, final long[] previousCopy, final long startMillis) throws IOException {
+        SNSCheckpointFile.write(file, FILE_VERSION, new SNSCheckpointFile.Contents() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(bitCount);
+                out.writeInt(hashCount);
+                out.writeLong(startMillis);
+                for (long word : currentCopy) {
+                    out.writeLong(word);
+                }
+                for (long word : previousCopy) {
+                    out.writeLong(word);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,246 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the latest received messages in a file of fixed size, so the app can show them after their
+ * notifications are gone. The file holds a fixed number of slots, and each message gets the next
+ * sequence number and is written over the slot of the oldest one.
+ * Readers keep the sequence number of the last message they have, and readAfter only reads the
+ * slots after it, so a screen that is opened again only reads the messages that are new. Reads
+ * take no locks, so the service that writes messages never waits for the screen or the other way
+ * around. Each slot is read and written with one positional call, and a reader checks the sequence
+ * number and checksum of every slot it reads, so it skips a slot that the writer is writing over.
+ */
+public class SNSMessageLog {
+    public static final int DEFAULT_SLOT_COUNT = 256;
+    public static final int DEFAULT_SLOT_SIZE = 1024;
+
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    // Sequence number, time, checksum, title length and body length
+    private static final int SLOT_HEADER_SIZE = 8 + 8 + 4 + 2 + 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final int slotCount;
+    private final int slotSize;
+
+    // The newest sequence number. Only the writer changes it, readers only read it
+    private volatile long lastSequence;
+
+    /**
+     * One received message
+     */
+    public static final class Entry {
+        public final long sequence;
+        public final long receivedMillis;
+        public final String title;
+        public final String body;
+
+        Entry(long sequence, long receivedMillis, String title, String body) {
+            this.sequence = sequence;
+            this.receivedMillis = receivedMillis;
+            this.title = title;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Opens the log with 256 slots of 1KB
+     * @param file the file the messages are kept in
+     */
+    public SNSMessageLog(File file) throws IOException {
+        this(file, DEFAULT_SLOT_COUNT, DEFAULT_SLOT_SIZE);
+    }
+
+    /**
+     * @param file the file the messages are kept in. A file made with other sizes is started again
+     * @param slotCount the number of messages that are kept
+     * @param slotSize the size of each message in bytes. Longer messages are cut short
+     */
+    public SNSMessageLog(File file, int slotCount, int slotSize) throws IOException {
+        if (slotCount < 1 || slotSize < SLOT_HEADER_SIZE + 16 || slotSize > SLOT_HEADER_SIZE + 2 * 0xffff) {
+            throw new IllegalArgumentException("Bad slot count or size");
+        }
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (readFully(header, 0) && header.getInt(0) == FILE_VERSION
+                && header.getInt(4) == slotCount && header.getInt(8) == slotSize) {
+            lastSequence = findLastSequence(header.getLong(12));
+        } else {
+            header.clear();
+            header.putInt(0, FILE_VERSION).putInt(4, slotCount).putInt(8, slotSize).putLong(12, 0);
+            channel.truncate(0);
+            writeFully(header, 0);
+            randomAccessFile.setLength(HEADER_SIZE + (long) slotCount * slotSize);
+        }
+    }
+
+    /**
+     * Adds a message, writing over the oldest one when every slot is used
+     * @return the sequence number of the message
+     */
+    public synchronized long append(String title, String body) throws IOException {
+        long sequence = lastSequence + 1;
+        byte[] titleBytes = title == null ? new byte[0] : title.getBytes(UTF_8);
+        byte[] bodyBytes = body == null ? new byte[0] : body.getBytes(UTF_8);
+        int room = slotSize - SLOT_HEADER_SIZE;
+        int titleLength = Math.min(titleBytes.length, room / 4);
+        int bodyLength = Math.min(bodyBytes.length, room - titleLength);
+
+        ByteBuffer slot = ByteBuffer.allocate(slotSize);
+        slot.putLong(sequence).putLong(System.currentTimeMillis()).putInt(0);
+        slot.putShort((short) truncatedLength(titleBytes, titleLength));
+        slot.putShort((short) truncatedLength(bodyBytes, bodyLength));
+        slot.put(titleBytes, 0, truncatedLength(titleBytes, titleLength));
+        slot.put(bodyBytes, 0, truncatedLength(bodyBytes, bodyLength));
+        slot.putInt(16, checksum(slot));
+        slot.clear();
+        writeFully(slot, slotPosition(sequence));
+
+        // The header is only a hint for opening the file again, so it is not synced
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putLong(0, sequence);
+        writeFully(header, 12);
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * @return the sequence number of the newest message, or 0 if there are none
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Reads the messages after a cursor, oldest first. Messages that were already written over are
+     * skipped, so a reader that fell behind carries on from the oldest message that is kept
+     * @param cursor the sequence number of the last message the reader has, or 0 for all of them
+     * @param max the most messages to read
+     * @return the messages, whose last sequence number is the cursor for the next read
+     */
+    public List<Entry> readAfter(long cursor, int max) throws IOException {
+        long last = lastSequence;
+        long first = Math.max(cursor + 1, last - slotCount + 1);
+        if (first > last || max <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> entries = new ArrayList<>((int) Math.min(max, last - first + 1));
+        ByteBuffer slot = ByteBuffer.allocate(slotSize);
+        for (long sequence = first; sequence <= last && entries.size() < max; sequence++) {
+            slot.clear();
+            if (!readFully(slot, slotPosition(sequence))) {
+                break;
+            }
+            Entry entry = parse(slot, sequence);
+            if (entry != null) {
+                entries.add(entry);
+            }
+            // Otherwise the writer has started to write over the slot, so its message is gone
+        }
+        return entries;
+    }
+
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * @return the entry, or null if the slot holds another message or is part way through a write
+     */
+    private Entry parse(ByteBuffer slot, long sequence) {
+        if (slot.getLong(0) != sequence) {
+            return null;
+        }
+        int titleLength = slot.getShort(20) & 0xffff;
+        int bodyLength = slot.getShort(22) & 0xffff;
+        if (SLOT_HEADER_SIZE + titleLength + bodyLength > slotSize || slot.getInt(16) != checksum(slot)) {
+            return null;
+        }
+        byte[] bytes = slot.array();
+        return new Entry(sequence, slot.getLong(8),
+                new String(bytes, SLOT_HEADER_SIZE, titleLength, UTF_8),
+                new String(bytes, SLOT_HEADER_SIZE + titleLength, bodyLength, UTF_8));
+    }
+
+    /**
+     * The checksum covers everything in the slot except the checksum itself
+     */
+    private int checksum(ByteBuffer slot) {
+        int length = SLOT_HEADER_SIZE + (slot.getShort(20) & 0xffff) + (slot.getShort(22) & 0xffff);
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, 16);
+        crc.update(slot.array(), 20, length - 20);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The header's sequence number is written after the slot, so a slot written just before the
+     * app was stopped can be newer. The slots after it are checked until one does not follow on
+     */
+    private long findLastSequence(long headerSequence) throws IOException {
+        long last = headerSequence;
+        ByteBuffer slot = ByteBuffer.allocate(slotSize);
+        while (true) {
+            slot.clear();
+            if (!readFully(slot, slotPosition(last + 1)) || parse(slot, last + 1) == null) {
+                return last;
+            }
+            last++;
+        }
+    }
+
+    private long slotPosition(long sequence) {
+        return HEADER_SIZE + ((sequence - 1) % slotCount) * (long) slotSize;
+    }
+
+    /**
+     * @return the number of bytes that can be kept without cutting a UTF-8 character in half
+     */
+    private static int truncatedLength(byte[] bytes, int length) {
+        if (length >= bytes.length) {
+            return bytes.length;
+        }
+        while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * @return false if the file ends before the buffer is full
+     */
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
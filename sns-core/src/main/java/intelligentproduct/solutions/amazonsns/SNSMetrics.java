@@ -0,0 +1,155 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times every call that AmazonSNSHelper makes, per SNSOperation.
+ * For each operation it keeps a latency histogram, the number of calls that succeeded, failed and
+ * were throttled, and the number of calls that are running right now. The latency of a call
+ * includes its rate limit waits and retries, since that is how long the caller waited.
+ *
+ * Recording is lock-free and does not allocate. Use snapshot to read the values, such as from a
+ * timer that exports them every minute.
+ */
+public class SNSMetrics {
+    private final OperationMetrics[] operations;
+
+    public SNSMetrics() {
+        SNSOperation[] values = SNSOperation.values();
+        operations = new OperationMetrics[values.length];
+        for (SNSOperation operation : values) {
+            operations[operation.ordinal()] = new OperationMetrics();
+        }
+    }
+
+    /**
+     * Marks the start of a call
+     * @return the start time to pass to onSuccess or onError
+     */
+    long onStart(SNSOperation operation) {
+        operations[operation.ordinal()].inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void onSuccess(SNSOperation operation, long startNanos) {
+        OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.latency.record(System.nanoTime() - startNanos);
+        metrics.successes.incrementAndGet();
+        metrics.inFlight.decrementAndGet();
+    }
+
+    void onError(SNSOperation operation, long startNanos) {
+        OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.latency.record(System.nanoTime() - startNanos);
+        metrics.errors.incrementAndGet();
+        metrics.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Counts a throttling response. A call that is retried can be throttled more than once
+     */
+    void onThrottled(SNSOperation operation) {
+        operations[operation.ordinal()].throttles.incrementAndGet();
+    }
+
+    /**
+     * Reads the current values of every operation
+     * @return the values, which do not change after this returns
+     */
+    public Snapshot snapshot() {
+        Map<SNSOperation, OperationSnapshot> snapshots = new EnumMap<>(SNSOperation.class);
+        for (SNSOperation operation : SNSOperation.values()) {
+            snapshots.put(operation, operations[operation.ordinal()].snapshot());
+        }
+        return new Snapshot(snapshots);
+    }
+
+    /**
+     * Clears the counters and histograms, such as after they have been exported. The in-flight
+     * gauges are not cleared since those calls are still running
+     */
+    public void reset() {
+        for (OperationMetrics metrics : operations) {
+            metrics.latency.reset();
+            metrics.successes.set(0);
+            metrics.errors.set(0);
+            metrics.throttles.set(0);
+        }
+    }
+
+    private static final class OperationMetrics {
+        final SNSLatencyHistogram latency = new SNSLatencyHistogram();
+        final AtomicLong successes = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong throttles = new AtomicLong();
+        final AtomicLong inFlight = new AtomicLong();
+
+        OperationSnapshot snapshot() {
+            long[] counts = latency.copyCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return new OperationSnapshot(successes.get(), errors.get(), throttles.get(), inFlight.get(),
+                    SNSLatencyHistogram.valueAtPercentile(counts, total, 0.5),
+                    SNSLatencyHistogram.valueAtPercentile(counts, total, 0.99),
+                    SNSLatencyHistogram.valueAtPercentile(counts, total, 0.999),
+                    latency.getMaxNanos());
+        }
+    }
+
+    /**
+     * The values of every operation at one point in time
+     */
+    public static final class Snapshot {
+        private final Map<SNSOperation, OperationSnapshot> operations;
+
+        Snapshot(Map<SNSOperation, OperationSnapshot> operations) {
+            this.operations = Collections.unmodifiableMap(operations);
+        }
+
+        public OperationSnapshot get(SNSOperation operation) {
+            return operations.get(operation);
+        }
+
+        public Map<SNSOperation, OperationSnapshot> getOperations() {
+            return operations;
+        }
+    }
+
+    /**
+     * The values of one operation at one point in time. Latencies are in nanoseconds
+     */
+    public static final class OperationSnapshot {
+        public final long successCount;
+        public final long errorCount;
+        public final long throttleCount;
+        public final long inFlight;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long p999Nanos;
+        public final long maxNanos;
+
+        OperationSnapshot(long successCount, long errorCount, long throttleCount, long inFlight,
+                          long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+            this.successCount = successCount;
+            this.errorCount = errorCount;
+            this.throttleCount = throttleCount;
+            this.inFlight = inFlight;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "success=" + successCount + " error=" + errorCount + " throttle=" + throttleCount
+                    + " inFlight=" + inFlight + " p50=" + p50Nanos / 1000 + "us p99=" + p99Nanos / 1000
+                    + "us p999=" + p999Nanos / 1000 + "us max=" + maxNanos / 1000 + "us";
+        }
+    }
+}
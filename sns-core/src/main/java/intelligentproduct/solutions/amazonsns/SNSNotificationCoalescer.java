@@ -0,0 +1,185 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups incoming messages into notifications so a burst of messages does not post a notification
+ * for each one.
+ * Messages are held for a short window and then shown together, and the display is never updated
+ * more often than the minimum interval. The first few messages are shown as their own
+ * notifications. After that they are replaced by one summary notification that shows the count
+ * and the latest messages, until reset is called, such as when the user opens the app.
+ * Every notification gets its own ID from a counter, so no two of them replace each other. The
+ * counter can start where the last process left off, so notifications that are still showing after
+ * the process was restarted, such as by Firebase, are not replaced either.
+ */
+public class SNSNotificationCoalescer {
+    public static final long DEFAULT_WINDOW_MILLIS = 500;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_MAX_SEPARATE = 3;
+    public static final int SUMMARY_LINES = 5;
+
+    // The summary always uses this ID so that it is updated in place
+    public static final int SUMMARY_ID = 0;
+
+    /**
+     * Shows the notifications, such as with Android's NotificationManager. It is called on the
+     * coalescer's own thread
+     */
+    public interface Display {
+        /**
+         * Shows one message as its own notification
+         */
+        void show(int id, String message);
+
+        /**
+         * Shows or updates the summary notification
+         * @param latestMessages the newest messages, newest last, at most SUMMARY_LINES of them
+         * @param count the number of messages since the last reset
+         */
+        void showSummary(int id, List<String> latestMessages, int count);
+
+        void cancel(int id);
+    }
+
+    private final Display display;
+    private final long windowMillis;
+    private final long minIntervalMillis;
+    private final int maxSeparate;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(SNSExecutors.newThreadFactory("sns-notify"));
+
+    // Guarded by this
+    private final Deque<String> pending = new ArrayDeque<>();
+    private int pendingCount;
+    private boolean flushScheduled;
+    private long lastFlushMillis;
+    private final List<Integer> shownIds = new ArrayList<>();
+    private final Deque<String> summaryLines = new ArrayDeque<>();
+    private int shownCount;
+    private int nextId;
+
+    public SNSNotificationCoalescer(Display display) {
+        this(display, DEFAULT_WINDOW_MILLIS, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_SEPARATE);
+    }
+
+    /**
+     * @param display shows the notifications
+     * @param windowMillis how long a message is held for others to be shown with it
+     * @param minIntervalMillis the shortest time between two updates of the display
+     * @param maxSeparate how many messages are shown as their own notifications before they are
+     *                    replaced by the summary
+     */
+    public SNSNotificationCoalescer(Display display, long windowMillis, long minIntervalMillis, int maxSeparate) {
+        this(display, windowMillis, minIntervalMillis, maxSeparate, SUMMARY_ID + 1);
+    }
+
+    /**
+     * @param firstId the ID of the first separate notification, such as the one after the last ID
+     *                the app's previous process showed. An ID that is not valid starts at 1
+     */
+    public SNSNotificationCoalescer(Display display, long windowMillis, long minIntervalMillis, int maxSeparate,
+                                    int firstId) {
+        this.display = display;
+        this.windowMillis = windowMillis;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxSeparate = maxSeparate;
+        this.nextId = firstId > SUMMARY_ID ? firstId : SUMMARY_ID + 1;
+    }
+
+    /**
+     * Queues a message to be shown. Only the latest messages are kept while they wait, so a large
+     * burst does not use more memory than a small one
+     * @param message the text of the message
+     */
+    public synchronized void add(String message) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        pending.addLast(message);
+        if (pending.size() > Math.max(maxSeparate, SUMMARY_LINES)) {
+            pending.removeFirst();
+        }
+        pendingCount++;
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            long delayMillis = Math.max(windowMillis, lastFlushMillis + minIntervalMillis - System.currentTimeMillis());
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes the notifications that were shown and starts counting again, such as when the user
+     * has opened the app and seen the messages
+     */
+    public synchronized void reset() {
+        for (Integer id : shownIds) {
+            display.cancel(id);
+        }
+        if (shownCount > maxSeparate) {
+            display.cancel(SUMMARY_ID);
+        }
+        shownIds.clear();
+        summaryLines.clear();
+        shownCount = 0;
+    }
+
+    /**
+     * Stops the coalescer. Messages that are still waiting are not shown
+     */
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        pending.clear();
+        pendingCount = 0;
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        lastFlushMillis = System.currentTimeMillis();
+        if (pendingCount == 0) {
+            return;
+        }
+
+        int count = pendingCount;
+        List<String> messages = new ArrayList<>(pending);
+        pending.clear();
+        pendingCount = 0;
+
+        for (String message : messages) {
+            summaryLines.addLast(message);
+            if (summaryLines.size() > SUMMARY_LINES) {
+                summaryLines.removeFirst();
+            }
+        }
+
+        if (shownCount + count <= maxSeparate) {
+            for (String message : messages) {
+                int id = nextId;
+                // Skips the summary's ID when the counter wraps around
+                nextId = id == Integer.MAX_VALUE ? SUMMARY_ID + 1 : id + 1;
+                shownIds.add(id);
+                display.show(id, message);
+            }
+        } else {
+            // The separate notifications are folded into the summary
+            for (Integer id : shownIds) {
+                display.cancel(id);
+            }
+            shownIds.clear();
+            display.showSummary(SUMMARY_ID, new ArrayList<>(summaryLines), shownCount + count);
+        }
+        shownCount += count;
+    }
+}
@@ -0,0 +1,38 @@
+package intelligentproduct.solutions.amazonsns;
+
+/**
+ * The SNS API calls that AmazonSNSHelper makes. Each one has its own rate limit in SNS, so each one
+ * has its own token bucket in SNSRateLimiter.
+ * The Publish quota differs a lot between regions, from 30,000 calls per second in us-east-1 down
+ * to a few hundred in the smaller regions, so PUBLISH and PUBLISH_BATCH default to a rate that
+ * every region allows. Raise them for the account's region with SNSRateLimiter.setRate.
+ */
+public enum SNSOperation {
+    CREATE_PLATFORM_ENDPOINT(10),
+    CREATE_TOPIC(10),
+    DELETE_TOPIC(10),
+    DELETE_ENDPOINT(10),
+    GET_ENDPOINT_ATTRIBUTES(10),
+    SET_ENDPOINT_ATTRIBUTES(10),
+    SUBSCRIBE(100),
+    UNSUBSCRIBE(100),
+    PUBLISH(300),
+    PUBLISH_BATCH(30),
+    LIST_TOPICS(30),
+    LIST_SUBSCRIPTIONS_BY_TOPIC(30),
+    LIST_ENDPOINTS_BY_PLATFORM_APPLICATION(15);
+
+    private final double defaultRate;
+
+    SNSOperation(double defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * @return the default rate of this call, in calls per second, which is no higher than its SNS
+     *         quota in any region
+     */
+    public double getDefaultRate() {
+        return defaultRate;
+    }
+}
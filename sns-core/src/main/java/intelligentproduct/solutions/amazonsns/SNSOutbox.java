@@ -0,0 +1,515 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A durable queue of publish and subscribe calls that are waiting to be sent to SNS.
+ * Calls are appended to memory-mapped segment files in a directory that the app owns, so they are
+ * kept if the network is down or the process is killed, and a background drainer sends them in the
+ * order they were added. The position of the next call to send is kept in a checkpoint file, and
+ * segments are deleted once every call in them has been sent.
+ *
+ * Adding a call only copies it into the mapped file and never waits for the network or for the disk,
+ * so it is safe to call from the main thread. Because the mapped pages belong to the operating
+ * system, calls survive the process being killed; call force() as well if they must also survive
+ * the device losing power.
+ *
+ * Calls are sent at least once: a call that was sent right before the process died may be sent
+ * again when the outbox is opened next time. A call that SNS rejects, such as a publish to a topic
+ * that was deleted, would never work, so it is removed and passed to the outbox's Listener.
+ */
+public class SNSOutbox {
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final byte TYPE_PUBLISH = 1;
+    private static final byte TYPE_SUBSCRIBE = 2;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final AmazonSNSHelper snsHelper;
+    private final int segmentSize;
+    private final MappedByteBuffer checkpoint;
+
+    // Written by the enqueueing threads while holding the outbox's lock
+    private volatile MappedByteBuffer writeBuffer;
+    private volatile int writeSegment;
+    private volatile int writePosition;
+
+    // Guarded by itself. Segments that were filled up since the last force and not sent yet, which
+    // are kept mapped until then so force() can write them
+    private final Map<Integer, MappedByteBuffer> fullSegments = new HashMap<>();
+    private final Object forceLock = new Object();
+
+    // Only used by the drainer thread
+    private ByteBuffer readBuffer;
+    private int readSegment;
+    private int readPosition;
+
+    private final Object drainSignal = new Object();
+    private boolean retryNow = false;
+    private Thread drainer;
+    private volatile boolean closed = false;
+    private volatile Listener listener;
+
+    /**
+     * Receives the calls that SNS rejected
+     */
+    public interface Listener {
+        /**
+         * Called on the drainer thread for a call that was removed from the outbox because SNS
+         * rejected it
+         * @param operation SNSOperation.PUBLISH or SNSOperation.SUBSCRIBE
+         * @param arguments the arguments the call was added with, in the order enqueuePublish or
+         *                  enqueueSubscribe takes them
+         * @param error the error SNS answered with
+         */
+        void onRejected(SNSOperation operation, String[] arguments, RuntimeException error);
+    }
+
+    /**
+     * Opens the outbox in the directory, picking up any calls that were not sent the last time
+     * @param directory the directory that holds the segment and checkpoint files
+     * @param snsHelper the helper that sends the calls
+     * @throws IOException if the files can not be opened
+     */
+    public SNSOutbox(File directory, AmazonSNSHelper snsHelper) throws IOException {
+        this(directory, snsHelper, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the size of each segment file, which is also the largest call that can be added
+     */
+    public SNSOutbox(File directory, AmazonSNSHelper snsHelper, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the outbox directory " + directory);
+        }
+        this.directory = directory;
+        this.snsHelper = snsHelper;
+        this.segmentSize = segmentSize;
+
+        checkpoint = map(new File(directory, CHECKPOINT_FILE), 8);
+        long position = checkpoint.getLong(0);
+        readSegment = (int) (position >>> 32);
+        readPosition = (int) position;
+
+        // The segment with the highest number is the one that is being written. Segments before the
+        // checkpoint were fully sent but not deleted yet when the process stopped
+        int lastSegment = readSegment;
+        for (int segment : segmentNumbers()) {
+            lastSegment = Math.max(lastSegment, segment);
+            if (segment < readSegment) {
+                segmentFile(segment).delete();
+            }
+        }
+        writeSegment = lastSegment;
+        writeBuffer = mapSegment(lastSegment);
+        writePosition = findEndOfRecords(writeBuffer);
+
+        // The drainer maps its segment separately. Both mappings share the same pages, so it sees
+        // everything the writer has added
+        readBuffer = mapSegment(readSegment);
+    }
+
+    /**
+     * Adds a publish call to the outbox
+     * @param topicArn The topic ARN that the message will be published to
+     * @param message The message that will be sent
+     * @param subject The subject of the message that will be sent
+     */
+    public void enqueuePublish(String topicArn, String message, String subject) throws IOException {
+        append(encode(TYPE_PUBLISH, topicArn, message, subject));
+    }
+
+    /**
+     * Adds a subscribe call to the outbox
+     * @param topicARN the topic to subscribe to
+     * @param protocol "email" for an email address or "application" for a platform endpoint
+     * @param endpoint the email address or platform endpoint ARN
+     */
+    public void enqueueSubscribe(String topicARN, String protocol, String endpoint) throws IOException {
+        if (!"email".equals(protocol) && !"application".equals(protocol)) {
+            throw new IllegalArgumentException("Unsupported protocol " + protocol);
+        }
+        append(encode(TYPE_SUBSCRIBE, topicARN, protocol, endpoint));
+    }
+
+    /**
+     * @param listener receives the calls that SNS rejected, or null to only drop them
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the background thread that sends the calls in the outbox
+     */
+    public synchronized void start() {
+        if (drainer != null || closed) {
+            return;
+        }
+        drainer = SNSExecutors.newThreadFactory("sns-outbox").newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        drainer.start();
+    }
+
+    /**
+     * Tells the drainer to try again right away instead of waiting out its back off, such as when
+     * the device has just connected to a network
+     */
+    public void retryNow() {
+        synchronized (drainSignal) {
+            retryNow = true;
+            drainSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Writes the calls that have been added so far to the disk. This is only needed for them to
+     * survive the device losing power, and it is slow, so it should not be run on the main thread.
+     * It has its own lock, so calls can be added while it runs
+     */
+    public void force() {
+        synchronized (forceLock) {
+            // The segment that is being written is read first, so if it fills up in between it is
+            // one of the full segments by the time they are read
+            MappedByteBuffer current = writeBuffer;
+            List<MappedByteBuffer> full;
+            synchronized (fullSegments) {
+                full = new ArrayList<>(fullSegments.values());
+                fullSegments.clear();
+            }
+            for (MappedByteBuffer segment : full) {
+                segment.force();
+            }
+            current.force();
+            checkpoint.force();
+        }
+    }
+
+    /**
+     * @return true if every call that was added has been sent
+     */
+    public boolean isEmpty() {
+        long position = checkpoint.getLong(0);
+        return (int) (position >>> 32) == writeSegment && (int) position == writePosition;
+    }
+
+    /**
+     * Stops the drainer. Calls that have not been sent stay in the outbox for the next time it is opened
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = drainer;
+            drainer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (record.length > segmentSize) {
+            throw new IllegalArgumentException("The call is larger than the outbox segment size");
+        }
+
+        while (true) {
+            int segment;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("The outbox has been closed");
+                }
+                if (writePosition + record.length <= segmentSize) {
+                    writeBuffer.position(writePosition);
+                    writeBuffer.put(record);
+                    // The volatile write makes the record visible to the drainer
+                    writePosition = writePosition + record.length;
+                    break;
+                }
+                segment = writeSegment;
+            }
+
+            // Starts a new segment. The file is created and mapped without holding the lock, so
+            // other calls are not held up by it, and only the first thread to get here uses it.
+            // The zeros left at the end of the old segment mark where it ends
+            MappedByteBuffer next = mapSegment(segment + 1);
+            synchronized (this) {
+                if (writeSegment == segment) {
+                    synchronized (fullSegments) {
+                        fullSegments.put(segment, writeBuffer);
+                    }
+                    writeBuffer = next;
+                    writePosition = 0;
+                    writeSegment = segment + 1;
+                }
+            }
+        }
+
+        synchronized (drainSignal) {
+            drainSignal.notifyAll();
+        }
+    }
+
+    private void drain() {
+        long retryDelay = MIN_RETRY_DELAY_MILLIS;
+        while (!closed) {
+            byte[] body = nextRecord();
+            if (body == null) {
+                // Waits for a new call, or retries shortly if the next segment could not be opened
+                waitForSignal(isEmpty() ? 0 : MIN_RETRY_DELAY_MILLIS);
+                continue;
+            }
+
+            try {
+                send(body);
+                retryDelay = MIN_RETRY_DELAY_MILLIS;
+            } catch (RuntimeException e) {
+                if (SNSRetryPolicy.isRetryable(e)) {
+                    // Most likely there is no network, so this waits and tries again
+                    retryDelay = backOff(retryDelay);
+                    continue;
+                }
+                // SNS rejected the call itself, so sending it again would never work
+                retryDelay = MIN_RETRY_DELAY_MILLIS;
+                reject(body, e);
+            }
+
+            commit(RECORD_HEADER_SIZE + body.length);
+        }
+    }
+
+    private long backOff(long retryDelay) {
+        waitForSignal(retryDelay);
+        return Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    private void waitForSignal(long timeoutMillis) {
+        synchronized (drainSignal) {
+            try {
+                if (!retryNow && (timeoutMillis > 0 || isEmpty())) {
+                    drainSignal.wait(timeoutMillis);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            retryNow = false;
+        }
+    }
+
+    /**
+     * Reads the next record that has not been sent
+     * @return the body of the record, or null if there is nothing to send right now
+     */
+    private byte[] nextRecord() {
+        while (true) {
+            int segment = writeSegment;
+            int limit = readSegment == segment ? writePosition : segmentSize;
+
+            if (readPosition + RECORD_HEADER_SIZE <= limit) {
+                int length = readBuffer.getInt(readPosition);
+                if (length > 0 && readPosition + RECORD_HEADER_SIZE + length <= limit) {
+                    byte[] body = new byte[length];
+                    ByteBuffer view = readBuffer.duplicate();
+                    view.position(readPosition + RECORD_HEADER_SIZE);
+                    view.get(body);
+                    if (crc(body) == readBuffer.getInt(readPosition + 4)) {
+                        return body;
+                    }
+                }
+            }
+
+            if (readSegment == segment) {
+                return null;
+            }
+
+            // The rest of this segment is empty, so this moves on to the next one and deletes
+            // the segment that has been fully sent
+            int finishedSegment = readSegment;
+            try {
+                readBuffer = mapSegment(readSegment + 1);
+            } catch (IOException e) {
+                return null;
+            }
+            readSegment = readSegment + 1;
+            readPosition = 0;
+            saveCheckpoint();
+            segmentFile(finishedSegment).delete();
+            synchronized (fullSegments) {
+                fullSegments.remove(finishedSegment);
+            }
+        }
+    }
+
+    private void commit(int recordSize) {
+        readPosition = readPosition + recordSize;
+        saveCheckpoint();
+    }
+
+    private void saveCheckpoint() {
+        checkpoint.putLong(0, ((long) readSegment << 32) | (readPosition & 0xFFFFFFFFL));
+    }
+
+    private void reject(byte[] body, RuntimeException error) {
+        Listener listener = this.listener;
+        if (listener == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        SNSOperation operation = buffer.get() == TYPE_PUBLISH ? SNSOperation.PUBLISH : SNSOperation.SUBSCRIBE;
+        String[] arguments = {readString(buffer), readString(buffer), readString(buffer)};
+        try {
+            listener.onRejected(operation, arguments, error);
+        } catch (RuntimeException e) {
+            // A broken listener must not stop the drainer
+        }
+    }
+
+    private void send(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte type = buffer.get();
+        String first = readString(buffer);
+        String second = readString(buffer);
+        String third = readString(buffer);
+
+        if (type == TYPE_PUBLISH) {
+            snsHelper.publishMessage(first, second, third);
+        } else if (type == TYPE_SUBSCRIBE) {
+            if ("email".equals(second)) {
+                snsHelper.emailSubscribe(first, third);
+            } else {
+                snsHelper.pushNotificationSubscribe(first, third);
+            }
+        }
+    }
+
+    private static byte[] encode(byte type, String first, String second, String third) {
+        byte[][] fields = {toBytes(first), toBytes(second), toBytes(third)};
+        int bodyLength = 1;
+        for (byte[] field : fields) {
+            bodyLength += 4 + (field == null ? 0 : field.length);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.put(type);
+        for (byte[] field : fields) {
+            if (field == null) {
+                body.putInt(-1);
+            } else {
+                body.putInt(field.length);
+                body.put(field);
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+        record.putInt(bodyLength);
+        record.putInt(crc(body.array()));
+        record.put(body.array());
+        return record.array();
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Finds the end of the records in a segment, skipping a record that was only partly written
+     * when the process died
+     */
+    private int findEndOfRecords(MappedByteBuffer buffer) {
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_SIZE);
+            view.get(body);
+            if (crc(body) != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private int[] segmentNumbers() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] numbers = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                int number;
+                try {
+                    number = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    // Not one of the outbox's files
+                    continue;
+                }
+                numbers[count++] = number;
+            }
+        }
+        return Arrays.copyOf(numbers, count);
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%010d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private MappedByteBuffer mapSegment(int segment) throws IOException {
+        return map(segmentFile(segment), segmentSize);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the file is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
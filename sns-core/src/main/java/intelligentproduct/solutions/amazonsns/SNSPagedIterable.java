@@ -0,0 +1,198 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Walks through every item of an SNS list call, following the NextToken from page to page.
+ * Pages are only read when the iteration reaches them, and while the caller works through one page
+ * the next one is read in the background. At most two pages are held in memory at a time, no matter
+ * how many items the list has.
+ *
+ * Each call to iterator() starts again from the first page. Errors from SNS are thrown from
+ * hasNext() or next() when the iteration reaches the page that failed.
+ * @param <T> the type of the listed items, such as Topic or Endpoint
+ */
+public abstract class SNSPagedIterable<T> implements Iterable<T> {
+    private final Executor prefetchExecutor;
+    private final String startToken;
+
+    /**
+     * @param prefetchExecutor the executor that reads the next page in the background
+     * @param startToken the NextToken to start from, or null to start from the first page
+     */
+    protected SNSPagedIterable(Executor prefetchExecutor, String startToken) {
+        this.prefetchExecutor = prefetchExecutor;
+        this.startToken = startToken;
+    }
+
+    /**
+     * Reads one page from SNS
+     * @param nextToken the token of the page to read, or null for the first page
+     * @return the page
+     */
+    protected abstract Page<T> fetchPage(String nextToken);
+
+    @Override
+    public PageIterator<T> iterator() {
+        return new PageIterator<>(this);
+    }
+
+    /**
+     * One page of a list call
+     */
+    public static final class Page<T> {
+        final List<T> items;
+        final String nextToken;
+
+        public Page(List<T> items, String nextToken) {
+            this.items = items == null ? Collections.<T>emptyList() : items;
+            this.nextToken = nextToken;
+        }
+    }
+
+    /**
+     * The iterator over the items. It also tells which page it is on, so a long running job can
+     * save that token and later start again from the same page.
+     */
+    public static final class PageIterator<T> implements Iterator<T> {
+        private final SNSPagedIterable<T> iterable;
+
+        private String pageToken;
+        private Iterator<T> items = Collections.<T>emptyList().iterator();
+        private String nextToken;
+        private boolean lastPage = false;
+        private Prefetch<T> prefetch;
+
+        PageIterator(SNSPagedIterable<T> iterable) {
+            this.iterable = iterable;
+            // The first page is read on the first call to hasNext
+            this.nextToken = iterable.startToken;
+        }
+
+        /**
+         * @return the token of the page that the last item returned by next() came from, or null
+         * if that was the first page
+         */
+        public String getPageToken() {
+            return pageToken;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!items.hasNext()) {
+                if (lastPage) {
+                    return false;
+                }
+                loadNextPage();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return items.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("SNS list results can not be changed");
+        }
+
+        private void loadNextPage() {
+            String token = nextToken;
+            Page<T> page;
+            if (prefetch != null && !prefetch.claim()) {
+                // The prefetch has already started, so its result is used
+                page = await(prefetch);
+            } else {
+                // There was no prefetch, or it was still waiting for a free thread. Reading the
+                // page on this thread avoids waiting behind other work on the executor.
+                page = iterable.fetchPage(token);
+            }
+            prefetch = null;
+
+            pageToken = token;
+            items = page.items.iterator();
+            nextToken = page.nextToken;
+            lastPage = nextToken == null;
+
+            if (!lastPage) {
+                startPrefetch(nextToken);
+            }
+        }
+
+        private void startPrefetch(String token) {
+            Prefetch<T> task = new Prefetch<>(iterable, token);
+            try {
+                iterable.prefetchExecutor.execute(task);
+                prefetch = task;
+            } catch (RejectedExecutionException e) {
+                // The executor is full, so the page is read when it is reached instead
+                prefetch = null;
+            }
+        }
+
+        private static <T> Page<T> await(Prefetch<T> task) {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading the next page", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Reads a page in the background. Whichever of the executor and the iterator claims the task
+     * first reads the page, so a page is never read twice.
+     */
+    private static final class Prefetch<T> extends FutureTask<Page<T>> {
+        private final AtomicBoolean claimed;
+
+        Prefetch(final SNSPagedIterable<T> iterable, final String token) {
+            this(iterable, token, new AtomicBoolean(false));
+        }
+
+        private Prefetch(final SNSPagedIterable<T> iterable, final String token, final AtomicBoolean claimed) {
+            super(new Callable<Page<T>>() {
+                @Override
+                public Page<T> call() {
+                    // The iterator claimed the page first and is reading it itself
+                    if (!claimed.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    return iterable.fetchPage(token);
+                }
+            });
+            this.claimed = claimed;
+        }
+
+        /**
+         * @return true if the page had not been started yet, and now never will be
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts the messages that SNSPayloadCodec compressed and split into chunks back together.
+ * Chunks can arrive in any order. Sets that are still missing chunks after the timeout are
+ * dropped, and when the waiting chunks take up more than the memory limit, or there are more
+ * sets than the limit, the oldest sets are dropped first, so a lost chunk or a flood of partial
+ * sets never keeps growing the buffer. The memory of a set counts a slot for each of its chunks
+ * from the start, so a header that claims a large number of tiny chunks cannot hold more memory
+ * than its text.
+ */
+public class SNSPayloadAssembler {
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final int DEFAULT_MAX_BUFFERED_CHARS = 256 * 1024;
+    public static final int DEFAULT_MAX_MESSAGE_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_PENDING_SETS = 64;
+
+    // What the slot for one chunk is counted as, since a reference takes as much memory as a few chars
+    private static final int SLOT_CHARS = 4;
+
+    private final long timeoutMillis;
+    private final int maxBufferedChars;
+    private final int maxMessageBytes;
+    private final int maxPendingSets;
+
+    // Guarded by this. Set ID to its chunks, oldest set first
+    private final Map<String, PendingSet> pending = new LinkedHashMap<>();
+    private int bufferedChars;
+
+    public SNSPayloadAssembler() {
+        this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_BUFFERED_CHARS, DEFAULT_MAX_MESSAGE_BYTES);
+    }
+
+    /**
+     * @param timeoutMillis how long the chunks of a set are kept waiting for the rest
+     * @param maxBufferedChars the most memory that is kept waiting, over every set, in chars
+     * @param maxMessageBytes the largest message that a set can decompress to
+     */
+    public SNSPayloadAssembler(long timeoutMillis, int maxBufferedChars, int maxMessageBytes) {
+        this(timeoutMillis, maxBufferedChars, maxMessageBytes, DEFAULT_MAX_PENDING_SETS);
+    }
+
+    /**
+     * @param timeoutMillis how long the chunks of a set are kept waiting for the rest
+     * @param maxBufferedChars the most memory that is kept waiting, over every set, in chars
+     * @param maxMessageBytes the largest message that a set can decompress to
+     * @param maxPendingSets the most sets that are kept waiting at once
+     */
+    public SNSPayloadAssembler(long timeoutMillis, int maxBufferedChars, int maxMessageBytes, int maxPendingSets) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxBufferedChars = maxBufferedChars;
+        this.maxMessageBytes = maxMessageBytes;
+        this.maxPendingSets = maxPendingSets;
+    }
+
+    /**
+     * Adds a received payload
+     * @param payload the text that was received
+     * @return the whole message once every chunk of its set has arrived, the payload itself if
+     *         it was not encoded, or null while chunks are still missing or if the chunk was dropped
+     * @throws IllegalArgumentException if a complete set could not be decoded
+     */
+    public synchronized String add(String payload) {
+        if (!SNSPayloadCodec.isEncoded(payload)) {
+            return payload;
+        }
+        SNSPayloadCodec.Chunk chunk = SNSPayloadCodec.parse(payload);
+        if (chunk == null) {
+            return null;
+        }
+        if (chunk.count == 1) {
+            return SNSPayloadCodec.decode(chunk.part, maxMessageBytes);
+        }
+
+        long now = System.currentTimeMillis();
+        dropExpired(now);
+
+        PendingSet set = pending.get(chunk.setId);
+        if (set == null) {
+            // A set that could never fit in the buffer is not started, which also stops a broken
+            // header from making a huge array. Every chunk but the last is as long as this one
+            if (chunk.part.isEmpty()
+                    || (long) chunk.count * (chunk.part.length() + SLOT_CHARS) > maxBufferedChars + (long) chunk.part.length()) {
+                return null;
+            }
+            Iterator<String> oldest = pending.keySet().iterator();
+            while (pending.size() >= maxPendingSets && oldest.hasNext()) {
+                bufferedChars -= pending.get(oldest.next()).size();
+                oldest.remove();
+            }
+            set = new PendingSet(chunk.count, now);
+            pending.put(chunk.setId, set);
+            bufferedChars += set.size();
+        }
+        if (chunk.count != set.parts.length || set.parts[chunk.index] != null) {
+            // A chunk that was sent twice, or one that does not match its set
+            return null;
+        }
+        set.parts[chunk.index] = chunk.part;
+        set.received++;
+        set.chars += chunk.part.length();
+        bufferedChars += chunk.part.length();
+
+        if (set.received == set.parts.length) {
+            remove(chunk.setId);
+            StringBuilder encoded = new StringBuilder(set.chars);
+            for (String part : set.parts) {
+                encoded.append(part);
+            }
+            return SNSPayloadCodec.decode(encoded.toString(), maxMessageBytes);
+        }
+
+        // The oldest sets are the least likely to be completed
+        Iterator<Map.Entry<String, PendingSet>> oldest = pending.entrySet().iterator();
+        while (bufferedChars > maxBufferedChars && oldest.hasNext()) {
+            bufferedChars -= oldest.next().getValue().size();
+            oldest.remove();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of sets that are waiting for more chunks
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the memory that is kept waiting, in chars, counting the chunk text and the slots
+     *         for the chunks that have not arrived
+     */
+    public synchronized int getBufferedChars() {
+        return bufferedChars;
+    }
+
+    private void dropExpired(long now) {
+        Iterator<PendingSet> sets = pending.values().iterator();
+        while (sets.hasNext()) {
+            PendingSet set = sets.next();
+            if (now - set.startedMillis < timeoutMillis) {
+                // The sets are in the order they started, so the rest are newer
+                return;
+            }
+            bufferedChars -= set.size();
+            sets.remove();
+        }
+    }
+
+    private void remove(String setId) {
+        PendingSet set = pending.remove(setId);
+        if (set != null) {
+            bufferedChars -= set.size();
+        }
+    }
+
+    private static final class PendingSet {
+        final String[] parts;
+        final long startedMillis;
+        int received;
+        int chars;
+
+        PendingSet(int count, long startedMillis) {
+            this.parts = new String[count];
+            this.startedMillis = startedMillis;
+        }
+
+        /**
+         * @return the memory the set takes up, in chars
+         */
+        int size() {
+            return parts.length * SLOT_CHARS + chars;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes messages that are too large for one push notification, which Firebase limits to 4KB.
+ * A message that fits is left as it is. A larger one is compressed with gzip and written in
+ * Base64, and if it still does not fit it is split into numbered chunks that each fit. Every
+ * chunk starts with a header that SNSPayloadAssembler uses to put the message back together:
+ * {@code ~z1:<set id>:<index>:<count>:<part of the Base64 text>}
+ */
+public final class SNSPayloadCodec {
+    public static final int DEFAULT_MAX_CHUNK_BYTES = 3500;
+
+    static final String PREFIX = "~z1:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+    private static final Random random = new Random();
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    private SNSPayloadCodec() {
+    }
+
+    /**
+     * Encodes a message into the payloads to publish
+     * @param message the message to send
+     * @param maxChunkBytes the largest payload that can be sent, in UTF-8 bytes
+     * @return the message itself if it fits, otherwise the encoded chunks
+     */
+    public static List<String> encode(String message, int maxChunkBytes) {
+        if (maxChunkBytes < 64) {
+            throw new IllegalArgumentException("maxChunkBytes must be at least 64");
+        }
+        // A message that looks like a chunk is always encoded, so it is never mistaken for one
+        if (message.getBytes(UTF_8).length <= maxChunkBytes && !isEncoded(message)) {
+            return Collections.singletonList(message);
+        }
+
+        String encoded = toBase64(compress(message));
+        String setId = Long.toHexString(random.nextLong());
+
+        // The header holds the chunk count, so the count is found by trying until the headers fit
+        int count = 1;
+        int partLength;
+        while (true) {
+            partLength = maxChunkBytes - header(setId, count - 1, count).length();
+            int needed = (encoded.length() + partLength - 1) / partLength;
+            if (needed <= count) {
+                break;
+            }
+            count = needed;
+        }
+
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = i * partLength;
+            int end = Math.min(encoded.length(), start + partLength);
+            chunks.add(header(setId, i, count) + encoded.substring(start, end));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return true if the payload is one of the chunks made by encode
+     */
+    public static boolean isEncoded(String payload) {
+        return payload != null && payload.startsWith(PREFIX);
+    }
+
+    /**
+     * Reads the header of a chunk
+     * @return the chunk, or null if the header is broken
+     */
+    static Chunk parse(String payload) {
+        if (!isEncoded(payload)) {
+            return null;
+        }
+        int idEnd = payload.indexOf(':', PREFIX.length());
+        int indexEnd = idEnd < 0 ? -1 : payload.indexOf(':', idEnd + 1);
+        int countEnd = indexEnd < 0 ? -1 : payload.indexOf(':', indexEnd + 1);
+        if (countEnd < 0) {
+            return null;
+        }
+        try {
+            int index = Integer.parseInt(payload.substring(idEnd + 1, indexEnd));
+            int count = Integer.parseInt(payload.substring(indexEnd + 1, countEnd));
+            if (index < 0 || index >= count) {
+                return null;
+            }
+            return new Chunk(payload.substring(PREFIX.length(), idEnd), index, count, payload.substring(countEnd + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Turns the joined Base64 text of every chunk back into the message
+     * @param maxMessageBytes the largest message that is accepted, so a broken or hostile payload
+     *                        can not use up the memory
+     * @throws IllegalArgumentException if the text can not be decoded
+     */
+    static String decode(String encoded, int maxMessageBytes) {
+        try {
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(fromBase64(encoded)));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length() * 2);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxMessageBytes) {
+                    throw new IllegalArgumentException("The message is larger than " + maxMessageBytes + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The message could not be decompressed", e);
+        }
+    }
+
+    private static String header(String setId, int index, int count) {
+        return PREFIX + setId + ":" + index + ":" + count + ":";
+    }
+
+    private static byte[] compress(String message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(message.getBytes(UTF_8));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * java.util.Base64 is not on older Android versions and android.util.Base64 is not on the JVM,
+     * so the helper has its own
+     */
+    static String toBase64(byte[] data) {
+        StringBuilder text = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xff;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xff : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xff : 0;
+            text.append(BASE64[b0 >> 2]);
+            text.append(BASE64[((b0 & 0x3) << 4) | (b1 >> 4)]);
+            text.append(i + 1 < data.length ? BASE64[((b1 & 0xf) << 2) | (b2 >> 6)] : '=');
+            text.append(i + 2 < data.length ? BASE64[b2 & 0x3f] : '=');
+        }
+        return text.toString();
+    }
+
+    static byte[] fromBase64(String text) {
+        int length = text.length();
+        while (length > 0 && text.charAt(length - 1) == '=') {
+            length--;
+        }
+        byte[] data = new byte[length * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Bad Base64 character at " + i);
+            }
+            bits = ((bits << 6) | value) & 0xffff;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                data[position++] = (byte) (bits >> bitCount);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * One chunk of an encoded message
+     */
+    static final class Chunk {
+        final String setId;
+        final int index;
+        final int count;
+        final String part;
+
+        Chunk(String setId, int index, int count, String part) {
+            this.setId = setId;
+            this.index = index;
+            this.count = count;
+            this.part = part;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the title, body and other values of a push notification from the payload that SNS
+ * delivered, such as the data map of a Firebase message.
+ * A payload can be plain text, a JSON object with the values in it, or an SNS envelope such as
+ * {"default": "...", "GCM": "{\"notification\": {...}, \"data\": {...}}"} where the platform's
+ * part is JSON inside a string. The JSON is read in a single pass without building a tree, and
+ * the values that are not needed are skipped without making strings for them.
+ * Decoders keep no state between calls, so one decoder can be shared by every thread.
+ */
+public final class SNSPayloadDecoder {
+    // Platform payloads that hold JSON inside a string are only followed this deep
+    private static final int MAX_DEPTH = 4;
+
+    // The more specific a value is, the higher its priority, so a title in the platform's
+    // notification wins over an SNS subject, and a platform message wins over the default.
+    // JSON without a title or body is only shown as it is when nothing else gave a body
+    private static final int PRIORITY_RAW = 1;
+    private static final int PRIORITY_DEFAULT = 2;
+    private static final int PRIORITY_ENVELOPE = 3;
+    private static final int PRIORITY_MESSAGE = 4;
+    private static final int PRIORITY_NOTIFICATION = 5;
+
+    private final Set<String> dataKeys;
+
+    /**
+     * Creates a decoder that only reads the title, body and metadata
+     */
+    public SNSPayloadDecoder() {
+        this(Collections.<String>emptySet());
+    }
+
+    /**
+     * @param dataKeys the names of the custom values to read from the payload's data. Every
+     *                 other custom value is skipped
+     */
+    public SNSPayloadDecoder(Set<String> dataKeys) {
+        this.dataKeys = dataKeys;
+    }
+
+    /**
+     * Decodes the data map of a Firebase message. The body is read from its "message" value, or
+     * from "default" if there is none, which SNS uses for messages that were not sent as JSON
+     * @param data the data of the message
+     * @return the decoded payload
+     */
+    public Payload decode(Map<String, String> data) {
+        Fields fields = new Fields();
+        String message = data.get("message");
+        if (message != null) {
+            decodeText(message, fields, PRIORITY_MESSAGE, 0);
+        } else {
+            String defaultMessage = data.get("default");
+            if (defaultMessage != null) {
+                decodeText(defaultMessage, fields, PRIORITY_DEFAULT, 0);
+            }
+        }
+
+        String title = data.get("title");
+        if (title != null) {
+            fields.setTitle(title, PRIORITY_MESSAGE);
+        }
+        for (String key : dataKeys) {
+            String value = data.get(key);
+            if (value != null) {
+                fields.putData(key, value);
+            }
+        }
+        return fields.toPayload();
+    }
+
+    /**
+     * Decodes a payload that is plain text or JSON
+     * @param payload the text that SNS delivered
+     * @return the decoded payload
+     */
+    public Payload decode(String payload) {
+        Fields fields = new Fields();
+        decodeText(payload, fields, PRIORITY_DEFAULT, 0);
+        return fields.toPayload();
+    }
+
+    /**
+     * Reads the values from text that may be JSON, or uses the whole text as the body if it is
+     * not, or if it is JSON with no title or body in it
+     */
+    private void decodeText(String text, Fields fields, int priority, int depth) {
+        int start = skipWhitespace(text, 0);
+        if (depth < MAX_DEPTH && start < text.length() && text.charAt(start) == '{') {
+            // Read into separate fields so that JSON which turns out to be broken adds nothing
+            Fields parsed = new Fields();
+            try {
+                Parser parser = new Parser(text, start);
+                parser.readObject(parsed, priority, depth);
+                if (skipWhitespace(text, parser.position) == text.length()) {
+                    fields.merge(parsed);
+                    if (parsed.title == null && parsed.body == null) {
+                        // Such as {"orderId": 7}, which would otherwise be dropped
+                        fields.setBody(text, PRIORITY_RAW);
+                    }
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // It only looked like JSON, so it is used as plain text
+            }
+        }
+        fields.setBody(text, priority);
+    }
+
+    private static int skipWhitespace(String text, int position) {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * The values of a decoded payload. Values that were not in the payload are null
+     */
+    public static final class Payload {
+        public final String title;
+        public final String body;
+        // The custom values that the decoder was asked for
+        public final Map<String, String> data;
+        // Set when the payload was an SNS envelope, such as one sent to an HTTP endpoint
+        public final String messageId;
+        public final String topicArn;
+        public final String timestamp;
+
+        Payload(String title, String body, Map<String, String> data, String messageId, String topicArn,
+                String timestamp) {
+            this.title = title;
+            this.body = body;
+            this.data = data;
+            this.messageId = messageId;
+            this.topicArn = topicArn;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The values that have been found so far, each with the priority of where it was found
+     */
+    private static final class Fields {
+        String title;
+        int titlePriority;
+        String body;
+        int bodyPriority;
+        Map<String, String> data;
+        String messageId;
+        String topicArn;
+        String timestamp;
+
+        void setTitle(String value, int priority) {
+            if (priority > titlePriority) {
+                title = value;
+                titlePriority = priority;
+            }
+        }
+
+        void setBody(String value, int priority) {
+            if (priority > bodyPriority) {
+                body = value;
+                bodyPriority = priority;
+            }
+        }
+
+        void putData(String key, String value) {
+            if (data == null) {
+                data = new HashMap<>();
+            }
+            data.put(key, value);
+        }
+
+        void merge(Fields other) {
+            setTitle(other.title, other.titlePriority);
+            setBody(other.body, other.bodyPriority);
+            if (other.data != null) {
+                for (Map.Entry<String, String> entry : other.data.entrySet()) {
+                    putData(entry.getKey(), entry.getValue());
+                }
+            }
+            if (other.messageId != null) {
+                messageId = other.messageId;
+            }
+            if (other.topicArn != null) {
+                topicArn = other.topicArn;
+            }
+            if (other.timestamp != null) {
+                timestamp = other.timestamp;
+            }
+        }
+
+        Payload toPayload() {
+            Map<String, String> values = data != null
+                    ? Collections.unmodifiableMap(data)
+                    : Collections.<String, String>emptyMap();
+            return new Payload(title, body, values, messageId, topicArn, timestamp);
+        }
+    }
+
+    /**
+     * Reads JSON one character at a time from a position in the text. Malformed JSON throws
+     * IllegalArgumentException
+     */
+    private final class Parser {
+        private final String text;
+        int position;
+        // The start and end of the last key that was read, so keys are compared without copying them
+        private int keyStart;
+        private int keyEnd;
+        private boolean keyEscaped;
+
+        Parser(String text, int position) {
+            this.text = text;
+            this.position = position;
+        }
+
+        /**
+         * Reads an object of payload values: an SNS envelope, a platform payload, or its
+         * notification or data
+         */
+        void readObject(Fields fields, int priority, int depth) {
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return;
+            }
+            do {
+                readKey();
+                expect(':');
+                readValue(fields, priority, depth);
+            } while (next(',', '}'));
+        }
+
+        private void readValue(Fields fields, int priority, int depth) {
+            char c = peek();
+            if (keyIs("title") || keyIs("Subject")) {
+                fields.setTitle(readString(), keyIs("title") ? Math.max(priority, PRIORITY_MESSAGE) : PRIORITY_ENVELOPE);
+            } else if (keyIs("body") || keyIs("message") || keyIs("Message")) {
+                decodeNested(fields, Math.max(priority, PRIORITY_MESSAGE), depth);
+            } else if (keyIs("default")) {
+                decodeNested(fields, PRIORITY_DEFAULT, depth);
+            } else if (keyIs("GCM") || keyIs("FCM")) {
+                if (c == '{') {
+                    readObject(fields, PRIORITY_MESSAGE, depth);
+                } else {
+                    decodeText(readString(), fields, PRIORITY_MESSAGE, depth + 1);
+                }
+            } else if (keyIs("notification") && c == '{') {
+                readObject(fields, PRIORITY_NOTIFICATION, depth);
+            } else if (keyIs("data") && c == '{') {
+                readObject(fields, Math.max(priority, PRIORITY_MESSAGE), depth);
+            } else if (keyIs("MessageId")) {
+                fields.messageId = readString();
+            } else if (keyIs("TopicArn")) {
+                fields.topicArn = readString();
+            } else if (keyIs("Timestamp")) {
+                fields.timestamp = readString();
+            } else if (!keyEscaped && isDataKey() && c != '{' && c != '[') {
+                fields.putData(text.substring(keyStart, keyEnd), readScalar());
+            } else {
+                skipValue();
+            }
+        }
+
+        /**
+         * Reads a body, which is either text, JSON inside a string, or an object
+         */
+        private void decodeNested(Fields fields, int priority, int depth) {
+            if (peek() == '{') {
+                readObject(fields, priority, depth);
+            } else {
+                decodeText(readString(), fields, priority, depth + 1);
+            }
+        }
+
+        private boolean isDataKey() {
+            for (String key : dataKeys) {
+                if (keyIs(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean keyIs(String name) {
+            return !keyEscaped && keyEnd - keyStart == name.length()
+                    && text.regionMatches(keyStart, name, 0, name.length());
+        }
+
+        private void readKey() {
+            skip();
+            if (position >= text.length() || text.charAt(position) != '"') {
+                throw new IllegalArgumentException("Expected a key at " + position);
+            }
+            keyStart = position + 1;
+            keyEscaped = false;
+            int i = keyStart;
+            while (true) {
+                char c = charAt(i);
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\') {
+                    // Keys with escapes are never ones that are read, so they are only skipped
+                    keyEscaped = true;
+                    i++;
+                }
+                i++;
+            }
+            keyEnd = i;
+            position = i + 1;
+        }
+
+        private String readString() {
+            skip();
+            if (charAt(position) != '"') {
+                // A number or literal where text was expected
+                return readScalar();
+            }
+            int start = position + 1;
+            int i = start;
+            while (true) {
+                char c = charAt(i);
+                if (c == '"') {
+                    // Strings without escapes are copied straight out of the text
+                    position = i + 1;
+                    return text.substring(start, i);
+                }
+                if (c == '\\') {
+                    return readEscapedString(start, i);
+                }
+                i++;
+            }
+        }
+
+        private String readEscapedString(int start, int firstEscape) {
+            StringBuilder value = new StringBuilder(firstEscape - start + 16);
+            value.append(text, start, firstEscape);
+            int i = firstEscape;
+            while (true) {
+                char c = charAt(i++);
+                if (c == '"') {
+                    position = i;
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = charAt(i++);
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (i + 4 > text.length()) {
+                            throw new IllegalArgumentException("Unfinished escape at " + i);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad escape at " + i);
+                        }
+                        i += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        /**
+         * Reads a string, number, true, false or null as text
+         */
+        private String readScalar() {
+            skip();
+            if (charAt(position) == '"') {
+                return readString();
+            }
+            int start = position;
+            skipLiteral();
+            return text.substring(start, position);
+        }
+
+        private void skipValue() {
+            skip();
+            char c = charAt(position);
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                skipContainer();
+            } else {
+                skipLiteral();
+            }
+        }
+
+        private void skipString() {
+            int i = position + 1;
+            while (true) {
+                char c = charAt(i);
+                if (c == '"') {
+                    position = i + 1;
+                    return;
+                }
+                i += c == '\\' ? 2 : 1;
+            }
+        }
+
+        /**
+         * Skips an object or array by counting brackets, without looking at what is inside
+         */
+        private void skipContainer() {
+            int depth = 0;
+            do {
+                char c = charAt(position);
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                position++;
+            } while (depth > 0);
+        }
+
+        private void skipLiteral() {
+            int start = position;
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                throw new IllegalArgumentException("Expected a value at " + start);
+            }
+        }
+
+        private char peek() {
+            skip();
+            return charAt(position);
+        }
+
+        private void expect(char expected) {
+            if (peek() != expected) {
+                throw new IllegalArgumentException("Expected " + expected + " at " + position);
+            }
+            position++;
+        }
+
+        /**
+         * Reads the next character, which must be one of the two
+         * @return true if it was the first one
+         */
+        private boolean next(char first, char second) {
+            char c = peek();
+            position++;
+            if (c == first) {
+                return true;
+            }
+            if (c == second) {
+                return false;
+            }
+            throw new IllegalArgumentException("Expected " + first + " or " + second + " at " + (position - 1));
+        }
+
+        private void skip() {
+            position = skipWhitespace(text, position);
+        }
+
+        private char charAt(int index) {
+            if (index >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return text.charAt(index);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues messages that are published to the same topic and sends them in groups.
+ * A group is sent as soon as it holds MAX_BATCH_SIZE messages, or when the linger time has passed
+ * since the first message was added to it, whichever comes first. Each group is a single
+ * PublishBatch request, see AmazonSNSHelper.publishBatch, so a busy topic needs a tenth of the
+ * requests. Every message gets its own Future for its message ID, and a message that SNS refuses
+ * only fails its own Future.
+ *
+ * The groups are sent on the helper's executor, so a busy topic does not hold up the messages of
+ * the other topics. Callers that publish a message now and then gain nothing from the linger time
+ * and should use AmazonSNSHelper.publishAsync instead.
+ */
+public class SNSPublishBatcher {
+    public static final int MAX_BATCH_SIZE = SNSBatchClient.MAX_BATCH_SIZE;
+
+    private final AmazonSNSHelper snsHelper;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService lingerTimer;
+    private final long lingerMillis;
+
+    // The group of messages that is currently being filled for each topic ARN
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * Creates a batcher that sends its groups with the given helper
+     * @param snsHelper the helper that publishes the messages
+     * @param lingerMillis how long a group that is not full waits for more messages before it is sent
+     */
+    public SNSPublishBatcher(AmazonSNSHelper snsHelper, long lingerMillis) {
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis can not be negative");
+        }
+        this.snsHelper = snsHelper;
+        this.executor = snsHelper.getExecutor();
+        this.lingerMillis = lingerMillis;
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(SNSExecutors.newThreadFactory("sns-batch-linger"));
+    }
+
+    /**
+     * Adds a message to the group for its topic
+     * @param topicArn The topic ARN that the message will be published to
+     * @param message The message that will be sent
+     * @param subject The subject of the message that will be sent
+     * @return a Future for the message ID that SNS assigned to this message
+     */
+    public Future<String> publish(String topicArn, String message, String subject) {
+        PendingPublish pending = new PendingPublish(message, subject);
+        Batch fullBatch = null;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The batcher has been closed");
+            }
+
+            Batch batch = openBatches.get(topicArn);
+            if (batch == null) {
+                batch = new Batch(topicArn);
+                openBatches.put(topicArn, batch);
+                scheduleLinger(batch);
+            }
+
+            batch.entries.add(pending);
+            if (batch.entries.size() >= MAX_BATCH_SIZE) {
+                openBatches.remove(topicArn);
+                fullBatch = batch;
+            }
+        }
+
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+        return pending;
+    }
+
+    /**
+     * Sends every group that is waiting right away, without waiting for the linger time
+     */
+    public void flush() {
+        List<Batch> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(openBatches.values());
+            openBatches.clear();
+        }
+
+        for (Batch batch : batches) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Sends every group that is waiting and stops accepting new messages.
+     * The helper's executor is not shut down since it may be shared.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        lingerTimer.shutdown();
+    }
+
+    private void scheduleLinger(final Batch batch) {
+        lingerTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SNSPublishBatcher.this) {
+                    // The group may already have been sent because it filled up
+                    if (openBatches.get(batch.topicArn) != batch) {
+                        return;
+                    }
+                    openBatches.remove(batch.topicArn);
+                }
+                send(batch);
+            }
+        }, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(final Batch batch) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendNow(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (PendingPublish pending : batch.entries) {
+                pending.fail(e);
+            }
+        }
+    }
+
+    private void sendNow(Batch batch) {
+        List<SNSBatchClient.Entry> entries = new ArrayList<>(batch.entries.size());
+        for (PendingPublish pending : batch.entries) {
+            entries.add(new SNSBatchClient.Entry(pending.message, pending.subject));
+        }
+
+        SNSBatchClient.Result result;
+        try {
+            result = snsHelper.publishBatch(batch.topicArn, entries);
+        } catch (Exception e) {
+            // The whole request failed, so every message of the group did
+            for (PendingPublish pending : batch.entries) {
+                pending.fail(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.entries.size(); i++) {
+            PendingPublish pending = batch.entries.get(i);
+            if (result.messageIds.get(i) != null) {
+                pending.complete(result.messageIds.get(i));
+            } else if (result.errors.get(i) != null) {
+                pending.fail(result.errors.get(i));
+            } else {
+                pending.fail(new AmazonClientException("SNS did not answer for this message"));
+            }
+        }
+    }
+
+    /**
+     * The messages that are waiting to be sent to one topic
+     */
+    private static class Batch {
+        final String topicArn;
+        final List<PendingPublish> entries = new ArrayList<>(MAX_BATCH_SIZE);
+
+        Batch(String topicArn) {
+            this.topicArn = topicArn;
+        }
+    }
+
+    /**
+     * A queued message and the Future that its caller is waiting on.
+     * FutureTask is only used for its Future implementation; the result is set by the group that
+     * sends the message.
+     */
+    private static class PendingPublish extends FutureTask<String> {
+        private static final Callable<String> NOT_RUN = new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("Queued publishes are completed by their batch");
+            }
+        };
+
+        final String message;
+        final String subject;
+
+        PendingPublish(String message, String subject) {
+            super(NOT_RUN);
+            this.message = message;
+            this.subject = subject;
+        }
+
+        void complete(String messageId) {
+            set(messageId);
+        }
+
+        void fail(Throwable error) {
+            setException(error);
+        }
+    }
+}
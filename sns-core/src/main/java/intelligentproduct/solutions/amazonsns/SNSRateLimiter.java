@@ -0,0 +1,152 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out the SNS calls of one AWS account and region so they stay under the SNS quotas.
+ * Every SNSOperation has its own token bucket. When SNS throttles a call, the rate of that call is
+ * halved, and each call that succeeds after that raises the rate again a little at a time, up to the
+ * configured rate. Bulk jobs then run close to the highest rate SNS accepts instead of repeatedly
+ * hitting the limit.
+ *
+ * Helpers that use the same account and region share one limiter, see forAccount.
+ */
+public class SNSRateLimiter {
+    private static final ConcurrentMap<String, SNSRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final TokenBucket[] buckets;
+
+    /**
+     * Creates a limiter that starts at the default SNS quota of every call
+     */
+    public SNSRateLimiter() {
+        SNSOperation[] operations = SNSOperation.values();
+        buckets = new TokenBucket[operations.length];
+        for (SNSOperation operation : operations) {
+            buckets[operation.ordinal()] = new TokenBucket(operation.getDefaultRate());
+        }
+    }
+
+    /**
+     * Gets the limiter that is shared by every helper of an account and region
+     * @param accessKey the AWS access key ID of the account
+     * @param region the AWS region name
+     * @return the shared limiter
+     */
+    public static SNSRateLimiter forAccount(String accessKey, String region) {
+        String key = accessKey + "|" + region;
+        SNSRateLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            SNSRateLimiter newLimiter = new SNSRateLimiter();
+            limiter = limiters.putIfAbsent(key, newLimiter);
+            if (limiter == null) {
+                limiter = newLimiter;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets the highest rate of a call, such as when the account has a raised SNS quota
+     * @param operation the call
+     * @param callsPerSecond the highest number of calls per second
+     */
+    public void setRate(SNSOperation operation, double callsPerSecond) {
+        if (callsPerSecond <= 0) {
+            throw new IllegalArgumentException("callsPerSecond must be greater than 0");
+        }
+        buckets[operation.ordinal()].setMaxRate(callsPerSecond);
+    }
+
+    /**
+     * @return the rate that the call is currently limited to, which is lower than its highest
+     * rate after SNS has throttled it
+     */
+    public double getCurrentRate(SNSOperation operation) {
+        return buckets[operation.ordinal()].getRate();
+    }
+
+    /**
+     * Waits until the call can be made without going over its rate
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(SNSOperation operation) throws InterruptedException {
+        TokenBucket bucket = buckets[operation.ordinal()];
+        long waitNanos;
+        while ((waitNanos = bucket.tryTake()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Tells the limiter that SNS throttled the call, which halves its rate
+     */
+    public void onThrottled(SNSOperation operation) {
+        buckets[operation.ordinal()].decrease();
+    }
+
+    /**
+     * Tells the limiter that the call succeeded, which raises its rate if it had been lowered
+     */
+    public void onSuccess(SNSOperation operation) {
+        buckets[operation.ordinal()].increase();
+    }
+
+    /**
+     * A token bucket that holds up to one second of calls
+     */
+    private static final class TokenBucket {
+        private static final double MIN_RATE = 0.5;
+        private static final double INCREASE_FRACTION = 0.01;
+
+        private double maxRate;
+        private double rate;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(double rate) {
+            this.maxRate = rate;
+            this.rate = rate;
+            this.tokens = Math.max(1, rate);
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized void setMaxRate(double maxRate) {
+            this.maxRate = maxRate;
+            this.rate = maxRate;
+        }
+
+        /**
+         * Takes a token if there is one
+         * @return 0 if a token was taken, or how long to wait for the next one
+         */
+        synchronized long tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate));
+        }
+
+        synchronized void decrease() {
+            rate = Math.max(MIN_RATE, rate / 2);
+            tokens = Math.min(tokens, Math.max(1, rate));
+        }
+
+        synchronized void increase() {
+            if (rate < maxRate) {
+                rate = Math.min(maxRate, rate + maxRate * INCREASE_FRACTION);
+            }
+        }
+    }
+}
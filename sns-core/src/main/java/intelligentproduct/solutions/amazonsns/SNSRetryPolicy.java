@@ -0,0 +1,91 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.ThrottledException;
+
+import java.util.Random;
+
+/**
+ * Decides which failed SNS calls are tried again and how long to wait before each try.
+ * Throttling errors, HTTP 429 and 5xx responses, and network errors are tried again. Other errors,
+ * such as a topic that does not exist, are thrown right away since they would fail again.
+ *
+ * The wait uses exponential back off with decorrelated jitter: each wait is a random time between
+ * the base delay and three times the previous wait, up to the maximum delay. This spreads out the
+ * retries of many threads that were throttled at the same moment.
+ */
+public final class SNSRetryPolicy {
+    public static final SNSRetryPolicy DEFAULT = new SNSRetryPolicy(5, 100, 20 * 1000);
+    public static final SNSRetryPolicy NONE = new SNSRetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    /**
+     * @param maxRetries how many times a call is tried again after its first try
+     * @param baseDelayMillis the shortest wait before a retry
+     * @param maxDelayMillis the longest wait before a retry
+     */
+    public SNSRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param error the exception that the call threw
+     * @param retries how many times the call has already been tried again
+     * @return true if the call should be tried again
+     */
+    public boolean shouldRetry(RuntimeException error, int retries) {
+        return retries < maxRetries && isRetryable(error);
+    }
+
+    /**
+     * @param previousDelayMillis the previous wait, or 0 before the first retry
+     * @return how long to wait before the next retry
+     */
+    public long nextDelayMillis(long previousDelayMillis) {
+        long upper = Math.max(baseDelayMillis, Math.min(maxDelayMillis, previousDelayMillis * 3));
+        long delay = baseDelayMillis + (long) (random.nextDouble() * (upper - baseDelayMillis));
+        return Math.min(maxDelayMillis, delay);
+    }
+
+    /**
+     * @return true if SNS rejected the call because too many calls were made
+     */
+    public static boolean isThrottle(RuntimeException error) {
+        if (!(error instanceof AmazonServiceException)) {
+            return false;
+        }
+        AmazonServiceException serviceError = (AmazonServiceException) error;
+        String errorCode = serviceError.getErrorCode();
+        return error instanceof ThrottledException
+                || serviceError.getStatusCode() == 429
+                || "Throttling".equals(errorCode)
+                || "ThrottlingException".equals(errorCode)
+                || "Throttled".equals(errorCode)
+                || "RequestLimitExceeded".equals(errorCode);
+    }
+
+    /**
+     * @return true if the call may succeed when it is tried again
+     */
+    public static boolean isRetryable(RuntimeException error) {
+        if (error instanceof AmazonServiceException) {
+            AmazonServiceException serviceError = (AmazonServiceException) error;
+            return isThrottle(error)
+                    || serviceError.getStatusCode() >= 500
+                    || serviceError.getErrorType() == AmazonServiceException.ErrorType.Service;
+        }
+        // Client exceptions that are not service exceptions are network and connection errors
+        return error instanceof AmazonClientException;
+    }
+}
@@ -0,0 +1,79 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges identical calls that are made while one of them is still running, such as two threads
+ * creating the same topic or a double tap subscribing the same endpoint twice. The first caller
+ * makes the call on its own thread, and every caller that asks for the same key before it is done
+ * waits for it and gets the same result or the same error. Once the call is done the key is
+ * removed, so a later call goes to SNS again.
+ * Only calls that give the same result however many times they are made, such as CreateTopic,
+ * Subscribe and CreatePlatformEndpoint, may share a key.
+ */
+final class SNSSingleFlight {
+    // Key to the call that is running for it
+    private final ConcurrentMap<String, FutureTask<?>> calls = new ConcurrentHashMap<>();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    /**
+     * Makes the call, or waits for the one that is already running for the key
+     * @param key names the operation and every parameter of the call, so only identical calls share it
+     * @return the result of the call
+     */
+    @SuppressWarnings("unchecked")
+    <T> T run(String key, Callable<T> call) {
+        FutureTask<T> task = new FutureTask<>(call);
+        FutureTask<T> running = (FutureTask<T>) calls.putIfAbsent(key, task);
+        if (running != null) {
+            sharedCount.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            task.run();
+        } finally {
+            calls.remove(key, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * @return the number of calls that got the result of another call instead of making their own
+     */
+    long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    /**
+     * @return the number of calls that are running
+     */
+    int getRunningCount() {
+        return calls.size();
+    }
+
+    private static <T> T await(FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while waiting for the same call on another thread", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AmazonClientException(cause.getMessage(), cause);
+        }
+    }
+}
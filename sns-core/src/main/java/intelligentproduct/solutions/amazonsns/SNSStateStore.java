@@ -0,0 +1,216 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the ARNs an app needs to remember between runs, such as its topic, subscription and
+ * platform endpoint, in a small binary file.
+ * The values are held in memory as a snapshot that can not be changed, so get never waits for a
+ * lock or the file. Changes are made with an Editor, and every value in one edit is saved
+ * together, so a flow that fails part way never leaves only some of its values behind. The file is
+ * written to a temporary file and renamed over the old one, so a crash never leaves a broken file,
+ * and edits that are applied while a write is waiting are saved with that write.
+ */
+public class SNSStateStore {
+    private static final int FILE_VERSION = 1;
+
+    private final File file;
+    private final ExecutorService writer =
+            Executors.newSingleThreadExecutor(SNSExecutors.newThreadFactory("sns-state"));
+    private final Object fileLock = new Object();
+
+    private volatile Map<String, String> snapshot = Collections.emptyMap();
+
+    // Guarded by this
+    private long version;
+    private boolean writePending;
+
+    // Guarded by fileLock
+    private long writtenVersion;
+
+    /**
+     * Opens the store, reading the values that were saved in the file
+     * @param file the file the values are saved in
+     */
+    public SNSStateStore(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @param key the name of the value
+     * @return the value, or null if it is not set
+     */
+    public String get(String key) {
+        return snapshot.get(key);
+    }
+
+    /**
+     * @return every value in the store, which can not be changed
+     */
+    public Map<String, String> getAll() {
+        return snapshot;
+    }
+
+    /**
+     * Starts an edit. Nothing is changed until the edit is committed or applied
+     * @return a new Editor, which must only be used by one thread
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Writes any applied edits that are still waiting to the file now
+     */
+    public void flush() throws IOException {
+        write();
+    }
+
+    /**
+     * Makes the changes of an edit visible to get
+     * @return true if anything changed
+     */
+    private synchronized boolean publish(Map<String, String> changes) {
+        Map<String, String> next = new HashMap<>(snapshot);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                next.remove(change.getKey());
+            } else {
+                next.put(change.getKey(), change.getValue());
+            }
+        }
+        if (next.equals(snapshot)) {
+            return false;
+        }
+        snapshot = Collections.unmodifiableMap(next);
+        version++;
+        return true;
+    }
+
+    private synchronized void scheduleWrite() {
+        if (writePending) {
+            // The waiting write saves the latest snapshot, so it also saves this edit
+            return;
+        }
+        writePending = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write();
+                } catch (IOException e) {
+                    // The values are still in memory, and the next edit or flush tries again
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the latest snapshot to the file unless it was already written
+     */
+    private void write() throws IOException {
+        synchronized (fileLock) {
+            Map<String, String> values;
+            long valuesVersion;
+            synchronized (this) {
+                writePending = false;
+                values = snapshot;
+                valuesVersion = version;
+            }
+            if (valuesVersion == writtenVersion) {
+                return;
+            }
+            save(values);
+            writtenVersion = valuesVersion;
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = SNSCheckpointFile.read(file, FILE_VERSION);
+        if (in == null) {
+            return;
+        }
+
+        Map<String, String> values = new HashMap<>();
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                values.put(in.readUTF(), in.readUTF());
+            }
+            snapshot = Collections.unmodifiableMap(values);
+        } catch (IOException e) {
+            // The temporary file is renamed over this one only once it is complete, so this is a
+            // file that was damaged some other way. It is dropped rather than stopping the app
+            snapshot = Collections.emptyMap();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save(final Map<String, String> values) throws IOException {
+        SNSCheckpointFile.write(file, FILE_VERSION, new SNSCheckpointFile.Contents() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(values.size());
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * A set of changes that are saved together
+     */
+    public final class Editor {
+        // Null values are removed
+        private final Map<String, String> changes = new HashMap<>();
+
+        private Editor() {
+        }
+
+        /**
+         * @param key the name of the value
+         * @param value the new value, or null to remove it
+         */
+        public Editor put(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        /**
+         * Makes the changes visible straight away and writes them to the file before returning.
+         * If the write fails the changes are still visible and are saved with the next write
+         */
+        public void commit() throws IOException {
+            if (publish(changes)) {
+                write();
+            }
+        }
+
+        /**
+         * Makes the changes visible straight away and writes them to the file in the background.
+         * Edits that are applied before the write starts are saved with it
+         */
+        public void apply() {
+            if (publish(changes)) {
+                scheduleWrite();
+            }
+        }
+    }
+}
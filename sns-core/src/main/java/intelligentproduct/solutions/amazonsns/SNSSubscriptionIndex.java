@@ -0,0 +1,310 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.model.Subscription;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local copy of the subscriptions of each topic, so that a subscription ARN can be found from its
+ * topic, protocol and endpoint without listing every subscription of the topic.
+ * AmazonSNSHelper keeps the index up to date as it subscribes and unsubscribes. Subscriptions that
+ * are made or removed outside of the helper are picked up by refresh, which reads every page of the
+ * topic's subscriptions, and which can be run in the background with startBackgroundRefresh.
+ *
+ * The index holds at most a set number of subscriptions. When a topic does not fit, the topics
+ * that were changed longest ago are dropped, and are read again the next time they are needed.
+ * A subscription that a refresh did not find is remembered as missing for a short time, so
+ * asking again for an address that is not subscribed, or whose subscription is still waiting
+ * for confirmation, does not read the whole topic each time.
+ */
+public class SNSSubscriptionIndex {
+    public static final int DEFAULT_MAX_SUBSCRIPTIONS = 50000;
+    public static final long DEFAULT_MISS_TTL_MILLIS = 30 * 1000;
+
+    private static final int MAX_MISSES = 1000;
+
+    private final AmazonSNSHelper snsHelper;
+    private final int maxSubscriptions;
+    private final long missTtlNanos;
+
+    // topic ARN -> protocol and endpoint -> subscription ARN. Read without a lock, changed under this
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> topics = new ConcurrentHashMap<>();
+    // subscription ARN -> topic ARN, so a subscription can be removed by its ARN alone
+    private final ConcurrentMap<String, String> subscriptionTopics = new ConcurrentHashMap<>();
+    // The topics in the order they were last changed, oldest first, so the oldest are dropped first
+    private final LinkedHashMap<String, Boolean> topicOrder = new LinkedHashMap<>(16, 0.75f, true);
+    // topic, protocol and endpoint -> when a refresh last found no subscription for them
+    private final LinkedHashMap<String, Long> misses = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_MISSES;
+        }
+    };
+    private int size;
+
+    private ScheduledExecutorService refresher;
+
+    public SNSSubscriptionIndex(AmazonSNSHelper snsHelper) {
+        this(snsHelper, DEFAULT_MAX_SUBSCRIPTIONS, DEFAULT_MISS_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxSubscriptions the most subscriptions the index holds across all of its topics
+     * @param missTtlMillis how long a subscription that a refresh did not find is known to be missing
+     */
+    public SNSSubscriptionIndex(AmazonSNSHelper snsHelper, int maxSubscriptions, long missTtlMillis) {
+        if (maxSubscriptions < 1) {
+            throw new IllegalArgumentException("maxSubscriptions must be at least 1");
+        }
+        this.snsHelper = snsHelper;
+        this.maxSubscriptions = maxSubscriptions;
+        this.missTtlNanos = TimeUnit.MILLISECONDS.toNanos(missTtlMillis);
+    }
+
+    /**
+     * Finds a subscription in the index
+     * @param topicARN the topic the endpoint is subscribed to
+     * @param protocol the protocol of the subscription, such as "email" or "application"
+     * @param endpoint the email address or endpoint ARN that is subscribed
+     * @return the subscription ARN, or null if it is not in the index
+     */
+    public String find(String topicARN, String protocol, String endpoint) {
+        Map<String, String> subscriptions = topics.get(topicARN);
+        if (subscriptions == null) {
+            return null;
+        }
+        return subscriptions.get(key(protocol, endpoint));
+    }
+
+    /**
+     * @param topicARN the topic to check
+     * @return true if the subscriptions of the topic have been read into the index
+     */
+    public boolean containsTopic(String topicARN) {
+        return topics.containsKey(topicARN);
+    }
+
+    /**
+     * Tells whether a refresh found no subscription for these values a short time ago, in which
+     * case reading the topic again would very likely not find it either
+     * @param topicARN the topic the endpoint would be subscribed to
+     * @param protocol the protocol of the subscription, such as "email" or "application"
+     * @param endpoint the email address or endpoint ARN
+     * @return true if the subscription is known to be missing
+     */
+    public synchronized boolean isKnownMissing(String topicARN, String protocol, String endpoint) {
+        String missKey = topicARN + "|" + key(protocol, endpoint);
+        Long missedAt = misses.get(missKey);
+        if (missedAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - missedAt >= missTtlNanos) {
+            misses.remove(missKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remembers that a refresh found no subscription for these values, see isKnownMissing
+     */
+    public synchronized void putMissing(String topicARN, String protocol, String endpoint) {
+        if (missTtlNanos > 0) {
+            misses.put(topicARN + "|" + key(protocol, endpoint), System.nanoTime());
+        }
+    }
+
+    /**
+     * Adds a subscription to the index. Subscriptions that are still waiting for confirmation do
+     * not have a real ARN yet and are not added.
+     */
+    public synchronized void put(String topicARN, String protocol, String endpoint, String subscriptionARN) {
+        if (!isConfirmed(subscriptionARN)) {
+            return;
+        }
+
+        misses.remove(topicARN + "|" + key(protocol, endpoint));
+        ConcurrentMap<String, String> subscriptions = topics.get(topicARN);
+        if (subscriptions == null) {
+            subscriptions = new ConcurrentHashMap<>();
+            topics.put(topicARN, subscriptions);
+        }
+        topicOrder.put(topicARN, Boolean.TRUE);
+        putEntry(topicARN, subscriptions, key(protocol, endpoint), subscriptionARN);
+        evict(topicARN);
+    }
+
+    /**
+     * Removes a subscription from the index
+     * @param subscriptionARN the ARN of the subscription that was removed
+     */
+    public synchronized void removeSubscription(String subscriptionARN) {
+        String topicARN = subscriptionTopics.remove(subscriptionARN);
+        if (topicARN == null) {
+            return;
+        }
+
+        Map<String, String> subscriptions = topics.get(topicARN);
+        if (subscriptions != null && subscriptions.values().remove(subscriptionARN)) {
+            size--;
+        }
+    }
+
+    /**
+     * Removes every subscription of a topic from the index, such as when the topic is deleted
+     * @param topicARN the topic to remove
+     */
+    public synchronized void removeTopic(String topicARN) {
+        Map<String, String> subscriptions = topics.remove(topicARN);
+        topicOrder.remove(topicARN);
+        if (subscriptions != null) {
+            for (String subscriptionARN : subscriptions.values()) {
+                subscriptionTopics.remove(subscriptionARN);
+            }
+            size -= subscriptions.size();
+        }
+    }
+
+    /**
+     * Reads every subscription of the topic from SNS, one page at a time, and merges them into the
+     * topic's entries in the index. Entries that SNS no longer lists are dropped, unless they were
+     * added while the topic was being read, so a subscription that put adds during a refresh is kept
+     * @param topicARN the topic to read
+     */
+    public void refresh(String topicARN) {
+        Map<String, String> before;
+        synchronized (this) {
+            Map<String, String> subscriptions = topics.get(topicARN);
+            before = subscriptions == null ? new HashMap<String, String>() : new HashMap<>(subscriptions);
+        }
+
+        Map<String, String> listed = new HashMap<>();
+        for (Subscription subscription : snsHelper.subscriptionsByTopic(topicARN)) {
+            if (isConfirmed(subscription.getSubscriptionArn())) {
+                listed.put(key(subscription.getProtocol(), subscription.getEndpoint()),
+                        subscription.getSubscriptionArn());
+            }
+        }
+
+        synchronized (this) {
+            ConcurrentMap<String, String> subscriptions = topics.get(topicARN);
+            if (subscriptions == null) {
+                subscriptions = new ConcurrentHashMap<>();
+                topics.put(topicARN, subscriptions);
+            }
+            topicOrder.put(topicARN, Boolean.TRUE);
+            // Entries are changed one at a time, so lookups never see an empty topic
+            for (Map.Entry<String, String> entry : listed.entrySet()) {
+                putEntry(topicARN, subscriptions, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, String> entry : before.entrySet()) {
+                if (!listed.containsKey(entry.getKey()) && subscriptions.remove(entry.getKey(), entry.getValue())) {
+                    subscriptionTopics.remove(entry.getValue());
+                    size--;
+                }
+            }
+            evict(topicARN);
+        }
+    }
+
+    /**
+     * Starts refreshing every topic in the index on a background thread
+     * @param periodMillis the time between two refreshes of all of the topics
+     */
+    public synchronized void startBackgroundRefresh(long periodMillis) {
+        if (refresher != null) {
+            return;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(SNSExecutors.newThreadFactory("sns-subscription-index"));
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                List<String> topicARNs = new ArrayList<>(topics.keySet());
+                for (String topicARN : topicARNs) {
+                    try {
+                        refresh(topicARN);
+                    } catch (Exception e) {
+                        // Keeps the current entries for this topic and tries again next time
+                    }
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background refresh that was started with startBackgroundRefresh
+     */
+    public synchronized void stopBackgroundRefresh() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return the number of subscriptions in the index
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void putEntry(String topicARN, ConcurrentMap<String, String> subscriptions, String key,
+                          String subscriptionARN) {
+        String replaced = subscriptions.put(key, subscriptionARN);
+        if (replaced == null) {
+            size++;
+        } else if (!replaced.equals(subscriptionARN)) {
+            subscriptionTopics.remove(replaced);
+        }
+        subscriptionTopics.put(subscriptionARN, topicARN);
+    }
+
+    /**
+     * Drops the topics that were changed longest ago until the index is within its size. The topic
+     * that was just changed is dropped last, and also if it does not fit on its own
+     */
+    private void evict(String changedTopicARN) {
+        Iterator<String> oldest = topicOrder.keySet().iterator();
+        List<String> dropped = new ArrayList<>();
+        while (size > maxSubscriptions && oldest.hasNext()) {
+            String topicARN = oldest.next();
+            if (!topicARN.equals(changedTopicARN)) {
+                dropped.add(topicARN);
+                size -= topics.get(topicARN).size();
+            }
+        }
+        if (size > maxSubscriptions) {
+            dropped.add(changedTopicARN);
+            size -= topics.get(changedTopicARN).size();
+        }
+        for (String topicARN : dropped) {
+            topicOrder.remove(topicARN);
+            for (String subscriptionARN : topics.remove(topicARN).values()) {
+                subscriptionTopics.remove(subscriptionARN);
+            }
+        }
+    }
+
+    private static String key(String protocol, String endpoint) {
+        return protocol + "|" + endpoint;
+    }
+
+    /**
+     * SNS returns "pending confirmation" instead of an ARN for subscriptions, such as email
+     * subscriptions, that have not been confirmed yet
+     */
+    private static boolean isConfirmed(String subscriptionARN) {
+        return subscriptionARN != null && subscriptionARN.startsWith("arn:");
+    }
+}
@@ -0,0 +1,13 @@
+package intelligentproduct.solutions.amazonsns;
+
+/**
+ * Supplies the push notification token that a platform endpoint is created with.
+ * On Android this is the Firebase token, see FirebaseTokenSource. Other apps and servers can give
+ * the helper their own source.
+ */
+public interface SNSTokenSource {
+    /**
+     * @return the current push notification token of the device, or null if it is not available yet
+     */
+    String getToken();
+}
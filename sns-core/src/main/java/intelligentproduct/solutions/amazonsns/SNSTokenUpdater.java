@@ -0,0 +1,152 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes refreshed push tokens on to the registered platform endpoint, see
+ * SNSEndpointRegistry.updateToken, so the endpoint keeps its ARN instead of a new one being made.
+ * A refresh is only sent once no newer token has arrived for the debounce time, so a burst of
+ * refreshes ends up as a single call with the last token. Updates that fail because the network
+ * is down or SNS is busy are tried again later, until a newer token replaces them.
+ */
+public class SNSTokenUpdater {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+    private static final long MIN_RETRY_DELAY_MILLIS = 30 * 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30 * 60 * 1000;
+
+    private final SNSEndpointRegistry registry;
+    private final long debounceMillis;
+    private final SNSCallback<String> callback;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(SNSExecutors.newThreadFactory("sns-token"));
+
+    // Guarded by this
+    private String pendingToken;
+    private ScheduledFuture<?> pendingUpdate;
+    private long retryDelayMillis;
+
+    /**
+     * @param registry the registry that holds the endpoint to update
+     */
+    public SNSTokenUpdater(SNSEndpointRegistry registry) {
+        this(registry, DEFAULT_DEBOUNCE_MILLIS, null);
+    }
+
+    /**
+     * @param registry the registry that holds the endpoint to update
+     * @param debounceMillis how long to wait for a newer token before sending the update
+     * @param callback gets the endpoint ARN after each update, or the error if it could not be
+     *                 made and will not be tried again. May be null
+     */
+    public SNSTokenUpdater(SNSEndpointRegistry registry, long debounceMillis, SNSCallback<String> callback) {
+        this.registry = registry;
+        this.debounceMillis = debounceMillis;
+        this.callback = callback;
+    }
+
+    /**
+     * Queues a refreshed token. An update that is still waiting is replaced by this one
+     * @param token the device's new push notification token
+     */
+    public synchronized void onTokenRefresh(String token) {
+        if (token == null) {
+            return;
+        }
+        pendingToken = token;
+        retryDelayMillis = 0;
+        schedule(debounceMillis);
+    }
+
+    /**
+     * Sends a waiting update now instead of after the debounce time
+     */
+    public synchronized void flush() {
+        if (pendingToken != null) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Stops the updater. An update that is still waiting is dropped, and the endpoint gets the
+     * new token the next time SNSEndpointRegistry.getEndpoint is called
+     */
+    public synchronized void close() {
+        if (pendingUpdate != null) {
+            pendingUpdate.cancel(false);
+        }
+        pendingToken = null;
+        scheduler.shutdown();
+    }
+
+    private void schedule(long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (pendingUpdate != null) {
+            pendingUpdate.cancel(false);
+        }
+        pendingUpdate = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void update() {
+        String token;
+        synchronized (this) {
+            token = pendingToken;
+            pendingUpdate = null;
+        }
+        if (token == null) {
+            return;
+        }
+
+        try {
+            String endpointArn = registry.updateToken(token);
+            synchronized (this) {
+                // A newer token may have arrived while this one was being sent
+                if (token.equals(pendingToken)) {
+                    pendingToken = null;
+                }
+            }
+            if (callback != null && endpointArn != null) {
+                callback.onSuccess(endpointArn);
+            }
+        } catch (RuntimeException e) {
+            if (SNSRetryPolicy.isRetryable(e)) {
+                retry(token);
+            } else {
+                drop(token, e);
+            }
+        } catch (IOException e) {
+            // The endpoint was updated but the registry could not save it, which only costs a call later
+            drop(token, e);
+        }
+    }
+
+    private synchronized void retry(String token) {
+        if (!token.equals(pendingToken) || scheduler.isShutdown()) {
+            return;
+        }
+        retryDelayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(MIN_RETRY_DELAY_MILLIS, retryDelayMillis * 2));
+        schedule(retryDelayMillis);
+    }
+
+    private void drop(String token, Exception error) {
+        synchronized (this) {
+            if (token.equals(pendingToken)) {
+                pendingToken = null;
+            }
+        }
+        if (callback != null) {
+            callback.onError(error);
+        }
+    }
+}
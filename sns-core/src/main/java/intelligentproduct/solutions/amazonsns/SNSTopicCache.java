@@ -0,0 +1,163 @@
+package intelligentproduct.solutions.amazonsns;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the ARN of each topic name that AmazonSNSHelper.createTopic has resolved, so code that
+ * makes sure a topic exists before every publish does not call CreateTopic every time. Entries
+ * expire after the TTL, so a topic that was deleted outside of the app is created again within it,
+ * and when the cache is full the name that was used least recently is dropped.
+ * The helper removes a topic when it deletes it, and when a publish to it fails because it does
+ * not exist, so the next createTopic asks SNS again. Each removal starts a new generation, and an
+ * ARN that was looked up in an earlier generation is not cached, so a CreateTopic call that was
+ * still running when its topic was deleted does not put the deleted topic back.
+ */
+public class SNSTopicCache {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final long ttlMillis;
+    // Guarded by itself. Topic name to its ARN, least recently used first
+    private final LinkedHashMap<String, CachedArn> entries;
+    private long hits;
+    private long misses;
+    private long generation;
+
+    public SNSTopicCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxSize the most topic names that are kept
+     * @param ttlMillis how long an ARN is used before it is resolved with SNS again
+     */
+    public SNSTopicCache(final int maxSize, long ttlMillis) {
+        if (maxSize < 1 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("maxSize and ttlMillis must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedArn>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedArn> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param topicName the name of the topic
+     * @return the ARN of the topic, or null if it is not cached or has expired
+     */
+    public String get(String topicName) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            CachedArn entry = entries.get(topicName);
+            if (entry == null || now - entry.cachedMillis >= ttlMillis || now < entry.cachedMillis) {
+                if (entry != null) {
+                    entries.remove(topicName);
+                }
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.topicArn;
+        }
+    }
+
+    /**
+     * Remembers the ARN that SNS gave for a topic name
+     */
+    public void put(String topicName, String topicArn) {
+        CachedArn entry = new CachedArn(topicArn, System.currentTimeMillis());
+        synchronized (entries) {
+            entries.put(topicName, entry);
+        }
+    }
+
+    /**
+     * Remembers the ARN that SNS gave for a topic name, unless a topic was removed since the
+     * lookup started
+     * @param lookupGeneration the result of getGeneration() from before SNS was asked
+     * @return true if the ARN was cached
+     */
+    public boolean put(String topicName, String topicArn, long lookupGeneration) {
+        CachedArn entry = new CachedArn(topicArn, System.currentTimeMillis());
+        synchronized (entries) {
+            if (generation != lookupGeneration) {
+                return false;
+            }
+            entries.put(topicName, entry);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of removals so far, to pass to put once SNS has given the ARN
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Forgets a topic, such as after it was deleted
+     * @param topicArn the ARN of the topic
+     */
+    public void removeArn(String topicArn) {
+        synchronized (entries) {
+            generation++;
+            // Deletes are rare and the cache is bounded, so the names are not indexed by ARN
+            Iterator<CachedArn> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().topicArn.equals(topicArn)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups that found an ARN
+     */
+    public long getHitCount() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of lookups that had to ask SNS
+     */
+    public long getMissCount() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    private static final class CachedArn {
+        final String topicArn;
+        final long cachedMillis;
+
+        CachedArn(String topicArn, long cachedMillis) {
+            this.topicArn = topicArn;
+            this.cachedMillis = cachedMillis;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.HttpClient;
+import com.amazonaws.http.HttpRequest;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSBatchClient. The HTTP client is replaced by one that records the request
+ * and answers with a fixed response.
+ */
+public class SNSBatchClientTest {
+    private static final String TOPIC_ARN = "arn:aws:sns:us-east-1:123456789012:topic";
+
+    /**
+     * HTTP client that keeps the body of the last request and answers with the given status and XML
+     */
+    private static class FakeHttpClient implements HttpClient {
+        final int statusCode;
+        final String xml;
+        HttpRequest request;
+        String body;
+
+        FakeHttpClient(int statusCode, String xml) {
+            this.statusCode = statusCode;
+            this.xml = xml;
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) throws IOException {
+            this.request = request;
+            body = URLDecoder.decode(read(request.getContent()), "UTF-8");
+            return HttpResponse.builder()
+                    .statusCode(statusCode)
+                    .statusText(statusCode == 200 ? "OK" : "Error")
+                    .header("Content-Type", "text/xml")
+                    .content(new ByteArrayInputStream(xml.getBytes("UTF-8")))
+                    .build();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        private static String read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    private static SNSBatchClient newClient(HttpClient httpClient) {
+        ClientConfiguration configuration = new ClientConfiguration();
+        configuration.setMaxErrorRetry(0);
+        SNSBatchClient client = new SNSBatchClient(
+                new StaticCredentialsProvider(new BasicAWSCredentials("accessKey", "secretKey")), configuration, httpClient);
+        client.setEndpoint("https://sns.us-east-1.amazonaws.com");
+        return client;
+    }
+
+    @Test
+    public void messagesAreSentInOneSignedRequest() {
+        FakeHttpClient httpClient = new FakeHttpClient(200, "<PublishBatchResponse xmlns=\"http://sns.amazonaws.com/doc/2010-03-31/\">"
+                + "<PublishBatchResult><Successful>"
+                + "<member><Id>0</Id><MessageId>first-id</MessageId></member>"
+                + "<member><MessageId>third-id</MessageId><Id>2</Id></member>"
+                + "</Successful><Failed>"
+                + "<member><Id>1</Id><Code>InvalidParameter</Code><Message>Too long</Message><SenderFault>true</SenderFault></member>"
+                + "</Failed></PublishBatchResult>"
+                + "<ResponseMetadata><RequestId>request</RequestId></ResponseMetadata></PublishBatchResponse>");
+
+        SNSBatchClient.Result result = newClient(httpClient).publishBatch(TOPIC_ARN, Arrays.asList(
+                new SNSBatchClient.Entry("first", "subject"),
+                new SNSBatchClient.Entry("second", null),
+                new SNSBatchClient.Entry("third", null)));
+
+        assertTrue(httpClient.body.contains("Action=PublishBatch"));
+        assertTrue(httpClient.body.contains("TopicArn=" + TOPIC_ARN));
+        assertTrue(httpClient.body.contains("PublishBatchRequestEntries.member.1.Message=first"));
+        assertTrue(httpClient.body.contains("PublishBatchRequestEntries.member.1.Subject=subject"));
+        assertTrue(httpClient.body.contains("PublishBatchRequestEntries.member.3.Id=2"));
+        assertFalse(httpClient.body.contains("PublishBatchRequestEntries.member.2.Subject"));
+        assertNotNull(httpClient.request.getHeaders().get("Authorization"));
+
+        assertEquals(Arrays.asList("first-id", null, "third-id"), result.messageIds);
+        assertNull(result.errors.get(0));
+        assertEquals("InvalidParameter", result.errors.get(1).getErrorCode());
+        assertEquals("Too long", result.errors.get(1).getErrorMessage());
+        assertEquals(400, result.errors.get(1).getStatusCode());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void aRefusedRequestThrowsTheServiceException() {
+        FakeHttpClient httpClient = new FakeHttpClient(404, "<ErrorResponse xmlns=\"http://sns.amazonaws.com/doc/2010-03-31/\">"
+                + "<Error><Type>Sender</Type><Code>NotFound</Code><Message>Topic does not exist</Message></Error>"
+                + "<RequestId>request</RequestId></ErrorResponse>");
+
+        newClient(httpClient).publishBatch(TOPIC_ARN, Arrays.asList(new SNSBatchClient.Entry("message", null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moreThanTenMessagesAreRefused() {
+        SNSBatchClient.Entry[] entries = new SNSBatchClient.Entry[SNSBatchClient.MAX_BATCH_SIZE + 1];
+        Arrays.fill(entries, new SNSBatchClient.Entry("message", null));
+
+        newClient(new FakeHttpClient(200, "")).publishBatch(TOPIC_ARN, Arrays.asList(entries));
+    }
+}
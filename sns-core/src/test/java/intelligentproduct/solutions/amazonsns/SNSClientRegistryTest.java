@@ -0,0 +1,56 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSClientRegistry
+ */
+public class SNSClientRegistryTest {
+
+    @Test
+    public void helpersWithTheSameValuesShareOneClient() {
+        AmazonSNSHelper first = new AmazonSNSHelper("accessKey", "secretKey", "platformApplicationArn");
+        AmazonSNSHelper second = new AmazonSNSHelper("accessKey", "secretKey", "platformApplicationArn");
+
+        assertSame(first.getClient(), second.getClient());
+    }
+
+    @Test
+    public void differentSettingsGetDifferentClients() {
+        SNSClientSettings otherRegion = new SNSClientSettings.Builder().setRegion("eu-west-1").build();
+
+        assertNotSame(SNSClientRegistry.getClient("accessKey", "secretKey", "platformApplicationArn", SNSClientSettings.defaults()),
+                SNSClientRegistry.getClient("accessKey", "secretKey", "platformApplicationArn", otherRegion));
+        assertNotSame(SNSClientRegistry.getClient("accessKey", "secretKey", "platformApplicationArn", SNSClientSettings.defaults()),
+                SNSClientRegistry.getClient("otherAccessKey", "secretKey", "platformApplicationArn", SNSClientSettings.defaults()));
+    }
+
+    @Test
+    public void equalSettingsAreInterchangeable() {
+        SNSClientSettings first = new SNSClientSettings.Builder().setMaxConnections(32).build();
+        SNSClientSettings second = new SNSClientSettings.Builder().setMaxConnections(32).build();
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, SNSClientSettings.defaults());
+    }
+
+    @Test
+    public void clientsWithoutAPlatformApplicationCanBeShared() {
+        assertSame(SNSClientRegistry.getClient("accessKey", "secretKey", null, SNSClientSettings.defaults()),
+                SNSClientRegistry.getClient("accessKey", "secretKey", null, SNSClientSettings.defaults()));
+        assertNotSame(SNSClientRegistry.getClient("accessKey", "secretKey", null, SNSClientSettings.defaults()),
+                SNSClientRegistry.getClient("accessKey", "secretKey", "platformApplicationArn", SNSClientSettings.defaults()));
+    }
+
+    @Test
+    public void keepAliveSettingsDoNotChangeTheWholeProcess() {
+        String keepAlive = System.getProperty("http.keepAlive");
+        SNSClientSettings noKeepAlive = new SNSClientSettings.Builder().setKeepAlive(false).setMaxConnections(1).build();
+
+        assertNotNull(SNSClientRegistry.getClient("accessKey", "secretKey", "platformApplicationArn", noKeepAlive));
+        assertEquals(keepAlive, System.getProperty("http.keepAlive"));
+    }
+}
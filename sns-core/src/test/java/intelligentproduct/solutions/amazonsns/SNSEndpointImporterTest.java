@@ -0,0 +1,164 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSEndpointImporter. The helper records the tokens it gets instead of
+ * sending them to AWS.
+ */
+public class SNSEndpointImporterTest {
+    private File checkpoint;
+    private RecordingHelper helper;
+
+    private static class RecordingHelper extends AmazonSNSHelper {
+        final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingHelper() {
+            super("accessKey", "secretKey", "platformApplicationArn");
+        }
+
+        @Override
+        public String createPlatformEndpoint(String token) {
+            if (token.startsWith("bad")) {
+                throw new IllegalStateException("Invalid token");
+            }
+            created.add(token);
+            return "endpoint-" + token;
+        }
+    }
+
+    /**
+     * Tokens that stop with an error after a number of them, like an import that was killed
+     */
+    private static Iterable<String> tokens(final int count, final int failAfter) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next == failAfter) {
+                            throw new IllegalStateException("Stopped");
+                        }
+                        return "token" + next++;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static Map<String, String> lines(String output) {
+        Map<String, String> lines = new HashMap<>();
+        for (String line : output.split("\n")) {
+            String[] parts = line.split("\t", -1);
+            lines.put(parts[0], parts[1]);
+        }
+        return lines;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        checkpoint = File.createTempFile("import", "");
+        checkpoint.delete();
+        helper = new RecordingHelper();
+    }
+
+    @After
+    public void tearDown() {
+        checkpoint.delete();
+    }
+
+    @Test
+    public void duplicateTokensAreOnlyRegisteredOnce() throws Exception {
+        SNSEndpointImporter importer = new SNSEndpointImporter(helper, 8, null);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            tokens.add("token" + (i % 200));
+        }
+        tokens.add("bad");
+        StringWriter output = new StringWriter();
+
+        SNSEndpointImporter.Totals totals = importer.importTokens(tokens, output);
+        importer.shutdown();
+
+        assertEquals(200, totals.registered);
+        assertEquals(300, totals.duplicates);
+        assertEquals(1, totals.failed);
+        assertEquals(200, helper.created.size());
+        Map<String, String> lines = lines(output.toString());
+        assertEquals(201, lines.size());
+        assertEquals("endpoint-token7", lines.get("token7"));
+        assertEquals("", lines.get("bad"));
+    }
+
+    @Test
+    public void aStoppedImportCarriesOnFromItsCheckpoint() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SNSEndpointImporter importer = new SNSEndpointImporter(helper, executor, 4, checkpoint, 100);
+        StringWriter output = new StringWriter();
+        try {
+            importer.importTokens(tokens(1000, 650), output);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Stopped", e.getMessage());
+        }
+        // Let the calls that were already running finish, as they would before a process exits
+        Thread.sleep(100);
+        int firstRun = helper.created.size();
+
+        SNSEndpointImporter.Totals totals = importer.importTokens(tokens(1000, -1), output);
+
+        // The last checkpoint was at 600 tokens, or at the earliest token that was still running
+        assertTrue(totals.skipped > 0 && totals.skipped <= 600);
+        assertEquals(1000, lines(output.toString()).size());
+        // Only the tokens after the checkpoint are registered again
+        assertEquals(650, firstRun);
+        assertEquals(1650 - totals.skipped, helper.created.size());
+
+        // Running it again after it finished does nothing
+        assertEquals(1000, importer.importTokens(tokens(1000, -1), new StringWriter()).skipped);
+        // The importer leaves an executor that it was given to its owner
+        importer.shutdown();
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
+    @Test
+    public void tokenHashSetGrowsAndDropsCopies() {
+        SNSEndpointImporter.TokenHashSet set = new SNSEndpointImporter.TokenHashSet();
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(set.add("token" + i));
+        }
+        for (int i = 0; i < 100000; i += 7) {
+            assertFalse(set.add("token" + i));
+        }
+        assertEquals(100000, set.size());
+    }
+}
@@ -0,0 +1,177 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSEndpointRegistry. The helper keeps its endpoints in memory and records
+ * the calls it gets instead of sending them to AWS.
+ */
+public class SNSEndpointRegistryTest {
+    private File file;
+    private RecordingHelper helper;
+
+    private static class RecordingHelper extends AmazonSNSHelper {
+        final List<String> calls = new ArrayList<>();
+        final Map<String, Map<String, String>> endpoints = new HashMap<>();
+
+        RecordingHelper() {
+            super("accessKey", "secretKey", "platformApplicationArn");
+        }
+
+        @Override
+        public String createPlatformEndpoint(String token) {
+            calls.add("create " + token);
+            String endpointArn = "endpoint" + calls.size();
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("Token", token);
+            attributes.put("Enabled", "true");
+            endpoints.put(endpointArn, attributes);
+            return endpointArn;
+        }
+
+        @Override
+        public Map<String, String> getEndpointAttributes(String endpointARN) {
+            calls.add("get " + endpointARN);
+            Map<String, String> attributes = endpoints.get(endpointARN);
+            if (attributes == null) {
+                throw new NotFoundException("Endpoint does not exist");
+            }
+            return new HashMap<>(attributes);
+        }
+
+        @Override
+        public void setEndpointAttributes(String endpointARN, Map<String, String> attributes) {
+            calls.add("set " + endpointARN + " " + attributes.get("Token"));
+            if (!endpoints.containsKey(endpointARN)) {
+                throw new NotFoundException("Endpoint does not exist");
+            }
+            endpoints.get(endpointARN).putAll(attributes);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("endpoints", "");
+        file.delete();
+        helper = new RecordingHelper();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void sameTokenWithinTheTtlMakesNoCalls() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file);
+        String endpointArn = registry.getEndpoint("token");
+
+        assertEquals(endpointArn, registry.getEndpoint("token"));
+        assertEquals(endpointArn, new SNSEndpointRegistry(helper, file).getEndpoint("token"));
+        assertEquals(1, helper.calls.size());
+        assertEquals("create token", helper.calls.get(0));
+    }
+
+    @Test
+    public void newTokenUpdatesTheSameEndpoint() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file);
+        String endpointArn = registry.getEndpoint("token");
+
+        assertEquals(endpointArn, registry.getEndpoint("newToken"));
+        assertEquals("newToken", helper.endpoints.get(endpointArn).get("Token"));
+        assertEquals(2, helper.calls.size());
+        assertEquals("set " + endpointArn + " newToken", helper.calls.get(1));
+
+        // The new token is now the one that is remembered
+        assertEquals(endpointArn, registry.getEndpoint("newToken"));
+        assertEquals(2, helper.calls.size());
+    }
+
+    @Test
+    public void updateTokenOnlyChangesARegisteredEndpoint() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file);
+        assertNull(registry.updateToken("token"));
+        assertTrue(helper.calls.isEmpty());
+
+        String endpointArn = registry.getEndpoint("token");
+        assertEquals(endpointArn, registry.updateToken("token"));
+        assertEquals(1, helper.calls.size());
+
+        helper.endpoints.get(endpointArn).put("Enabled", "false");
+        assertEquals(endpointArn, registry.updateToken("newToken"));
+        assertEquals("newToken", helper.endpoints.get(endpointArn).get("Token"));
+        assertEquals("true", helper.endpoints.get(endpointArn).get("Enabled"));
+        assertEquals(endpointArn, registry.getEndpoint("newToken"));
+        assertEquals(2, helper.calls.size());
+    }
+
+    @Test
+    public void expiredEndpointIsCheckedAndEnabledAgain() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file, 0);
+        String endpointArn = registry.getEndpoint("token");
+
+        assertEquals(endpointArn, registry.getEndpoint("token"));
+        assertEquals("get " + endpointArn, helper.calls.get(1));
+        assertEquals(2, helper.calls.size());
+
+        helper.endpoints.get(endpointArn).put("Enabled", "false");
+        assertEquals(endpointArn, registry.getEndpoint("token"));
+        assertEquals("true", helper.endpoints.get(endpointArn).get("Enabled"));
+    }
+
+    @Test
+    public void deletedEndpointIsCreatedAgain() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file, 0);
+        String endpointArn = registry.getEndpoint("token");
+        helper.endpoints.remove(endpointArn);
+
+        String newEndpointArn = registry.getEndpoint("token");
+        assertNotEquals(endpointArn, newEndpointArn);
+        assertEquals("create token", helper.calls.get(helper.calls.size() - 1));
+    }
+
+    @Test
+    public void removedEndpointIsCreatedAgainWithoutChecking() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file);
+        registry.remove(registry.getEndpoint("token"));
+
+        registry.getEndpoint("token");
+        assertEquals(2, helper.calls.size());
+        assertEquals("create token", helper.calls.get(1));
+    }
+
+    @Test
+    public void onlyTheHashOfTheTokenIsSaved() throws Exception {
+        new SNSEndpointRegistry(helper, file).getEndpoint("secretToken");
+
+        String saved = new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+        assertFalse(saved.contains("secretToken"));
+        assertTrue(saved.contains(SNSEndpointRegistry.hash("secretToken")));
+    }
+
+    @Test
+    public void aNullTokenIsNeverCached() throws Exception {
+        SNSEndpointRegistry registry = new SNSEndpointRegistry(helper, file);
+        String endpointArn = registry.getEndpoint("token");
+
+        // The registered endpoint is neither returned for nor given the missing token
+        assertNotEquals(endpointArn, registry.getEndpoint(null));
+        assertNull(registry.updateToken(null));
+        assertEquals("create null", helper.calls.get(helper.calls.size() - 1));
+        assertEquals(endpointArn, registry.getEndpoint("token"));
+        assertEquals(2, helper.calls.size());
+    }
+}
@@ -0,0 +1,223 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.DeleteEndpointRequest;
+import com.amazonaws.services.sns.model.Endpoint;
+import com.amazonaws.services.sns.model.InvalidParameterException;
+import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationRequest;
+import com.amazonaws.services.sns.model.ListEndpointsByPlatformApplicationResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSEndpointSweeper. The client keeps its endpoints in memory instead of
+ * sending the calls to AWS.
+ */
+public class SNSEndpointSweeperTest {
+    private File checkpoint;
+    private EndpointClient client;
+    private AmazonSNSHelper helper;
+
+    /**
+     * Lists its endpoints in pages of 10, with the ARN of the last endpoint of a page as the NextToken
+     */
+    private static class EndpointClient extends AmazonSNSClient {
+        // Only changed before the sweep starts
+        final TreeMap<String, Map<String, String>> endpoints = new TreeMap<>();
+        final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger deleteCalls = new AtomicInteger();
+        volatile String failListingAfter;
+        // A NextToken that is rejected once, as if it had expired
+        volatile String rejectedToken;
+
+        void add(String endpointArn, String token, boolean enabled) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("Token", token);
+            attributes.put("Enabled", String.valueOf(enabled));
+            endpoints.put(endpointArn, attributes);
+        }
+
+        @Override
+        public ListEndpointsByPlatformApplicationResult listEndpointsByPlatformApplication(
+                ListEndpointsByPlatformApplicationRequest request) {
+            String nextToken = request.getNextToken();
+            if (nextToken != null && nextToken.equals(failListingAfter)) {
+                throw new AmazonServiceException("Stopped");
+            }
+            if (nextToken != null && nextToken.equals(rejectedToken)) {
+                rejectedToken = null;
+                throw new InvalidParameterException("Invalid parameter: NextToken");
+            }
+            List<Endpoint> page = new ArrayList<>();
+            Map<String, Map<String, String>> rest = nextToken == null ? endpoints : endpoints.tailMap(nextToken, false);
+            for (Map.Entry<String, Map<String, String>> entry : rest.entrySet()) {
+                if (page.size() == 10) {
+                    return new ListEndpointsByPlatformApplicationResult().withEndpoints(page)
+                            .withNextToken(page.get(9).getEndpointArn());
+                }
+                page.add(new Endpoint().withEndpointArn(entry.getKey())
+                        .withAttributes(new HashMap<>(entry.getValue())));
+            }
+            return new ListEndpointsByPlatformApplicationResult().withEndpoints(page);
+        }
+
+        @Override
+        public void deleteEndpoint(DeleteEndpointRequest request) {
+            deleteCalls.incrementAndGet();
+            deleted.add(request.getEndpointArn());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        checkpoint = File.createTempFile("sweep", "");
+        checkpoint.delete();
+        client = new EndpointClient();
+        for (int i = 0; i < 100; i++) {
+            // Every third endpoint is disabled
+            client.add(String.format("endpoint%03d", i), "token" + i, i % 3 != 0);
+        }
+        SNSRateLimiter rateLimiter = new SNSRateLimiter();
+        rateLimiter.setRate(SNSOperation.DELETE_ENDPOINT, 1e9);
+        rateLimiter.setRate(SNSOperation.LIST_ENDPOINTS_BY_PLATFORM_APPLICATION, 1e9);
+        helper = new AmazonSNSHelper(client, "platformApplicationArn", null, Executors.newSingleThreadExecutor(),
+                rateLimiter, SNSRetryPolicy.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        checkpoint.delete();
+    }
+
+    @Test
+    public void disabledAndStaleEndpointsAreDeleted() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SNSEndpointSweeper sweeper = new SNSEndpointSweeper(helper, executor, 4, null,
+                new SNSEndpointSweeper.TokenCheck() {
+                    @Override
+                    public boolean isStale(String token) {
+                        return token.equals("token1");
+                    }
+                });
+        final Set<String> reported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        SNSEndpointSweeper.Totals totals = sweeper.sweep(false, new SNSEndpointSweeper.Listener() {
+            @Override
+            public void onDeadEndpoint(Endpoint endpoint, RuntimeException error) {
+                assertNull(error);
+                reported.add(endpoint.getEndpointArn());
+            }
+        });
+        executor.shutdown();
+
+        assertEquals(100, totals.checked);
+        assertEquals(35, totals.dead);
+        assertEquals(35, totals.deleted);
+        assertEquals(reported, client.deleted);
+        assertTrue(client.deleted.contains("endpoint000"));
+        assertTrue(client.deleted.contains("endpoint001"));
+        assertFalse(client.deleted.contains("endpoint002"));
+    }
+
+    @Test
+    public void aDryRunDeletesNothing() throws Exception {
+        SNSEndpointSweeper sweeper = new SNSEndpointSweeper(helper, 4, null);
+        SNSEndpointSweeper.Totals totals = sweeper.sweep(true, null);
+        sweeper.shutdown();
+
+        assertEquals(34, totals.dead);
+        assertEquals(0, totals.deleted);
+        assertEquals(0, client.deleteCalls.get());
+    }
+
+    @Test
+    public void aStoppedSweepCarriesOnFromItsCheckpoint() throws Exception {
+        SNSEndpointSweeper sweeper = new SNSEndpointSweeper(helper, 4, checkpoint);
+        client.failListingAfter = "endpoint059";
+        try {
+            sweeper.sweep(false, null);
+            fail();
+        } catch (AmazonServiceException e) {
+            assertEquals("Stopped", e.getErrorMessage());
+        }
+        assertTrue(checkpoint.exists());
+        // Let the deletes that were already running finish
+        Thread.sleep(100);
+        assertEquals(20, client.deleted.size());
+
+        client.failListingAfter = null;
+        SNSEndpointSweeper.Totals totals = sweeper.sweep(false, null);
+        sweeper.shutdown();
+
+        // The second sweep starts again from the last page the first one reached, endpoint050
+        assertEquals(50, totals.checked);
+        assertEquals(17, totals.deleted);
+        assertEquals(34, client.deleted.size());
+        assertEquals(37, client.deleteCalls.get());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void aDryRunLeavesTheCheckpointAlone() throws Exception {
+        SNSEndpointSweeper sweeper = new SNSEndpointSweeper(helper, 4, checkpoint);
+        client.failListingAfter = "endpoint059";
+        try {
+            sweeper.sweep(false, null);
+            fail();
+        } catch (AmazonServiceException expected) {
+        }
+        client.failListingAfter = null;
+        byte[] saved = Files.readAllBytes(checkpoint.toPath());
+
+        // The dry run lists every endpoint, not only the ones after the checkpoint
+        SNSEndpointSweeper.Totals totals = sweeper.sweep(true, null);
+        assertEquals(100, totals.checked);
+        assertArrayEquals(saved, Files.readAllBytes(checkpoint.toPath()));
+
+        // And the real sweep still carries on from where it stopped
+        Thread.sleep(100);
+        totals = sweeper.sweep(false, null);
+        sweeper.shutdown();
+        assertEquals(50, totals.checked);
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void aRejectedCheckpointStartsFromTheFirstPage() throws Exception {
+        SNSEndpointSweeper sweeper = new SNSEndpointSweeper(helper, 4, checkpoint);
+        client.failListingAfter = "endpoint059";
+        try {
+            sweeper.sweep(false, null);
+            fail();
+        } catch (AmazonServiceException expected) {
+        }
+        Thread.sleep(100);
+
+        client.failListingAfter = null;
+        client.rejectedToken = "endpoint049";
+        SNSEndpointSweeper.Totals totals = sweeper.sweep(false, null);
+        sweeper.shutdown();
+
+        assertEquals(100, totals.checked);
+        assertEquals(34, client.deleted.size());
+        assertFalse(checkpoint.exists());
+    }
+}
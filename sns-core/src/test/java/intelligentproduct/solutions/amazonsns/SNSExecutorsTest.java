@@ -0,0 +1,93 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.PublishResult;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSExecutors
+ */
+public class SNSExecutorsTest {
+
+    /**
+     * Client whose publish calls only return once the given number of calls are all waiting at once
+     */
+    private static class GatheringClient extends AmazonSNSClient {
+        final CyclicBarrier barrier;
+
+        GatheringClient(int calls) {
+            barrier = new CyclicBarrier(calls);
+        }
+
+        @Override
+        public PublishResult publish(String topicArn, String message, String subject) {
+            try {
+                barrier.await(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("Not every call was running at the same time", e);
+            }
+            return new PublishResult().withMessageId(message);
+        }
+    }
+
+    @Test
+    public void threadPerTaskExecutorRunsEveryCallAtTheSameTime() throws Exception {
+        // Platform threads are too costly to start ten thousand of them in a test
+        int calls = SNSExecutors.supportsVirtualThreads() ? 10000 : 200;
+        SNSRateLimiter rateLimiter = new SNSRateLimiter();
+        rateLimiter.setRate(SNSOperation.PUBLISH, 1e9);
+        ExecutorService executor = SNSExecutors.newThreadPerTaskExecutor();
+        AmazonSNSHelper helper = new AmazonSNSHelper(new GatheringClient(calls), "platformApplicationArn", null,
+                executor, rateLimiter, SNSRetryPolicy.NONE);
+
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            futures.add(helper.publishAsync("topic", String.valueOf(i), "subject", null));
+        }
+        for (int i = 0; i < calls; i++) {
+            assertEquals(String.valueOf(i), futures.get(i).get(30, TimeUnit.SECONDS));
+        }
+        assertEquals(calls, helper.getMetrics().snapshot().get(SNSOperation.PUBLISH).successCount);
+        executor.shutdown();
+    }
+
+    @Test
+    public void boundedExecutorRejectsCallsWhenItsQueueIsFull() throws InterruptedException {
+        ExecutorService executor = SNSExecutors.newBoundedExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        executor.execute(blocked);
+        executor.execute(blocked);
+        try {
+            executor.execute(blocked);
+            fail("The third task was not rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected, one task is running and one is queued
+        }
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,139 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.amazonaws.services.sns.model.InvalidParameterException;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSFanOutPublisher. The client answers after a fixed latency instead of
+ * sending the messages to AWS.
+ */
+public class SNSFanOutPublisherTest {
+    private SNSFanOutPublisher publisher;
+
+    private static class SlowClient extends AmazonSNSClient {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public PublishResult publish(PublishRequest request) {
+            int running = inFlight.incrementAndGet();
+            while (true) {
+                int max = maxInFlight.get();
+                if (running <= max || maxInFlight.compareAndSet(max, running)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+            String endpointArn = request.getTargetArn();
+            if (endpointArn.startsWith("disabled")) {
+                throw new EndpointDisabledException("Endpoint is disabled");
+            }
+            if (endpointArn.startsWith("deleted")) {
+                throw new NotFoundException("Endpoint does not exist");
+            }
+            if (endpointArn.startsWith("broken")) {
+                throw new AmazonServiceException("Internal error");
+            }
+            return new PublishResult().withMessageId("id-" + request.getMessage());
+        }
+    }
+
+    private static AmazonSNSHelper newHelper(AmazonSNSClient client) {
+        SNSRateLimiter rateLimiter = new SNSRateLimiter();
+        rateLimiter.setRate(SNSOperation.PUBLISH, 1e9);
+        return new AmazonSNSHelper(client, "platformApplicationArn", null, Executors.newSingleThreadExecutor(),
+                rateLimiter, SNSRetryPolicy.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+    }
+
+    @Test
+    public void everyTargetGetsItsOwnMessageAndResult() throws Exception {
+        SlowClient client = new SlowClient();
+        publisher = new SNSFanOutPublisher(newHelper(client), 10);
+        List<SNSFanOutPublisher.Target> targets = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            targets.add(new SNSFanOutPublisher.Target("endpoint" + i, "message" + i));
+        }
+        targets.add(new SNSFanOutPublisher.Target("disabled", "message"));
+        targets.add(new SNSFanOutPublisher.Target("deleted", "message"));
+        targets.add(new SNSFanOutPublisher.Target("broken", "message"));
+
+        final List<SNSFanOutPublisher.Result> results =
+                Collections.synchronizedList(new ArrayList<SNSFanOutPublisher.Result>());
+        SNSFanOutPublisher.Totals totals = publisher.publish(targets, new SNSFanOutPublisher.Listener() {
+            @Override
+            public void onResult(SNSFanOutPublisher.Result result) {
+                results.add(result);
+            }
+        });
+
+        assertEquals(50, totals.sent);
+        assertEquals(1, totals.disabled);
+        assertEquals(1, totals.invalid);
+        assertEquals(1, totals.failed);
+        assertEquals(53, results.size());
+        for (SNSFanOutPublisher.Result result : results) {
+            if (result.endpointArn.startsWith("endpoint")) {
+                assertEquals("id-message" + result.endpointArn.substring("endpoint".length()), result.messageId);
+            } else {
+                assertNotNull(result.error);
+            }
+        }
+    }
+
+    @Test
+    public void throughputGrowsWithTheConcurrency() throws Exception {
+        SlowClient client = new SlowClient();
+        publisher = new SNSFanOutPublisher(newHelper(client), 25);
+        List<SNSFanOutPublisher.Target> targets = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            targets.add(new SNSFanOutPublisher.Target("endpoint" + i, "message"));
+        }
+
+        long start = System.nanoTime();
+        assertEquals(250, publisher.publish(targets, null).sent);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        // One at a time would take 5 seconds
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 2000);
+        assertTrue(client.maxInFlight.get() <= 25);
+        assertTrue(client.maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void onlyBadArnsMakeInvalidParametersInvalid() {
+        assertEquals(SNSFanOutPublisher.Status.INVALID, SNSFanOutPublisher.classify(
+                new InvalidParameterException("Invalid parameter: TargetArn Reason: No endpoint found")));
+        assertEquals(SNSFanOutPublisher.Status.FAILED, SNSFanOutPublisher.classify(
+                new InvalidParameterException("Invalid parameter: Message too long")));
+    }
+}
@@ -0,0 +1,107 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSMessageDeduplicator
+ */
+public class SNSMessageDeduplicatorTest {
+    private final List<SNSMessageDeduplicator> opened = new ArrayList<>();
+    private File file;
+
+    /**
+     * A clock that only moves when the test moves it
+     */
+    private static class FakeClock implements SNSMessageDeduplicator.Clock {
+        long nowMillis = 1000000;
+
+        @Override
+        public long currentTimeMillis() {
+            return nowMillis;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("dedup", "");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        // The background writers must be stopped first, or they can write the file again
+        for (SNSMessageDeduplicator deduplicator : opened) {
+            deduplicator.close();
+        }
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private SNSMessageDeduplicator open(SNSMessageDeduplicator deduplicator) {
+        opened.add(deduplicator);
+        return deduplicator;
+    }
+
+    @Test
+    public void onlyRepeatedKeysAreDuplicates() throws Exception {
+        SNSMessageDeduplicator deduplicator = new SNSMessageDeduplicator(null);
+        int falsePositives = 0;
+        for (int i = 0; i < SNSMessageDeduplicator.DEFAULT_CAPACITY; i++) {
+            if (deduplicator.isDuplicate("message" + i)) {
+                falsePositives++;
+            }
+        }
+        for (int i = 0; i < SNSMessageDeduplicator.DEFAULT_CAPACITY; i++) {
+            assertTrue(deduplicator.isDuplicate("message" + i));
+        }
+        // About 0.4 are expected at the default rate
+        assertTrue("False positives: " + falsePositives, falsePositives <= 3);
+    }
+
+    @Test
+    public void keysAreForgottenAfterTwoWindows() throws Exception {
+        FakeClock clock = new FakeClock();
+        SNSMessageDeduplicator deduplicator = new SNSMessageDeduplicator(null, 100, 100, 0.001, clock);
+        assertFalse(deduplicator.isDuplicate("first"));
+        assertFalse(deduplicator.isDuplicate("second"));
+
+        // One window later both are still remembered, and seeing one keeps it for another window
+        clock.nowMillis += 120;
+        assertTrue(deduplicator.isDuplicate("first"));
+
+        clock.nowMillis += 100;
+        assertTrue(deduplicator.isDuplicate("first"));
+        assertFalse(deduplicator.isDuplicate("second"));
+
+        clock.nowMillis += 250;
+        assertFalse(deduplicator.isDuplicate("first"));
+
+        // A clock that goes back forgets everything rather than keeping keys forever
+        assertFalse(deduplicator.isDuplicate("third"));
+        clock.nowMillis -= 1000;
+        assertFalse(deduplicator.isDuplicate("third"));
+    }
+
+    @Test
+    public void keysAreRememberedAcrossRestarts() throws Exception {
+        SNSMessageDeduplicator deduplicator = open(new SNSMessageDeduplicator(file));
+        assertFalse(deduplicator.isDuplicate("message"));
+        deduplicator.flush();
+
+        SNSMessageDeduplicator reopened = open(new SNSMessageDeduplicator(file));
+        assertTrue(reopened.isDuplicate("message"));
+        assertFalse(reopened.isDuplicate("other message"));
+
+        // Filters saved with other sizes are not used
+        assertFalse(open(new SNSMessageDeduplicator(file, 1000, 10, 0.01)).isDuplicate("message"));
+    }
+}
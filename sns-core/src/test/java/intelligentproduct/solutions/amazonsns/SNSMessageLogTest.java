@@ -0,0 +1,125 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSMessageLog
+ */
+public class SNSMessageLogTest {
+    private File file;
+    private SNSMessageLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("messages", "");
+        file.delete();
+        log = new SNSMessageLog(file, 16, 128);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+        file.delete();
+    }
+
+    @Test
+    public void readersOnlyReadTheNewMessages() throws Exception {
+        assertTrue(log.readAfter(0, 10).isEmpty());
+        assertEquals(1, log.append("Title", "first"));
+        assertEquals(2, log.append(null, "second"));
+
+        List<SNSMessageLog.Entry> entries = log.readAfter(0, 10);
+        assertEquals(2, entries.size());
+        assertEquals("Title", entries.get(0).title);
+        assertEquals("first", entries.get(0).body);
+        assertEquals("", entries.get(1).title);
+
+        log.append("Title", "third");
+        entries = log.readAfter(entries.get(1).sequence, 10);
+        assertEquals(1, entries.size());
+        assertEquals(3, entries.get(0).sequence);
+        assertEquals("third", entries.get(0).body);
+    }
+
+    @Test
+    public void theOldestMessagesAreWrittenOver() throws Exception {
+        for (int i = 1; i <= 40; i++) {
+            log.append(null, "message" + i);
+        }
+
+        // A reader that fell behind carries on from the oldest message that is kept
+        List<SNSMessageLog.Entry> entries = log.readAfter(3, 100);
+        assertEquals(16, entries.size());
+        assertEquals(25, entries.get(0).sequence);
+        assertEquals("message40", entries.get(15).body);
+        assertEquals(5, log.readAfter(30, 5).size());
+    }
+
+    @Test
+    public void longMessagesAreCutWithoutBreakingCharacters() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append('\u00e9');
+        }
+        log.append("Title", body.toString());
+
+        String read = log.readAfter(0, 1).get(0).body;
+        assertTrue(read.length() < 100);
+        assertTrue(body.toString().startsWith(read));
+    }
+
+    @Test
+    public void theMessagesAreKeptWhenTheLogIsOpenedAgain() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            log.append(null, "message" + i);
+        }
+        log.close();
+
+        log = new SNSMessageLog(file, 16, 128);
+        assertEquals(20, log.getLastSequence());
+        assertEquals(21, log.append(null, "message21"));
+        assertEquals("message21", log.readAfter(20, 10).get(0).body);
+
+        // Other sizes start the log again
+        log.close();
+        log = new SNSMessageLog(file, 32, 128);
+        assertEquals(0, log.getLastSequence());
+    }
+
+    @Test
+    public void readersNeverSeeABrokenMessage() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long cursor = 0;
+                    while (cursor < 5000) {
+                        for (SNSMessageLog.Entry entry : log.readAfter(cursor, 8)) {
+                            assertTrue(entry.sequence > cursor);
+                            assertEquals("message" + entry.sequence, entry.body);
+                            cursor = entry.sequence;
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 5000; i++) {
+            log.append("Title", "message" + i);
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertNull(error.get());
+    }
+}
@@ -0,0 +1,61 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSMetrics and SNSLatencyHistogram
+ */
+public class SNSMetricsTest {
+
+    @Test
+    public void bucketsAreWithinAnEighthOfTheValue() {
+        long[] values = {0, 1, 7, 8, 9, 100, 1000, 123456, 987654321L, Long.MAX_VALUE / 3};
+        for (long value : values) {
+            long upperBound = SNSLatencyHistogram.bucketUpperBound(SNSLatencyHistogram.bucketIndex(value));
+            assertTrue(value + " > " + upperBound, upperBound >= value);
+            assertTrue(value + " much smaller than " + upperBound, upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentilesComeFromTheRecordedLatencies() {
+        SNSLatencyHistogram histogram = new SNSLatencyHistogram();
+        // 990 fast calls of 1ms and 10 slow calls of 100ms
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1000000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100000000);
+        }
+
+        long[] counts = histogram.copyCounts();
+        long p50 = SNSLatencyHistogram.valueAtPercentile(counts, 1000, 0.5);
+        long p999 = SNSLatencyHistogram.valueAtPercentile(counts, 1000, 0.999);
+        assertTrue(p50 >= 1000000 && p50 < 1125000);
+        assertTrue(p999 >= 100000000 && p999 < 112500000);
+        assertEquals(100000000, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void snapshotCountsEachOutcome() {
+        SNSMetrics metrics = new SNSMetrics();
+        long start = metrics.onStart(SNSOperation.PUBLISH);
+        metrics.onThrottled(SNSOperation.PUBLISH);
+        metrics.onSuccess(SNSOperation.PUBLISH, start);
+        metrics.onError(SNSOperation.PUBLISH, metrics.onStart(SNSOperation.PUBLISH));
+        metrics.onStart(SNSOperation.SUBSCRIBE);
+
+        SNSMetrics.OperationSnapshot publish = metrics.snapshot().get(SNSOperation.PUBLISH);
+        assertEquals(1, publish.successCount);
+        assertEquals(1, publish.errorCount);
+        assertEquals(1, publish.throttleCount);
+        assertEquals(0, publish.inFlight);
+        assertEquals(1, metrics.snapshot().get(SNSOperation.SUBSCRIBE).inFlight);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().get(SNSOperation.PUBLISH).successCount);
+        assertEquals(1, metrics.snapshot().get(SNSOperation.SUBSCRIBE).inFlight);
+    }
+}
@@ -0,0 +1,141 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSNotificationCoalescer. The display records the calls it gets instead of
+ * posting notifications.
+ */
+public class SNSNotificationCoalescerTest {
+    private final RecordingDisplay display = new RecordingDisplay();
+    private SNSNotificationCoalescer coalescer;
+
+    private static class RecordingDisplay implements SNSNotificationCoalescer.Display {
+        final List<String> calls = new ArrayList<>();
+        final Set<Integer> ids = new HashSet<>();
+        final List<Integer> shownIds = new ArrayList<>();
+        List<String> summaryLines;
+        int summaryCount;
+
+        @Override
+        public synchronized void show(int id, String message) {
+            calls.add("show " + message);
+            assertTrue(ids.add(id));
+            shownIds.add(id);
+        }
+
+        @Override
+        public synchronized void showSummary(int id, List<String> latestMessages, int count) {
+            calls.add("summary " + count);
+            summaryLines = latestMessages;
+            summaryCount = count;
+        }
+
+        @Override
+        public synchronized void cancel(int id) {
+            calls.add("cancel");
+        }
+
+        synchronized int size() {
+            return calls.size();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.close();
+    }
+
+    private void waitFor(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && display.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        // Gives any extra calls the time to arrive
+        Thread.sleep(100);
+    }
+
+    @Test
+    public void fewMessagesAreShownSeparatelyWithTheirOwnIds() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 50, 0, 3);
+        coalescer.add("one");
+        coalescer.add("two");
+        waitFor(2);
+
+        assertEquals(Arrays.asList("show one", "show two"), display.calls);
+        assertFalse(display.ids.contains(SNSNotificationCoalescer.SUMMARY_ID));
+    }
+
+    @Test
+    public void burstIsShownAsOneSummary() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 50, 0, 3);
+        for (int i = 0; i < 500; i++) {
+            coalescer.add("message" + i);
+        }
+        waitFor(1);
+
+        assertEquals(Arrays.asList("summary 500"), display.calls);
+        assertEquals(Arrays.asList("message495", "message496", "message497", "message498", "message499"),
+                display.summaryLines);
+    }
+
+    @Test
+    public void separateNotificationsAreFoldedIntoTheSummary() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 20, 0, 3);
+        coalescer.add("one");
+        coalescer.add("two");
+        waitFor(2);
+        coalescer.add("three");
+        coalescer.add("four");
+        waitFor(5);
+
+        assertEquals(Arrays.asList("show one", "show two", "cancel", "cancel", "summary 4"), display.calls);
+        assertEquals(Arrays.asList("one", "two", "three", "four"), display.summaryLines);
+    }
+
+    @Test
+    public void updatesAreRateLimited() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 10, 300, 0);
+        long start = System.currentTimeMillis();
+        coalescer.add("one");
+        waitFor(1);
+        coalescer.add("two");
+        waitFor(2);
+
+        assertEquals(Arrays.asList("summary 1", "summary 2"), display.calls);
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void resetCancelsTheNotificationsAndStartsCountingAgain() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 20, 0, 1);
+        coalescer.add("one");
+        coalescer.add("two");
+        waitFor(1);
+        coalescer.reset();
+        coalescer.add("three");
+        waitFor(3);
+
+        assertEquals(Arrays.asList("summary 2", "cancel", "show three"), display.calls);
+    }
+
+    @Test
+    public void idsCarryOnFromTheGivenIdAndSkipTheSummaryWhenTheyWrap() throws Exception {
+        coalescer = new SNSNotificationCoalescer(display, 20, 0, 3, Integer.MAX_VALUE - 1);
+        coalescer.add("one");
+        coalescer.add("two");
+        coalescer.add("three");
+        waitFor(3);
+
+        assertEquals(Arrays.asList(Integer.MAX_VALUE - 1, Integer.MAX_VALUE, SNSNotificationCoalescer.SUMMARY_ID + 1),
+                display.shownIds);
+    }
+}
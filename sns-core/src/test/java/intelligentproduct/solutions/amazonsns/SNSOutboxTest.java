@@ -0,0 +1,165 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.model.NotFoundException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSOutbox. The helper records the calls instead of sending them to AWS.
+ */
+public class SNSOutboxTest {
+    private File directory;
+
+    private static class RecordingHelper extends AmazonSNSHelper {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingHelper() {
+            super("accessKey", "secretKey", "platformApplicationArn");
+        }
+
+        @Override
+        public String publishMessage(String topicArn, String message, String subject) {
+            if (topicArn.equals("deleted")) {
+                throw new NotFoundException("Topic does not exist");
+            }
+            calls.add("publish " + topicArn + " " + message + " " + subject);
+            return "messageId";
+        }
+
+        @Override
+        public void emailSubscribe(String topicARN, String emailAddress) {
+            calls.add("email " + topicARN + " " + emailAddress);
+        }
+    }
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("outbox", "");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static void waitUntilEmpty(SNSOutbox outbox) throws InterruptedException {
+        for (int i = 0; i < 500 && !outbox.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("The outbox was not drained", outbox.isEmpty());
+    }
+
+    @Test
+    public void callsAreSentInOrder() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSOutbox outbox = new SNSOutbox(directory, helper);
+        outbox.enqueuePublish("topic", "first", "subject");
+        outbox.enqueueSubscribe("topic", "email", "user@example.com");
+        outbox.enqueuePublish("topic", "second", null);
+        outbox.start();
+
+        waitUntilEmpty(outbox);
+        outbox.close();
+
+        assertEquals(3, helper.calls.size());
+        assertEquals("publish topic first subject", helper.calls.get(0));
+        assertEquals("email topic user@example.com", helper.calls.get(1));
+        assertEquals("publish topic second null", helper.calls.get(2));
+    }
+
+    @Test
+    public void callsThatWereNotSentAreKeptForTheNextOpen() throws Exception {
+        SNSOutbox outbox = new SNSOutbox(directory, new RecordingHelper());
+        outbox.enqueuePublish("topic", "kept", "subject");
+        outbox.close();
+
+        RecordingHelper helper = new RecordingHelper();
+        SNSOutbox reopened = new SNSOutbox(directory, helper);
+        assertFalse(reopened.isEmpty());
+        reopened.start();
+        waitUntilEmpty(reopened);
+        reopened.close();
+
+        assertEquals(Collections.singletonList("publish topic kept subject"), helper.calls);
+    }
+
+    @Test
+    public void sentSegmentsAreDeleted() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSOutbox outbox = new SNSOutbox(directory, helper, 256);
+        for (int i = 0; i < 50; i++) {
+            outbox.enqueuePublish("topic", "message " + i, "subject");
+        }
+        assertTrue(directory.list().length > 3);
+
+        outbox.start();
+        waitUntilEmpty(outbox);
+        outbox.close();
+
+        assertEquals(50, helper.calls.size());
+        assertEquals("publish topic message 49 subject", helper.calls.get(49));
+        // Only the checkpoint and the segment that is being written are left
+        assertEquals(2, directory.list().length);
+    }
+
+    @Test
+    public void rejectedCallsAreReportedAndSkipped() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSOutbox outbox = new SNSOutbox(directory, helper);
+        final List<String> rejected = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        outbox.setListener(new SNSOutbox.Listener() {
+            @Override
+            public void onRejected(SNSOperation operation, String[] arguments, RuntimeException e) {
+                rejected.add(operation + " " + arguments[0] + " " + arguments[1] + " " + arguments[2]);
+                error.set(e);
+            }
+        });
+        outbox.enqueuePublish("deleted", "lost", "subject");
+        outbox.enqueuePublish("topic", "sent", "subject");
+        outbox.start();
+
+        waitUntilEmpty(outbox);
+        outbox.close();
+
+        assertEquals(Collections.singletonList("PUBLISH deleted lost subject"), rejected);
+        assertTrue(error.get() instanceof NotFoundException);
+        assertEquals(Collections.singletonList("publish topic sent subject"), helper.calls);
+    }
+
+    @Test
+    public void filesThatAreNotSegmentsAreIgnored() throws Exception {
+        directory.mkdirs();
+        assertTrue(new File(directory, "notes.seg").createNewFile());
+
+        RecordingHelper helper = new RecordingHelper();
+        SNSOutbox outbox = new SNSOutbox(directory, helper, 256);
+        for (int i = 0; i < 10; i++) {
+            outbox.enqueuePublish("topic", "message " + i, "subject");
+            outbox.force();
+        }
+        outbox.start();
+        waitUntilEmpty(outbox);
+        outbox.close();
+
+        assertEquals(10, helper.calls.size());
+        assertTrue(new File(directory, "notes.seg").exists());
+    }
+}
@@ -0,0 +1,78 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSPagedIterable
+ */
+public class SNSPagedIterableTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Lists the numbers from 0 to size - 1 in pages of pageSize, using the first number of the
+     * page as its token
+     */
+    private SNSPagedIterable<Integer> numbers(final int size, final int pageSize, final AtomicInteger pagesRead) {
+        return new SNSPagedIterable<Integer>(executor, null) {
+            @Override
+            protected Page<Integer> fetchPage(String nextToken) {
+                pagesRead.incrementAndGet();
+                int start = nextToken == null ? 0 : Integer.parseInt(nextToken);
+                List<Integer> items = new ArrayList<>();
+                for (int i = start; i < Math.min(start + pageSize, size); i++) {
+                    items.add(i);
+                }
+                String next = start + pageSize < size ? String.valueOf(start + pageSize) : null;
+                return new Page<>(items, next);
+            }
+        };
+    }
+
+    @Test
+    public void followsTheNextTokenThroughEveryPage() {
+        AtomicInteger pagesRead = new AtomicInteger();
+        int expected = 0;
+        for (int number : numbers(1050, 100, pagesRead)) {
+            assertEquals(expected++, number);
+        }
+
+        assertEquals(1050, expected);
+        assertEquals(11, pagesRead.get());
+    }
+
+    @Test
+    public void pagesAreOnlyReadWhenNeeded() {
+        AtomicInteger pagesRead = new AtomicInteger();
+        Iterator<Integer> iterator = numbers(1000, 100, pagesRead).iterator();
+        assertEquals(0, pagesRead.get());
+
+        iterator.next();
+        // The first page and, at most, the prefetch of the second page
+        assertTrue(pagesRead.get() <= 2);
+    }
+
+    @Test
+    public void pageTokenTellsWhereToStartAgain() {
+        AtomicInteger pagesRead = new AtomicInteger();
+        SNSPagedIterable.PageIterator<Integer> iterator = numbers(300, 100, pagesRead).iterator();
+        for (int i = 0; i <= 150; i++) {
+            iterator.next();
+        }
+
+        assertEquals("100", iterator.getPageToken());
+    }
+
+    @Test
+    public void emptyListHasNoItems() {
+        assertFalse(numbers(0, 100, new AtomicInteger()).iterator().hasNext());
+    }
+}
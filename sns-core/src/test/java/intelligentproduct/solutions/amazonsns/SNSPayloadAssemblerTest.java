@@ -0,0 +1,96 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSPayloadAssembler
+ */
+public class SNSPayloadAssemblerTest {
+    private final SNSPayloadAssembler assembler = new SNSPayloadAssembler();
+
+    @Test
+    public void plainPayloadsPassStraightThrough() {
+        assertEquals("Test message", assembler.add("Test message"));
+        assertEquals(0, assembler.getPendingCount());
+    }
+
+    @Test
+    public void chunksInAnyOrderAreJoined() {
+        String message = SNSPayloadCodecTest.randomText(20000, 1);
+        List<String> chunks = new ArrayList<>(SNSPayloadCodec.encode(message, 1000));
+        Collections.shuffle(chunks, new Random(1));
+
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertNull(assembler.add(chunks.get(i)));
+            // A chunk that arrives twice is ignored
+            assertNull(assembler.add(chunks.get(i)));
+        }
+        assertEquals(1, assembler.getPendingCount());
+        assertEquals(message, assembler.add(chunks.get(chunks.size() - 1)));
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getBufferedChars());
+    }
+
+    @Test
+    public void setsAreDroppedAfterTheTimeout() throws Exception {
+        SNSPayloadAssembler shortTimeout = new SNSPayloadAssembler(50, 100000, 100000);
+        List<String> chunks = SNSPayloadCodec.encode(SNSPayloadCodecTest.randomText(5000, 1), 1000);
+        assertNull(shortTimeout.add(chunks.get(0)));
+        Thread.sleep(100);
+
+        // The next chunk finds the set expired and starts it again without the first chunk
+        for (int i = 1; i < chunks.size(); i++) {
+            assertNull(shortTimeout.add(chunks.get(i)));
+        }
+        assertEquals(1, shortTimeout.getPendingCount());
+    }
+
+    @Test
+    public void memoryIsBoundedByDroppingTheOldestSets() {
+        SNSPayloadAssembler small = new SNSPayloadAssembler(60000, 5000, 100000);
+        for (int set = 0; set < 100; set++) {
+            List<String> chunks = SNSPayloadCodec.encode(SNSPayloadCodecTest.randomText(5000, set), 1000);
+            // Every set is missing its last chunk
+            for (int i = 0; i < chunks.size() - 1; i++) {
+                small.add(chunks.get(i));
+            }
+            assertTrue(small.getBufferedChars() <= 5000);
+        }
+        assertTrue(small.getPendingCount() <= 2);
+    }
+
+    @Test
+    public void headersWithManyTinyChunksCountTheirSlots() {
+        // 262144 one-char chunks would need an array far larger than the chunk text
+        assertNull(assembler.add(SNSPayloadCodec.PREFIX + "id:0:262144:A"));
+        assertEquals(0, assembler.getPendingCount());
+
+        SNSPayloadAssembler small = new SNSPayloadAssembler(60000, 5000, 100000, 10);
+        for (int set = 0; set < 100; set++) {
+            assertNull(small.add(SNSPayloadCodec.PREFIX + "set" + set + ":0:1000:A"));
+            assertTrue(small.getBufferedChars() <= 5000);
+        }
+        assertEquals(1, small.getPendingCount());
+
+        for (int set = 0; set < 100; set++) {
+            assertNull(small.add(SNSPayloadCodec.PREFIX + "set" + set + ":0:10:A"));
+        }
+        assertEquals(10, small.getPendingCount());
+        assertEquals(10 * (10 * 4 + 1), small.getBufferedChars());
+    }
+
+    @Test
+    public void brokenHeadersAreDropped() {
+        assertNull(assembler.add(SNSPayloadCodec.PREFIX + "id:x:2:data"));
+        assertNull(assembler.add(SNSPayloadCodec.PREFIX + "id:5:2:data"));
+        assertNull(assembler.add(SNSPayloadCodec.PREFIX + "id:0:2000000000:data"));
+        assertEquals(0, assembler.getPendingCount());
+    }
+}
@@ -0,0 +1,138 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.PublishResult;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSPayloadCodec
+ */
+public class SNSPayloadCodecTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static String randomText(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // Random letters compress to about three quarters, so large messages need chunks
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static String decode(List<String> chunks) {
+        StringBuilder encoded = new StringBuilder();
+        for (String chunk : chunks) {
+            encoded.append(SNSPayloadCodec.parse(chunk).part);
+        }
+        return SNSPayloadCodec.decode(encoded.toString(), Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void messagesThatFitAreLeftAsTheyAre() {
+        List<String> payloads = SNSPayloadCodec.encode("Test message", 100);
+        assertEquals(1, payloads.size());
+        assertEquals("Test message", payloads.get(0));
+        assertFalse(SNSPayloadCodec.isEncoded(payloads.get(0)));
+    }
+
+    @Test
+    public void repetitiveMessagesAreCompressedIntoOneChunk() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            message.append("{\"key\": \"value\"},");
+        }
+        List<String> payloads = SNSPayloadCodec.encode(message.toString(), 3500);
+
+        assertEquals(1, payloads.size());
+        assertTrue(SNSPayloadCodec.isEncoded(payloads.get(0)));
+        assertEquals(message.toString(), decode(payloads));
+    }
+
+    @Test
+    public void largeMessagesAreSplitIntoChunksThatFit() {
+        String message = randomText(50000, 1);
+        List<String> payloads = SNSPayloadCodec.encode(message, 3500);
+
+        assertTrue(payloads.size() > 1);
+        for (int i = 0; i < payloads.size(); i++) {
+            assertTrue(payloads.get(i).getBytes(UTF_8).length <= 3500);
+            SNSPayloadCodec.Chunk chunk = SNSPayloadCodec.parse(payloads.get(i));
+            assertEquals(i, chunk.index);
+            assertEquals(payloads.size(), chunk.count);
+        }
+        assertEquals(message, decode(payloads));
+    }
+
+    @Test
+    public void messagesThatLookLikeChunksAreEncoded() {
+        List<String> payloads = SNSPayloadCodec.encode(SNSPayloadCodec.PREFIX + "text", 100);
+        assertNotEquals(SNSPayloadCodec.PREFIX + "text", payloads.get(0));
+        assertEquals(SNSPayloadCodec.PREFIX + "text", decode(payloads));
+    }
+
+    @Test
+    public void base64MatchesTheJdk() {
+        Random random = new Random(2);
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String expected = Base64.getEncoder().encodeToString(data);
+            assertEquals(expected, SNSPayloadCodec.toBase64(data));
+            assertArrayEquals(data, SNSPayloadCodec.fromBase64(expected));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void messagesLargerThanTheLimitAreRejected() {
+        // A megabyte of one letter compresses to about a kilobyte, like a zip bomb would
+        char[] message = new char[1024 * 1024];
+        Arrays.fill(message, 'a');
+        List<String> payloads = SNSPayloadCodec.encode(new String(message), 3500);
+        assertEquals(1, payloads.size());
+        SNSPayloadCodec.decode(SNSPayloadCodec.parse(payloads.get(0)).part, 5000);
+    }
+
+    @Test
+    public void chunksAreSentFromTheExecutorItselfWhenItIsFull() throws Exception {
+        final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+        AmazonSNSClient client = new AmazonSNSClient() {
+            @Override
+            public PublishResult publish(String topicArn, String message, String subject) {
+                published.add(message);
+                return new PublishResult().withMessageId("id" + published.size());
+            }
+        };
+        // One thread, which runs the caller below, and room for one chunk in the queue
+        ExecutorService executor = SNSExecutors.newBoundedExecutor(1, 1);
+        final AmazonSNSHelper helper = new AmazonSNSHelper(client, "platformApplicationArn", null,
+                executor, new SNSRateLimiter(), SNSRetryPolicy.NONE);
+        final String message = randomText(20000, 1);
+
+        List<String> messageIds = executor.submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return helper.publishEncodedMessage("arn:topic", message, "subject", 1000);
+            }
+        }).get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertTrue(messageIds.size() > 2);
+        assertEquals(messageIds.size(), published.size());
+        assertEquals(message, decode(published));
+    }
+}
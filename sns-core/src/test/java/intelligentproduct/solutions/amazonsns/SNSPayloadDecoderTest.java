@@ -0,0 +1,99 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSPayloadDecoder
+ */
+public class SNSPayloadDecoderTest {
+    private final SNSPayloadDecoder decoder = new SNSPayloadDecoder();
+
+    private static Map<String, String> data(String key, String value) {
+        Map<String, String> data = new HashMap<>();
+        data.put(key, value);
+        return data;
+    }
+
+    @Test
+    public void plainMessagesAreTheBody() {
+        assertEquals("Test message", decoder.decode(data("message", "Test message")).body);
+        assertEquals("Test message", decoder.decode(data("default", "Test message")).body);
+        assertNull(decoder.decode(data("default", "Test message")).title);
+    }
+
+    @Test
+    public void messageWinsOverDefault() {
+        Map<String, String> data = data("default", "default message");
+        data.put("message", "message");
+        assertEquals("message", decoder.decode(data).body);
+    }
+
+    @Test
+    public void platformPayloadInsideAnSnsEnvelopeIsDecoded() {
+        String gcm = "{\"notification\": {\"title\": \"Title\", \"body\": \"Body \\u00e9\"},"
+                + " \"data\": {\"message\": \"data message\", \"ignored\": [1, {\"a\": \"]\"}]}}";
+        String envelope = "{\"default\": \"default message\", \"GCM\": \"" + gcm.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+
+        SNSPayloadDecoder.Payload payload = decoder.decode(data("default", envelope));
+        assertEquals("Title", payload.title);
+        assertEquals("Body \u00e9", payload.body);
+        assertTrue(payload.data.isEmpty());
+    }
+
+    @Test
+    public void httpEnvelopeGivesTheMetadata() {
+        String envelope = "{\"Type\": \"Notification\", \"MessageId\": \"id\", \"TopicArn\": \"arn:topic\","
+                + " \"Subject\": \"Subject\", \"Message\": \"{\\\"title\\\": \\\"Title\\\", \\\"body\\\": \\\"Body\\\"}\","
+                + " \"Timestamp\": \"2017-09-15T12:00:00.000Z\", \"Signature\": \"abc\"}";
+
+        SNSPayloadDecoder.Payload payload = decoder.decode(envelope);
+        assertEquals("Title", payload.title);
+        assertEquals("Body", payload.body);
+        assertEquals("id", payload.messageId);
+        assertEquals("arn:topic", payload.topicArn);
+        assertEquals("2017-09-15T12:00:00.000Z", payload.timestamp);
+    }
+
+    @Test
+    public void onlyTheRequestedDataIsRead() {
+        SNSPayloadDecoder dataDecoder = new SNSPayloadDecoder(new HashSet<>(Arrays.asList("id", "count", "missing")));
+        SNSPayloadDecoder.Payload payload = dataDecoder.decode(
+                "{\"data\": {\"id\": \"a\\\"b\", \"count\": 42, \"other\": \"x\", \"list\": [1, 2]}, \"body\": \"Body\"}");
+
+        assertEquals("Body", payload.body);
+        assertEquals(2, payload.data.size());
+        assertEquals("a\"b", payload.data.get("id"));
+        assertEquals("42", payload.data.get("count"));
+    }
+
+    @Test
+    public void jsonWithoutATitleOrBodyIsUsedAsText() {
+        assertEquals("{\"orderId\": 7}", decoder.decode("{\"orderId\": 7}").body);
+        assertEquals("{\"orderId\": 7}", decoder.decode(data("message", "{\"orderId\": 7}")).body);
+        assertEquals("{}", decoder.decode("{}").body);
+
+        // A platform payload with only data does not hide the default message
+        String envelope = "{\"default\": \"default message\", \"GCM\": \"{\\\"data\\\": {\\\"orderId\\\": 7}}\"}";
+        assertEquals("default message", decoder.decode(envelope).body);
+
+        // A title on its own is still only the title
+        SNSPayloadDecoder.Payload payload = decoder.decode("{\"title\": \"Title\"}");
+        assertEquals("Title", payload.title);
+        assertNull(payload.body);
+    }
+
+    @Test
+    public void brokenJsonIsUsedAsText() {
+        assertEquals("{not json", decoder.decode("{not json").body);
+        assertEquals("{\"title\": \"Title\"", decoder.decode("{\"title\": \"Title\"").body);
+        assertNull(decoder.decode("{\"title\": \"Title\"").title);
+        assertEquals("{\"a\": 1} trailing", decoder.decode("{\"a\": 1} trailing").body);
+    }
+}
@@ -0,0 +1,161 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSPublishBatcher. The helper is replaced by one that records each
+ * PublishBatch request instead of sending it to AWS.
+ */
+public class SNSPublishBatcherTest {
+
+    /**
+     * Helper that answers each PublishBatch with a made up message ID for each message, fails the
+     * message "fail" and fails the whole request if it holds the message "failAll"
+     */
+    private static class RecordingHelper extends AmazonSNSHelper {
+        final List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        long pauseMillis;
+
+        RecordingHelper() {
+            super("accessKey", "secretKey", "platformApplicationArn", SNSExecutors.newBoundedExecutor(2, 100));
+        }
+
+        @Override
+        public SNSBatchClient.Result publishBatch(String topicArn, List<SNSBatchClient.Entry> entries) {
+            int now = running.incrementAndGet();
+            synchronized (mostRunning) {
+                mostRunning.set(Math.max(mostRunning.get(), now));
+            }
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+
+            List<String> messages = new ArrayList<>();
+            List<String> messageIds = new ArrayList<>();
+            List<AmazonServiceException> errors = new ArrayList<>();
+            for (SNSBatchClient.Entry entry : entries) {
+                if (entry.message.equals("failAll")) {
+                    throw new AmazonServiceException("Request failed");
+                }
+                messages.add(topicArn + "/" + entry.message);
+                messageIds.add(entry.message.equals("fail") ? null : "id-" + entry.message);
+                errors.add(entry.message.equals("fail") ? new AmazonServiceException("Publish failed") : null);
+            }
+            requests.add(messages);
+            return new SNSBatchClient.Result(messageIds, errors);
+        }
+    }
+
+    @Test
+    public void fullBatchIsSentWithoutWaitingForTheLingerTime() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSPublishBatcher batcher = new SNSPublishBatcher(helper, TimeUnit.HOURS.toMillis(1));
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < SNSPublishBatcher.MAX_BATCH_SIZE; i++) {
+            results.add(batcher.publish("topic", "message" + i, "subject"));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("id-message" + i, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, helper.requests.size());
+        assertEquals(SNSPublishBatcher.MAX_BATCH_SIZE, helper.requests.get(0).size());
+        batcher.close();
+    }
+
+    @Test
+    public void partialBatchIsSentAfterTheLingerTime() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSPublishBatcher batcher = new SNSPublishBatcher(helper, 20);
+
+        Future<String> first = batcher.publish("topicA", "first", "subject");
+        Future<String> second = batcher.publish("topicB", "second", "subject");
+
+        assertEquals("id-first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("id-second", second.get(5, TimeUnit.SECONDS));
+        assertTrue(helper.requests.contains(Collections.singletonList("topicA/first")));
+        assertTrue(helper.requests.contains(Collections.singletonList("topicB/second")));
+        batcher.close();
+    }
+
+    @Test
+    public void failedMessageOnlyFailsItsOwnFuture() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSPublishBatcher batcher = new SNSPublishBatcher(helper, TimeUnit.HOURS.toMillis(1));
+
+        Future<String> before = batcher.publish("topic", "before", "subject");
+        Future<String> failed = batcher.publish("topic", "fail", "subject");
+        Future<String> after = batcher.publish("topic", "after", "subject");
+        batcher.close();
+
+        assertEquals("id-before", before.get(5, TimeUnit.SECONDS));
+        assertEquals("id-after", after.get(5, TimeUnit.SECONDS));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("The failed message should not have a message ID");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+        }
+        assertEquals(1, helper.requests.size());
+    }
+
+    @Test
+    public void aFailedRequestFailsEveryMessageOfItsGroup() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        SNSPublishBatcher batcher = new SNSPublishBatcher(helper, TimeUnit.HOURS.toMillis(1));
+
+        Future<String> first = batcher.publish("topic", "first", "subject");
+        Future<String> failAll = batcher.publish("topic", "failAll", "subject");
+        batcher.close();
+
+        for (Future<String> result : Arrays.asList(first, failAll)) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("No message of the group should have a message ID");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AmazonServiceException);
+            }
+        }
+    }
+
+    @Test
+    public void theGroupsOfDifferentTopicsAreSentAtTheSameTime() throws Exception {
+        RecordingHelper helper = new RecordingHelper();
+        helper.pauseMillis = 100;
+        SNSPublishBatcher batcher = new SNSPublishBatcher(helper, TimeUnit.HOURS.toMillis(1));
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(batcher.publish("topic" + i, "message", "subject"));
+        }
+        batcher.flush();
+        for (Future<String> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+
+        // The helper's executor has two threads
+        assertEquals(4, helper.requests.size());
+        assertEquals(2, helper.mostRunning.get());
+        batcher.close();
+    }
+}
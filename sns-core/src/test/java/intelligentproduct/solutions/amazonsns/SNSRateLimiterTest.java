@@ -0,0 +1,75 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.ThrottledException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSRateLimiter and SNSRetryPolicy
+ */
+public class SNSRateLimiterTest {
+
+    @Test
+    public void throttlingHalvesTheRateAndSuccessRaisesItAgain() {
+        SNSRateLimiter limiter = new SNSRateLimiter();
+        limiter.setRate(SNSOperation.SUBSCRIBE, 100);
+
+        limiter.onThrottled(SNSOperation.SUBSCRIBE);
+        assertEquals(50, limiter.getCurrentRate(SNSOperation.SUBSCRIBE), 0.001);
+        // Other calls keep their own rate
+        assertEquals(SNSOperation.PUBLISH.getDefaultRate(), limiter.getCurrentRate(SNSOperation.PUBLISH), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(SNSOperation.SUBSCRIBE);
+        }
+        assertEquals(100, limiter.getCurrentRate(SNSOperation.SUBSCRIBE), 0.001);
+    }
+
+    @Test
+    public void callsAreSpacedOutOnceTheBurstIsUsed() throws Exception {
+        SNSRateLimiter limiter = new SNSRateLimiter();
+        limiter.setRate(SNSOperation.CREATE_TOPIC, 20);
+
+        long start = System.nanoTime();
+        // The first 20 calls use the burst and the next 10 wait for new tokens
+        for (int i = 0; i < 30; i++) {
+            limiter.acquire(SNSOperation.CREATE_TOPIC);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis >= 400);
+    }
+
+    @Test
+    public void onlyErrorsThatMayGoAwayAreRetried() {
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("Throttling");
+        throttled.setStatusCode(400);
+        AmazonServiceException serverError = new AmazonServiceException("Internal error");
+        serverError.setStatusCode(500);
+        NotFoundException notFound = new NotFoundException("Topic does not exist");
+        notFound.setStatusCode(404);
+        notFound.setErrorType(AmazonServiceException.ErrorType.Client);
+
+        assertTrue(SNSRetryPolicy.isThrottle(throttled));
+        assertTrue(SNSRetryPolicy.isThrottle(new ThrottledException("Throttled")));
+        assertTrue(SNSRetryPolicy.isRetryable(serverError));
+        assertTrue(SNSRetryPolicy.isRetryable(new AmazonClientException("Unable to connect")));
+        assertFalse(SNSRetryPolicy.isRetryable(notFound));
+        assertFalse(SNSRetryPolicy.DEFAULT.shouldRetry(throttled, SNSRetryPolicy.DEFAULT.getMaxRetries()));
+    }
+
+    @Test
+    public void retryDelaysStayBetweenTheBaseAndMaximum() {
+        SNSRetryPolicy policy = new SNSRetryPolicy(10, 100, 2000);
+        long delay = 0;
+        for (int i = 0; i < 50; i++) {
+            delay = policy.nextDelayMillis(delay);
+            assertTrue(delay >= 100 && delay <= 2000);
+        }
+    }
+}
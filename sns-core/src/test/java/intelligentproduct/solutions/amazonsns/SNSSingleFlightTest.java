@@ -0,0 +1,175 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.CreateTopicResult;
+import com.amazonaws.services.sns.model.SubscribeRequest;
+import com.amazonaws.services.sns.model.SubscribeResult;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSSingleFlight and the calls of AmazonSNSHelper that use it
+ */
+public class SNSSingleFlightTest {
+
+    /**
+     * Counts the calls it gets and answers after a short wait, so concurrent calls overlap
+     */
+    private static class CountingClient extends AmazonSNSClient {
+        final AtomicInteger createTopicCalls = new AtomicInteger();
+        final AtomicInteger subscribeCalls = new AtomicInteger();
+
+        @Override
+        public CreateTopicResult createTopic(String name) {
+            createTopicCalls.incrementAndGet();
+            pause();
+            return new CreateTopicResult().withTopicArn("arn:" + name);
+        }
+
+        @Override
+        public SubscribeResult subscribe(SubscribeRequest request) {
+            subscribeCalls.incrementAndGet();
+            pause();
+            return new SubscribeResult().withSubscriptionArn(request.getTopicArn() + ":" + request.getEndpoint());
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the call on several threads at once
+     */
+    private static <T> List<T> runTogether(int threads, final Callable<T> call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    start.await();
+                    return call.call();
+                }
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    @Test
+    public void identicalCallsShareOneResult() throws Exception {
+        final SNSSingleFlight singleFlight = new SNSSingleFlight();
+        final AtomicInteger calls = new AtomicInteger();
+        List<Integer> results = runTogether(8, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return singleFlight.run("key", new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Thread.sleep(100);
+                        return calls.incrementAndGet();
+                    }
+                });
+            }
+        });
+
+        assertEquals(1, calls.get());
+        for (int result : results) {
+            assertEquals(1, result);
+        }
+        assertEquals(7, singleFlight.getSharedCount());
+        assertEquals(0, singleFlight.getRunningCount());
+    }
+
+    @Test
+    public void everyWaiterGetsTheErrorAndTheNextCallTriesAgain() throws Exception {
+        final SNSSingleFlight singleFlight = new SNSSingleFlight();
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> failing = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                Thread.sleep(100);
+                throw new IllegalStateException("Failed");
+            }
+        };
+        List<String> errors = runTogether(4, new Callable<String>() {
+            @Override
+            public String call() {
+                try {
+                    singleFlight.run("key", failing);
+                    return null;
+                } catch (IllegalStateException e) {
+                    return e.getMessage();
+                }
+            }
+        });
+
+        assertEquals(1, calls.get());
+        for (String error : errors) {
+            assertEquals("Failed", error);
+        }
+        assertEquals("again", singleFlight.run("key", new Callable<String>() {
+            @Override
+            public String call() {
+                return "again";
+            }
+        }));
+    }
+
+    @Test
+    public void theHelperMergesOnlyIdenticalCalls() throws Exception {
+        CountingClient client = new CountingClient();
+        final AmazonSNSHelper helper = new AmazonSNSHelper(client, "platformApplicationArn", null,
+                Executors.newSingleThreadExecutor(), new SNSRateLimiter(), SNSRetryPolicy.NONE);
+
+        final AtomicInteger next = new AtomicInteger();
+        List<String> topics = runTogether(6, new Callable<String>() {
+            @Override
+            public String call() {
+                // Three threads ask for one topic and three for another
+                return helper.createTopic("topic" + (next.getAndIncrement() % 2));
+            }
+        });
+        assertEquals(2, client.createTopicCalls.get());
+        assertEquals(3, Collections.frequency(topics, "arn:topic0"));
+        assertEquals(3, Collections.frequency(topics, "arn:topic1"));
+
+        List<String> subscriptions = runTogether(4, new Callable<String>() {
+            @Override
+            public String call() {
+                return helper.pushNotificationSubscribe("arn:topic0", "endpoint");
+            }
+        });
+        assertEquals(1, client.subscribeCalls.get());
+        assertEquals("arn:topic0:endpoint", subscriptions.get(3));
+
+        // Once the call is done the next one goes to SNS again, unless its ARN is cached
+        helper.getTopicCache().clear();
+        helper.createTopic("topic0");
+        assertEquals(3, client.createTopicCalls.get());
+    }
+}
@@ -0,0 +1,91 @@
+package intelligentproduct.solutions.amazonsns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSStateStore
+ */
+public class SNSStateStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("state", "");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void committedValuesAreReadBackAfterReopening() throws Exception {
+        SNSStateStore store = new SNSStateStore(file);
+        store.edit()
+                .put("newTopic", "topicArn")
+                .put("subscriptionARN", "subscriptionArn")
+                .put("platformEndpoint", "endpointArn")
+                .commit();
+        assertEquals("topicArn", store.get("newTopic"));
+
+        SNSStateStore reopened = new SNSStateStore(file);
+        assertEquals("topicArn", reopened.get("newTopic"));
+        assertEquals("subscriptionArn", reopened.get("subscriptionARN"));
+        assertEquals("endpointArn", reopened.get("platformEndpoint"));
+    }
+
+    @Test
+    public void nullAndRemoveDeleteValues() throws Exception {
+        SNSStateStore store = new SNSStateStore(file);
+        store.edit().put("newTopic", "topicArn").put("platformEndpoint", "endpointArn").commit();
+        store.edit().put("newTopic", null).remove("platformEndpoint").commit();
+
+        assertNull(store.get("newTopic"));
+        assertTrue(new SNSStateStore(file).getAll().isEmpty());
+    }
+
+    @Test
+    public void editsAreOnlyVisibleOnceCommitted() throws Exception {
+        SNSStateStore store = new SNSStateStore(file);
+        SNSStateStore.Editor editor = store.edit().put("newTopic", "topicArn");
+        assertNull(store.get("newTopic"));
+        editor.commit();
+        assertEquals("topicArn", store.get("newTopic"));
+    }
+
+    @Test
+    public void appliedEditsAreVisibleAtOnceAndSavedByFlush() throws Exception {
+        SNSStateStore store = new SNSStateStore(file);
+        for (int i = 0; i < 1000; i++) {
+            store.edit().put("newTopic", "topic" + i).put("subscriptionARN", "subscription" + i).apply();
+            assertEquals("topic" + i, store.get("newTopic"));
+        }
+        store.flush();
+
+        SNSStateStore reopened = new SNSStateStore(file);
+        assertEquals("topic999", reopened.get("newTopic"));
+        assertEquals("subscription999", reopened.get("subscriptionARN"));
+    }
+
+    @Test
+    public void damagedFileStartsEmpty() throws Exception {
+        new SNSStateStore(file).edit().put("newTopic", "topicArn").commit();
+        RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+        damaged.setLength(damaged.length() - 3);
+        damaged.close();
+
+        SNSStateStore store = new SNSStateStore(file);
+        assertTrue(store.getAll().isEmpty());
+        store.edit().put("newTopic", "otherTopicArn").commit();
+        assertEquals("otherTopicArn", new SNSStateStore(file).get("newTopic"));
+    }
+}
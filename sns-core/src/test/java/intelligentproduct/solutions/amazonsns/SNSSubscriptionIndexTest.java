@@ -0,0 +1,156 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.ListSubscriptionsByTopicResult;
+import com.amazonaws.services.sns.model.Subscription;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSSubscriptionIndex. The client returns the subscriptions of a topic in
+ * pages of 100, the same as SNS.
+ */
+public class SNSSubscriptionIndexTest {
+    private static final String TOPIC = "arn:aws:sns:us-east-1:123456789098:topic";
+
+    private static class PagedClient extends AmazonSNSClient {
+        final List<Subscription> subscriptions = new ArrayList<>();
+        final AtomicInteger pagesRead = new AtomicInteger();
+        // Run while the first page is read, as if another thread changed the index at that time
+        Runnable whileReading;
+
+        @Override
+        public ListSubscriptionsByTopicResult listSubscriptionsByTopic(String topicArn, String nextToken) {
+            pagesRead.incrementAndGet();
+            if (whileReading != null && nextToken == null) {
+                whileReading.run();
+            }
+            int start = nextToken == null ? 0 : Integer.parseInt(nextToken);
+            int end = Math.min(start + 100, subscriptions.size());
+            ListSubscriptionsByTopicResult result = new ListSubscriptionsByTopicResult();
+            result.setSubscriptions(new ArrayList<>(subscriptions.subList(start, end)));
+            result.setNextToken(end < subscriptions.size() ? String.valueOf(end) : null);
+            return result;
+        }
+    }
+
+    private static AmazonSNSHelper newHelper(PagedClient client) {
+        return new AmazonSNSHelper(client, "platformApplicationArn", null,
+                SNSExecutors.defaultExecutor(), new SNSRateLimiter(), SNSRetryPolicy.NONE);
+    }
+
+    private static SNSSubscriptionIndex newIndex(PagedClient client) {
+        return newHelper(client).getSubscriptionIndex();
+    }
+
+    private static Subscription emailSubscription(int number) {
+        return new Subscription()
+                .withTopicArn(TOPIC)
+                .withProtocol("email")
+                .withEndpoint("user" + number + "@example.com")
+                .withSubscriptionArn(TOPIC + ":" + number);
+    }
+
+    @Test
+    public void refreshReadsEveryPage() {
+        PagedClient client = new PagedClient();
+        for (int i = 0; i < 250; i++) {
+            client.subscriptions.add(emailSubscription(i));
+        }
+
+        SNSSubscriptionIndex index = newIndex(client);
+        index.refresh(TOPIC);
+
+        assertEquals(3, client.pagesRead.get());
+        assertEquals(TOPIC + ":0", index.find(TOPIC, "email", "user0@example.com"));
+        assertEquals(TOPIC + ":249", index.find(TOPIC, "email", "user249@example.com"));
+        assertNull(index.find(TOPIC, "application", "user249@example.com"));
+    }
+
+    @Test
+    public void putAndRemoveKeepTheIndexUpToDate() {
+        SNSSubscriptionIndex index = newIndex(new PagedClient());
+
+        index.put(TOPIC, "application", "endpointArn", TOPIC + ":1");
+        index.put(TOPIC, "email", "pending@example.com", "pending confirmation");
+        assertEquals(TOPIC + ":1", index.find(TOPIC, "application", "endpointArn"));
+        assertNull(index.find(TOPIC, "email", "pending@example.com"));
+
+        index.removeSubscription(TOPIC + ":1");
+        assertNull(index.find(TOPIC, "application", "endpointArn"));
+    }
+
+    @Test
+    public void refreshKeepsSubscriptionsThatWereAddedWhileItRead() {
+        PagedClient client = new PagedClient();
+        client.subscriptions.add(emailSubscription(0));
+        final SNSSubscriptionIndex index = newIndex(client);
+        index.put(TOPIC, "email", "gone@example.com", TOPIC + ":gone");
+        client.whileReading = new Runnable() {
+            @Override
+            public void run() {
+                index.put(TOPIC, "application", "endpointArn", TOPIC + ":new");
+            }
+        };
+
+        index.refresh(TOPIC);
+
+        assertEquals(TOPIC + ":new", index.find(TOPIC, "application", "endpointArn"));
+        assertEquals(TOPIC + ":0", index.find(TOPIC, "email", "user0@example.com"));
+        // SNS no longer lists it, and it was in the index before the refresh began
+        assertNull(index.find(TOPIC, "email", "gone@example.com"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void theTopicsThatChangedLongestAgoAreDroppedWhenTheIndexIsFull() {
+        SNSSubscriptionIndex index = new SNSSubscriptionIndex(newHelper(new PagedClient()), 3,
+                SNSSubscriptionIndex.DEFAULT_MISS_TTL_MILLIS);
+
+        index.put("topicA", "application", "endpoint1", "arn:a1");
+        index.put("topicA", "application", "endpoint2", "arn:a2");
+        index.put("topicB", "application", "endpoint1", "arn:b1");
+        index.put("topicB", "application", "endpoint2", "arn:b2");
+
+        assertFalse(index.containsTopic("topicA"));
+        assertEquals("arn:b2", index.find("topicB", "application", "endpoint2"));
+        assertEquals(2, index.size());
+
+        // A topic is dropped by its ARN too, so removing one of its subscriptions changes nothing
+        index.removeSubscription("arn:a1");
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void aMissIsRememberedUntilItsTimeIsUp() {
+        PagedClient client = new PagedClient();
+        client.subscriptions.add(emailSubscription(0));
+        AmazonSNSHelper helper = newHelper(client);
+
+        // Waiting for confirmation, so SNS lists it without an ARN
+        helper.emailUnsubscribe(TOPIC, "pending@example.com");
+        helper.emailUnsubscribe(TOPIC, "pending@example.com");
+        assertEquals(1, client.pagesRead.get());
+        assertTrue(helper.getSubscriptionIndex().isKnownMissing(TOPIC, "email", "pending@example.com"));
+
+        SNSSubscriptionIndex noMisses = new SNSSubscriptionIndex(helper, 10, 0);
+        noMisses.putMissing(TOPIC, "email", "pending@example.com");
+        assertFalse(noMisses.isKnownMissing(TOPIC, "email", "pending@example.com"));
+    }
+
+    @Test
+    public void aSubscriptionThatIsAddedIsNoLongerMissing() {
+        SNSSubscriptionIndex index = newIndex(new PagedClient());
+
+        index.putMissing(TOPIC, "application", "endpointArn");
+        index.put(TOPIC, "application", "endpointArn", TOPIC + ":1");
+
+        assertFalse(index.isKnownMissing(TOPIC, "application", "endpointArn"));
+    }
+}
@@ -0,0 +1,119 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonClientException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSTokenUpdater. The helper records the endpoint updates instead of sending
+ * them to AWS.
+ */
+public class SNSTokenUpdaterTest {
+    private File file;
+    private RecordingHelper helper;
+    private SNSEndpointRegistry registry;
+
+    private static class RecordingHelper extends AmazonSNSHelper {
+        final List<String> updates = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger failures = new AtomicInteger();
+
+        RecordingHelper() {
+            super("accessKey", "secretKey", "platformApplicationArn");
+        }
+
+        @Override
+        public String createPlatformEndpoint(String token) {
+            return "endpoint";
+        }
+
+        @Override
+        public void setEndpointAttributes(String endpointARN, Map<String, String> attributes) {
+            if (failures.getAndDecrement() > 0) {
+                throw new AmazonClientException("Unable to execute HTTP request");
+            }
+            updates.add(attributes.get("Token"));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("endpoints", "");
+        file.delete();
+        helper = new RecordingHelper();
+        registry = new SNSEndpointRegistry(helper, file);
+        registry.getEndpoint("token");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static void waitFor(List<String> updates, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && updates.size() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void burstOfRefreshesSendsOnlyTheLastToken() throws Exception {
+        SNSTokenUpdater updater = new SNSTokenUpdater(registry, 100, null);
+        for (int i = 1; i <= 5; i++) {
+            updater.onTokenRefresh("token" + i);
+        }
+
+        waitFor(helper.updates, 1);
+        Thread.sleep(200);
+        assertEquals(Collections.singletonList("token5"), helper.updates);
+        updater.close();
+    }
+
+    @Test
+    public void failedUpdateIsTriedAgain() throws Exception {
+        helper.failures.set(1);
+        final List<String> endpoints = Collections.synchronizedList(new ArrayList<String>());
+        SNSTokenUpdater updater = new SNSTokenUpdater(registry, 0, new SNSCallback<String>() {
+            @Override
+            public void onSuccess(String endpointArn) {
+                endpoints.add(endpointArn);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                fail("A network error should be tried again");
+            }
+        });
+
+        updater.onTokenRefresh("newToken");
+        Thread.sleep(100);
+        assertTrue(helper.updates.isEmpty());
+
+        // Skips the wait before the retry
+        updater.flush();
+        waitFor(endpoints, 1);
+        assertEquals(Collections.singletonList("newToken"), helper.updates);
+        assertEquals(Collections.singletonList("endpoint"), endpoints);
+        updater.close();
+    }
+
+    @Test
+    public void tokenThatIsAlreadyRegisteredIsNotSent() throws Exception {
+        SNSTokenUpdater updater = new SNSTokenUpdater(registry, 0, null);
+        updater.onTokenRefresh("token");
+
+        Thread.sleep(100);
+        assertTrue(helper.updates.isEmpty());
+        updater.close();
+    }
+}
@@ -0,0 +1,158 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.CreateTopicResult;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.PublishResult;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSTopicCache and the calls of AmazonSNSHelper that use it
+ */
+public class SNSTopicCacheTest {
+
+    /**
+     * Counts the CreateTopic calls it gets and fails publishes to topics that were deleted
+     */
+    private static class CountingClient extends AmazonSNSClient {
+        final Set<String> deletedTopics = new HashSet<>();
+        int createTopicCalls;
+
+        @Override
+        public CreateTopicResult createTopic(String name) {
+            createTopicCalls++;
+            deletedTopics.remove("arn:" + name);
+            return new CreateTopicResult().withTopicArn("arn:" + name);
+        }
+
+        @Override
+        public void deleteTopic(String topicArn) {
+            deletedTopics.add(topicArn);
+        }
+
+        @Override
+        public PublishResult publish(String topicArn, String message, String subject) {
+            if (deletedTopics.contains(topicArn)) {
+                throw new NotFoundException("Topic does not exist");
+            }
+            return new PublishResult().withMessageId("messageId");
+        }
+    }
+
+    @Test
+    public void theLeastRecentlyUsedTopicIsDropped() {
+        SNSTopicCache cache = new SNSTopicCache(2, 60000);
+        cache.put("first", "arn:first");
+        cache.put("second", "arn:second");
+        assertEquals("arn:first", cache.get("first"));
+
+        cache.put("third", "arn:third");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("second"));
+        assertEquals("arn:first", cache.get("first"));
+        assertEquals("arn:third", cache.get("third"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.removeArn("arn:first");
+        assertNull(cache.get("first"));
+    }
+
+    @Test
+    public void topicsExpireAfterTheTtl() throws Exception {
+        SNSTopicCache cache = new SNSTopicCache(10, 50);
+        cache.put("topic", "arn:topic");
+        assertEquals("arn:topic", cache.get("topic"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("topic"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void theHelperOnlyAsksSnsWhenTheTopicIsNotCached() {
+        CountingClient client = new CountingClient();
+        AmazonSNSHelper helper = new AmazonSNSHelper(client, "platformApplicationArn", null,
+                Executors.newSingleThreadExecutor(), new SNSRateLimiter(), SNSRetryPolicy.NONE);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("arn:topic", helper.createTopic("topic"));
+        }
+        assertEquals(1, client.createTopicCalls);
+
+        helper.deleteTopic("arn:topic");
+        assertEquals("arn:topic", helper.createTopic("topic"));
+        assertEquals(2, client.createTopicCalls);
+
+        // A topic deleted by someone else is dropped when publishing to it fails
+        client.deleteTopic("arn:topic");
+        try {
+            helper.publishMessage("arn:topic", "message", "subject");
+            fail("Publishing to a deleted topic did not fail");
+        } catch (NotFoundException expected) {
+        }
+        helper.createTopic("topic");
+        assertEquals(3, client.createTopicCalls);
+        assertEquals("messageId", helper.publishMessage("arn:topic", "message", "subject"));
+    }
+
+    @Test
+    public void anArnLookedUpBeforeARemovalIsNotCached() {
+        SNSTopicCache cache = new SNSTopicCache();
+        long generation = cache.getGeneration();
+        cache.removeArn("arn:other");
+        assertFalse(cache.put("topic", "arn:topic", generation));
+        assertNull(cache.get("topic"));
+
+        assertTrue(cache.put("topic", "arn:topic", cache.getGeneration()));
+        assertEquals("arn:topic", cache.get("topic"));
+    }
+
+    @Test
+    public void aCreateTopicRunningWhileTheTopicIsDeletedDoesNotCacheIt() throws Exception {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch deleted = new CountDownLatch(1);
+        CountingClient client = new CountingClient() {
+            @Override
+            public CreateTopicResult createTopic(String name) {
+                CreateTopicResult result = super.createTopic(name);
+                creating.countDown();
+                try {
+                    deleted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return result;
+            }
+        };
+        final AmazonSNSHelper helper = new AmazonSNSHelper(client, "platformApplicationArn", null,
+                Executors.newSingleThreadExecutor(), new SNSRateLimiter(), SNSRetryPolicy.NONE);
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        Future<String> created = caller.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return helper.createTopic("topic");
+            }
+        });
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+        helper.deleteTopic("arn:topic");
+        deleted.countDown();
+        assertEquals("arn:topic", created.get(5, TimeUnit.SECONDS));
+        caller.shutdown();
+
+        assertNull(helper.getTopicCache().get("topic"));
+    }
+}
@@ -0,0 +1,878 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server that answers the part of the SNS Query API that AmazonSNSHelper uses:
+ * CreateTopic, DeleteTopic, Subscribe, Unsubscribe, Publish, PublishBatch, CreatePlatformEndpoint,
+ * DeleteEndpoint, GetEndpointAttributes, SetEndpointAttributes, ListTopics, ListSubscriptions, ListSubscriptionsByTopic and
+ * ListEndpointsByPlatformApplication. The list calls are paged with NextToken the same way as SNS.
+ *
+ * Point a helper at it with SNSClientSettings.Builder.setEndpoint(server.getEndpoint()).
+ * Latency, throttling and failures can be added to the calls, so functional and load tests can
+ * run without a network or an AWS account. Everything is kept in memory and email
+ * subscriptions are confirmed straight away.
+ */
+public class SNSStandInServer implements Closeable {
+    public static final String ACCOUNT_ID = "123456789012";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String XML_NAMESPACE = "http://sns.amazonaws.com/doc/2010-03-31/";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final String region;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Sorted maps so that a NextToken, which is the last key of a page, still finds the right
+    // place when items are added or removed between pages
+    private final NavigableMap<String, String> topics = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, Subscription> subscriptions = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+    // Topic, protocol and endpoint to their subscription, and platform application and token to
+    // their endpoint, so calls that run at the same time find the one the other call made
+    private final ConcurrentMap<String, Subscription> subscriptionsByEndpoint = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Endpoint> endpointsByToken = new ConcurrentHashMap<>();
+    private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    // The client addresses that calls came from, one for each connection
+    private final Set<InetSocketAddress> connections = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+    private volatile String lastConnectionHeader;
+
+    private final Map<String, Throttle> throttles = new ConcurrentHashMap<>();
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    private volatile long latencyMillis;
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
+    private volatile boolean recordMessages = true;
+    private double failureRate;
+    private Random failureRandom;
+
+    /**
+     * Creates a stand-in on a free port of the loopback address
+     */
+    public SNSStandInServer() throws IOException {
+        this(0, "us-east-1");
+    }
+
+    /**
+     * @param port the port to listen on, or 0 for a free port
+     * @param region the region that is used in the ARNs the server makes
+     */
+    public SNSStandInServer(int port, String region) throws IOException {
+        this.region = region;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // A pool rather than one thread, so the injected latency of one call does not hold up the others
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sns-standin-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Turns off Nagle's algorithm for the JDK's HTTP servers in this process. The JDK server sends
+     * the headers and the body of an answer separately, and without this the body is held back
+     * until the client's delayed ACK, about 40ms later, which hides the latency being measured.
+     * The JDK reads the sun.net.httpserver.nodelay property once, so this must be called before
+     * the first server of the process is created. A value that is already set is left alone
+     */
+    public static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public SNSStandInServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops the server and drops all of its topics, subscriptions and endpoints
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the URL to pass to SNSClientSettings.Builder.setEndpoint
+     */
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * @param latencyMillis how long every call waits before it is answered
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param pageSize how many items each page of a list call holds. SNS uses 100
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param recordMessages false to stop keeping published messages for getPublishedMessages,
+     *                       so long load tests do not fill the heap
+     */
+    public void setRecordMessages(boolean recordMessages) {
+        this.recordMessages = recordMessages;
+    }
+
+    /**
+     * Throttles an action once it is called more often than a rate, the same way SNS does when a
+     * quota is used up
+     * @param action the Query API action, such as "Publish"
+     * @param callsPerSecond the rate above which calls are throttled, or 0 to stop throttling
+     */
+    public void setThrottle(String action, double callsPerSecond) {
+        if (callsPerSecond <= 0) {
+            throttles.remove(action);
+        } else {
+            throttles.put(action, new Throttle(callsPerSecond));
+        }
+    }
+
+    /**
+     * Makes the next calls of an action fail
+     * @param action the Query API action, such as "Subscribe"
+     * @param count how many of the next calls fail
+     * @param statusCode the HTTP status of the failures, such as 500
+     * @param errorCode the SNS error code of the failures, such as "InternalError"
+     */
+    public void failNext(String action, int count, int statusCode, String errorCode) {
+        failures.put(action, new Failure(count, statusCode, errorCode));
+    }
+
+    /**
+     * Makes a share of all calls fail with an InternalError. The failures come from a seeded
+     * random number generator so the same seed fails the same calls in every run
+     * @param rate the share of calls that fail, from 0 to 1
+     * @param seed the seed of the random number generator
+     */
+    public synchronized void setFailureRate(double rate, long seed) {
+        failureRate = rate;
+        failureRandom = new Random(seed);
+    }
+
+    /**
+     * Disables an endpoint, the same as SNS does when the push service reports that its token is
+     * no longer valid. Publishing to it then fails with EndpointDisabled
+     * @return true if the endpoint exists
+     */
+    public boolean disableEndpoint(String endpointArn) {
+        Endpoint endpoint = endpoints.get(endpointArn);
+        if (endpoint == null) {
+            return false;
+        }
+        endpoint.enabled = false;
+        return true;
+    }
+
+    /**
+     * @return the number of calls of an action the server has received, including the ones that failed
+     */
+    public long getRequestCount(String action) {
+        AtomicLong count = requestCounts.get(action);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of connections that calls have come in on, so tests can tell whether
+     *         the client keeps its connections open
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the Connection header of the last call, or null if it had none
+     */
+    public String getLastConnectionHeader() {
+        return lastConnectionHeader;
+    }
+
+    /**
+     * @return every message that has been published, in the order it was received
+     */
+    public List<Message> getPublishedMessages() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    /**
+     * A message that was published to the server
+     */
+    public static final class Message {
+        public final String messageId;
+        public final String topicArn;
+        public final String targetArn;
+        public final String subject;
+        public final String message;
+
+        Message(String messageId, String topicArn, String targetArn, String subject, String message) {
+            this.messageId = messageId;
+            this.topicArn = topicArn;
+            this.targetArn = targetArn;
+            this.subject = subject;
+            this.message = message;
+        }
+    }
+
+    /******************
+     * Requests
+     ******************/
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        lastConnectionHeader = exchange.getRequestHeaders().getFirst("Connection");
+        Map<String, String> parameters = readParameters(exchange);
+        String action = parameters.get("Action");
+        if (action == null) {
+            sendError(exchange, 400, "Sender", "MissingAction", "The request must contain the parameter Action");
+            return;
+        }
+        countRequest(action);
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        Throttle throttle = throttles.get(action);
+        if (throttle != null && !throttle.tryTake()) {
+            sendError(exchange, 400, "Sender", "Throttling", "Rate exceeded");
+            return;
+        }
+        Failure failure = failures.get(action);
+        if (failure != null && failure.take()) {
+            sendError(exchange, failure.statusCode, failure.statusCode >= 500 ? "Receiver" : "Sender",
+                    failure.errorCode, "Injected failure");
+            return;
+        }
+        if (randomFailure()) {
+            sendError(exchange, 500, "Receiver", "InternalError", "Injected failure");
+            return;
+        }
+
+        try {
+            String result = runAction(action, parameters);
+            if (result == null) {
+                sendError(exchange, 400, "Sender", "InvalidAction", "The action " + action + " is not valid for this endpoint");
+            } else {
+                sendResponse(exchange, 200, "<" + action + "Response xmlns=\"" + XML_NAMESPACE + "\">"
+                        + result
+                        + "<ResponseMetadata><RequestId>" + UUID.randomUUID() + "</RequestId></ResponseMetadata>"
+                        + "</" + action + "Response>");
+            }
+        } catch (SNSError e) {
+            sendError(exchange, e.statusCode, "Sender", e.errorCode, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs an action and builds the body of its answer
+     * @return the XML of the answer, or null if the action is not one the server knows
+     */
+    private String runAction(String action, Map<String, String> parameters) throws SNSError {
+        switch (action) {
+            case "CreateTopic":
+                return createTopic(parameters);
+            case "DeleteTopic":
+                return deleteTopic(parameters);
+            case "Subscribe":
+                return subscribe(parameters);
+            case "Unsubscribe":
+                return unsubscribe(parameters);
+            case "Publish":
+                return publish(parameters);
+            case "PublishBatch":
+                return publishBatch(parameters);
+            case "CreatePlatformEndpoint":
+                return createPlatformEndpoint(parameters);
+            case "DeleteEndpoint":
+                return deleteEndpoint(parameters);
+            case "GetEndpointAttributes":
+                return getEndpointAttributes(parameters);
+            case "SetEndpointAttributes":
+                return setEndpointAttributes(parameters);
+            case "ListTopics":
+                return listTopics(parameters);
+            case "ListSubscriptions":
+                return listSubscriptions(parameters, null);
+            case "ListSubscriptionsByTopic":
+                return listSubscriptions(parameters, required(parameters, "TopicArn"));
+            case "ListEndpointsByPlatformApplication":
+                return listEndpoints(parameters);
+            default:
+                return null;
+        }
+    }
+
+    private String createTopic(Map<String, String> parameters) throws SNSError {
+        String name = required(parameters, "Name");
+        if (!name.matches("[A-Za-z0-9_-]{1,256}")) {
+            throw new SNSError(400, "InvalidParameter", "Invalid parameter: Topic Name");
+        }
+        String topicArn = "arn:aws:sns:" + region + ":" + ACCOUNT_ID + ":" + name;
+        topics.put(topicArn, name);
+        return "<CreateTopicResult><TopicArn>" + escape(topicArn) + "</TopicArn></CreateTopicResult>";
+    }
+
+    private String deleteTopic(Map<String, String> parameters) throws SNSError {
+        String topicArn = required(parameters, "TopicArn");
+        topics.remove(topicArn);
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.topicArn.equals(topicArn)) {
+                removeSubscription(subscription);
+            }
+        }
+        return "";
+    }
+
+    private String subscribe(Map<String, String> parameters) throws SNSError {
+        String topicArn = required(parameters, "TopicArn");
+        String protocol = required(parameters, "Protocol");
+        String endpoint = required(parameters, "Endpoint");
+        if (!topics.containsKey(topicArn)) {
+            throw new SNSError(404, "NotFound", "Topic does not exist");
+        }
+
+        // Subscribing the same endpoint twice gives back the subscription it already has
+        Subscription subscription = new Subscription(topicArn + ":" + UUID.randomUUID(), topicArn, protocol, endpoint);
+        Subscription existing = subscriptionsByEndpoint.putIfAbsent(subscription.key(), subscription);
+        if (existing != null) {
+            subscription = existing;
+        } else {
+            subscriptions.put(subscription.subscriptionArn, subscription);
+        }
+        return "<SubscribeResult><SubscriptionArn>" + escape(subscription.subscriptionArn) + "</SubscriptionArn></SubscribeResult>";
+    }
+
+    private String unsubscribe(Map<String, String> parameters) throws SNSError {
+        Subscription subscription = subscriptions.get(required(parameters, "SubscriptionArn"));
+        if (subscription == null || !removeSubscription(subscription)) {
+            throw new SNSError(404, "NotFound", "Subscription does not exist");
+        }
+        return "";
+    }
+
+    /**
+     * @return false if another call removed it first
+     */
+    private boolean removeSubscription(Subscription subscription) {
+        subscriptionsByEndpoint.remove(subscription.key(), subscription);
+        return subscriptions.remove(subscription.subscriptionArn, subscription);
+    }
+
+    private String publish(Map<String, String> parameters) throws SNSError {
+        String topicArn = parameters.get("TopicArn");
+        String targetArn = parameters.get("TargetArn");
+        String message = required(parameters, "Message");
+        if (topicArn != null && !topics.containsKey(topicArn)) {
+            throw new SNSError(404, "NotFound", "Topic does not exist");
+        }
+        if (targetArn != null) {
+            Endpoint endpoint = endpoints.get(targetArn);
+            if (endpoint == null) {
+                throw new SNSError(404, "NotFound", "Endpoint does not exist");
+            }
+            if (!endpoint.enabled) {
+                throw new SNSError(400, "EndpointDisabled", "Endpoint is disabled");
+            }
+        }
+        if (topicArn == null && targetArn == null) {
+            throw new SNSError(400, "InvalidParameter", "Invalid parameter: TopicArn or TargetArn");
+        }
+
+        String messageId = UUID.randomUUID().toString();
+        if (recordMessages) {
+            messages.add(new Message(messageId, topicArn, targetArn, parameters.get("Subject"), message));
+        }
+        return "<PublishResult><MessageId>" + messageId + "</MessageId></PublishResult>";
+    }
+
+    private String publishBatch(Map<String, String> parameters) throws SNSError {
+        String topicArn = required(parameters, "TopicArn");
+        if (!topics.containsKey(topicArn)) {
+            throw new SNSError(404, "NotFound", "Topic does not exist");
+        }
+        int count = 0;
+        while (parameters.containsKey("PublishBatchRequestEntries.member." + (count + 1) + ".Id")) {
+            count++;
+        }
+        if (count == 0) {
+            throw new SNSError(400, "EmptyBatchRequest", "The batch request doesn't contain any entries");
+        }
+        if (count > 10) {
+            throw new SNSError(400, "TooManyEntriesInBatchRequest", "The batch request contains more entries than permissible");
+        }
+
+        // An entry without a message fails on its own, like an invalid entry does in SNS
+        StringBuilder successful = new StringBuilder();
+        StringBuilder failed = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            String prefix = "PublishBatchRequestEntries.member." + i + ".";
+            String id = parameters.get(prefix + "Id");
+            String message = parameters.get(prefix + "Message");
+            if (message == null || message.isEmpty()) {
+                failed.append("<member><Id>").append(escape(id)).append("</Id><Code>InvalidParameter</Code>"
+                        + "<Message>Invalid parameter: Message</Message><SenderFault>true</SenderFault></member>");
+                continue;
+            }
+            String messageId = UUID.randomUUID().toString();
+            if (recordMessages) {
+                messages.add(new Message(messageId, topicArn, null, parameters.get(prefix + "Subject"), message));
+            }
+            successful.append("<member><Id>").append(escape(id)).append("</Id><MessageId>").append(messageId)
+                    .append("</MessageId></member>");
+        }
+        return "<PublishBatchResult><Successful>" + successful + "</Successful><Failed>" + failed
+                + "</Failed></PublishBatchResult>";
+    }
+
+    private String createPlatformEndpoint(Map<String, String> parameters) throws SNSError {
+        String platformApplicationArn = required(parameters, "PlatformApplicationArn");
+        String token = required(parameters, "Token");
+
+        // Creating an endpoint for a token that already has one gives back the same endpoint
+        Endpoint endpoint = new Endpoint(platformApplicationArn.replace(":app/", ":endpoint/") + "/" + UUID.randomUUID(),
+                platformApplicationArn, token, parameters.get("CustomUserData"));
+        Endpoint existing = endpointsByToken.putIfAbsent(endpoint.key(), endpoint);
+        if (existing != null) {
+            return createEndpointResult(existing.endpointArn);
+        }
+        endpoints.put(endpoint.endpointArn, endpoint);
+        return createEndpointResult(endpoint.endpointArn);
+    }
+
+    private static String createEndpointResult(String endpointArn) {
+        return "<CreatePlatformEndpointResult><EndpointArn>" + escape(endpointArn) + "</EndpointArn></CreatePlatformEndpointResult>";
+    }
+
+    private String deleteEndpoint(Map<String, String> parameters) throws SNSError {
+        Endpoint endpoint = endpoints.remove(required(parameters, "EndpointArn"));
+        if (endpoint != null) {
+            synchronized (endpoint) {
+                endpointsByToken.remove(endpoint.key(), endpoint);
+            }
+        }
+        return "";
+    }
+
+    private String getEndpointAttributes(Map<String, String> parameters) throws SNSError {
+        Endpoint endpoint = findEndpoint(required(parameters, "EndpointArn"));
+        StringBuilder xml = new StringBuilder("<GetEndpointAttributesResult><Attributes>");
+        appendEndpointAttributes(xml, endpoint);
+        return xml.append("</Attributes></GetEndpointAttributesResult>").toString();
+    }
+
+    /**
+     * Sets the attributes given as Attributes.entry.N.key and Attributes.entry.N.value
+     */
+    private String setEndpointAttributes(Map<String, String> parameters) throws SNSError {
+        Endpoint endpoint = findEndpoint(required(parameters, "EndpointArn"));
+        for (int i = 1; parameters.containsKey("Attributes.entry." + i + ".key"); i++) {
+            String key = parameters.get("Attributes.entry." + i + ".key");
+            String value = parameters.get("Attributes.entry." + i + ".value");
+            if (key.equals("Token")) {
+                // The endpoint's key changes with its token
+                synchronized (endpoint) {
+                    endpointsByToken.remove(endpoint.key(), endpoint);
+                    endpoint.token = value;
+                    if (endpoints.containsKey(endpoint.endpointArn)) {
+                        endpointsByToken.putIfAbsent(endpoint.key(), endpoint);
+                    }
+                }
+            } else if (key.equals("Enabled")) {
+                endpoint.enabled = Boolean.parseBoolean(value);
+            } else if (key.equals("CustomUserData")) {
+                endpoint.customUserData = value;
+            } else {
+                throw new SNSError(400, "InvalidParameter", "Invalid parameter: Attributes Reason: Invalid attribute name: " + key);
+            }
+        }
+        return "";
+    }
+
+    private Endpoint findEndpoint(String endpointArn) throws SNSError {
+        Endpoint endpoint = endpoints.get(endpointArn);
+        if (endpoint == null) {
+            throw new SNSError(404, "NotFound", "Endpoint does not exist");
+        }
+        return endpoint;
+    }
+
+    private String listTopics(Map<String, String> parameters) {
+        StringBuilder xml = new StringBuilder("<ListTopicsResult><Topics>");
+        String nextToken = page(topics, parameters.get("NextToken"), new PageWriter<String>() {
+            @Override
+            public boolean write(String topicArn, String name, StringBuilder xml) {
+                xml.append("<member><TopicArn>").append(escape(topicArn)).append("</TopicArn></member>");
+                return true;
+            }
+        }, xml);
+        xml.append("</Topics>");
+        appendNextToken(xml, nextToken);
+        return xml.append("</ListTopicsResult>").toString();
+    }
+
+    private String listSubscriptions(Map<String, String> parameters, final String topicArn) {
+        String resultName = topicArn == null ? "ListSubscriptionsResult" : "ListSubscriptionsByTopicResult";
+        StringBuilder xml = new StringBuilder("<" + resultName + "><Subscriptions>");
+        String nextToken = page(subscriptions, parameters.get("NextToken"), new PageWriter<Subscription>() {
+            @Override
+            public boolean write(String subscriptionArn, Subscription subscription, StringBuilder xml) {
+                if (topicArn != null && !subscription.topicArn.equals(topicArn)) {
+                    return false;
+                }
+                xml.append("<member>")
+                        .append("<TopicArn>").append(escape(subscription.topicArn)).append("</TopicArn>")
+                        .append("<Protocol>").append(escape(subscription.protocol)).append("</Protocol>")
+                        .append("<SubscriptionArn>").append(escape(subscriptionArn)).append("</SubscriptionArn>")
+                        .append("<Owner>").append(ACCOUNT_ID).append("</Owner>")
+                        .append("<Endpoint>").append(escape(subscription.endpoint)).append("</Endpoint>")
+                        .append("</member>");
+                return true;
+            }
+        }, xml);
+        xml.append("</Subscriptions>");
+        appendNextToken(xml, nextToken);
+        return xml.append("</").append(resultName).append(">").toString();
+    }
+
+    private String listEndpoints(Map<String, String> parameters) throws SNSError {
+        final String platformApplicationArn = required(parameters, "PlatformApplicationArn");
+        StringBuilder xml = new StringBuilder("<ListEndpointsByPlatformApplicationResult><Endpoints>");
+        String nextToken = page(endpoints, parameters.get("NextToken"), new PageWriter<Endpoint>() {
+            @Override
+            public boolean write(String endpointArn, Endpoint endpoint, StringBuilder xml) {
+                if (!endpoint.platformApplicationArn.equals(platformApplicationArn)) {
+                    return false;
+                }
+                xml.append("<member><EndpointArn>").append(escape(endpointArn)).append("</EndpointArn><Attributes>");
+                appendEndpointAttributes(xml, endpoint);
+                xml.append("</Attributes></member>");
+                return true;
+            }
+        }, xml);
+        xml.append("</Endpoints>");
+        appendNextToken(xml, nextToken);
+        return xml.append("</ListEndpointsByPlatformApplicationResult>").toString();
+    }
+
+    /******************
+     * Paging
+     ******************/
+
+    /**
+     * Writes one page of the items that come after the token into the XML
+     */
+    private interface PageWriter<T> {
+        /**
+         * @return true if the item was written, or false if it does not belong in this list
+         */
+        boolean write(String key, T item, StringBuilder xml);
+    }
+
+    /**
+     * Writes the page of items that starts after the token
+     * @param nextToken the token of the page, which is the last key of the previous page, or null for the first page
+     * @return the token of the next page, or null if this is the last page
+     */
+    private <T> String page(NavigableMap<String, T> items, String nextToken, PageWriter<T> writer, StringBuilder xml) {
+        NavigableMap<String, T> rest = nextToken == null ? items : items.tailMap(nextToken, false);
+        int written = 0;
+        for (Map.Entry<String, T> entry : rest.entrySet()) {
+            if (written == pageSize) {
+                // Only hands out a token when there is at least one more item left
+                return nextToken;
+            }
+            if (writer.write(entry.getKey(), entry.getValue(), xml)) {
+                written++;
+                nextToken = entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static void appendNextToken(StringBuilder xml, String nextToken) {
+        if (nextToken != null) {
+            xml.append("<NextToken>").append(escape(nextToken)).append("</NextToken>");
+        }
+    }
+
+    private static void appendEndpointAttributes(StringBuilder xml, Endpoint endpoint) {
+        appendAttribute(xml, "Enabled", String.valueOf(endpoint.enabled));
+        appendAttribute(xml, "Token", endpoint.token);
+        String customUserData = endpoint.customUserData;
+        if (customUserData != null) {
+            appendAttribute(xml, "CustomUserData", customUserData);
+        }
+    }
+
+    private static void appendAttribute(StringBuilder xml, String key, String value) {
+        xml.append("<entry><key>").append(key).append("</key><value>").append(escape(value)).append("</value></entry>");
+    }
+
+    /******************
+     * HTTP
+     ******************/
+
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        addParameters(exchange.getRequestURI().getRawQuery(), parameters);
+
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        addParameters(new String(body.toByteArray(), UTF_8), parameters);
+        return parameters;
+    }
+
+    private static void addParameters(String form, Map<String, String> parameters) throws UnsupportedEncodingException {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String type, String code, String message)
+            throws IOException {
+        sendResponse(exchange, statusCode, "<ErrorResponse xmlns=\"" + XML_NAMESPACE + "\"><Error>"
+                + "<Type>" + type + "</Type><Code>" + escape(code) + "</Code><Message>" + escape(message) + "</Message>"
+                + "</Error><RequestId>" + UUID.randomUUID() + "</RequestId></ErrorResponse>");
+    }
+
+    private static void sendResponse(HttpExchange exchange, int statusCode, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\"?>" + xml).getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String required(Map<String, String> parameters, String name) throws SNSError {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new SNSError(400, "InvalidParameter", "Invalid parameter: " + name);
+        }
+        return value;
+    }
+
+    private void countRequest(String action) {
+        AtomicLong count = requestCounts.get(action);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent(action, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private synchronized boolean randomFailure() {
+        return failureRandom != null && failureRandom.nextDouble() < failureRate;
+    }
+
+    /******************
+     * State
+     ******************/
+
+    private static final class Subscription {
+        final String subscriptionArn;
+        final String topicArn;
+        final String protocol;
+        final String endpoint;
+
+        Subscription(String subscriptionArn, String topicArn, String protocol, String endpoint) {
+            this.subscriptionArn = subscriptionArn;
+            this.topicArn = topicArn;
+            this.protocol = protocol;
+            this.endpoint = endpoint;
+        }
+
+        String key() {
+            return topicArn + "\n" + protocol + "\n" + endpoint;
+        }
+    }
+
+    private static final class Endpoint {
+        final String endpointArn;
+        final String platformApplicationArn;
+        volatile String token;
+        volatile String customUserData;
+        volatile boolean enabled = true;
+
+        Endpoint(String endpointArn, String platformApplicationArn, String token, String customUserData) {
+            this.endpointArn = endpointArn;
+            this.platformApplicationArn = platformApplicationArn;
+            this.token = token;
+            this.customUserData = customUserData;
+        }
+
+        String key() {
+            return platformApplicationArn + "\n" + token;
+        }
+    }
+
+    /**
+     * A token bucket that holds one second of calls
+     */
+    private static final class Throttle {
+        private final double callsPerSecond;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        Throttle(double callsPerSecond) {
+            this.callsPerSecond = callsPerSecond;
+            this.tokens = Math.max(1, callsPerSecond);
+        }
+
+        synchronized boolean tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, callsPerSecond),
+                    tokens + (now - lastRefillNanos) * callsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Failure {
+        final int statusCode;
+        final String errorCode;
+        private int remaining;
+
+        Failure(int count, int statusCode, String errorCode) {
+            this.remaining = count;
+            this.statusCode = statusCode;
+            this.errorCode = errorCode;
+        }
+
+        synchronized boolean take() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            return true;
+        }
+    }
+
+    private static final class SNSError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int statusCode;
+        final String errorCode;
+
+        SNSError(int statusCode, String errorCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+            this.errorCode = errorCode;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package intelligentproduct.solutions.amazonsns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.DeleteEndpointRequest;
+import com.amazonaws.services.sns.model.Endpoint;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.Subscription;
+import com.amazonaws.services.sns.model.Topic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SNSStandInServer. These run AmazonSNSHelper against the stand-in the same
+ * way AmazonSNSHelperTest runs it against AWS.
+ */
+public class SNSStandInServerTest {
+    private static final String PLATFORM_APPLICATION_ARN = "arn:aws:sns:us-east-1:123456789012:app/GCM/standin";
+
+    private SNSStandInServer server;
+    private AmazonSNSHelper snsHelper;
+
+    @BeforeClass
+    public static void setUpClass() {
+        SNSStandInServer.enableNoDelay();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SNSStandInServer().start();
+        snsHelper = newHelper(SNSRetryPolicy.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private AmazonSNSHelper newHelper(SNSRetryPolicy retryPolicy) {
+        SNSClientSettings settings = new SNSClientSettings.Builder()
+                .setEndpoint(server.getEndpoint())
+                .setRetryPolicy(retryPolicy)
+                .build();
+        // Each server has its own port, so each test gets its own client and rate limits
+        return new AmazonSNSHelper("accessKey", "secretKey", PLATFORM_APPLICATION_ARN, null, settings,
+                Executors.newSingleThreadExecutor());
+    }
+
+    @Test
+    public void topicLifecycle() {
+        String topicARN = snsHelper.createTopic("standInTopic");
+        assertEquals("arn:aws:sns:us-east-1:" + SNSStandInServer.ACCOUNT_ID + ":standInTopic", topicARN);
+
+        String endpointARN = snsHelper.createPlatformEndpoint("token");
+        String subscriptionARN = snsHelper.pushNotificationSubscribe(topicARN, endpointARN);
+        snsHelper.emailSubscribe(topicARN, "user@example.com");
+
+        Set<String> endpoints = new HashSet<>();
+        for (Subscription subscription : snsHelper.subscriptionsByTopic(topicARN)) {
+            endpoints.add(subscription.getEndpoint());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(endpointARN, "user@example.com")), endpoints);
+
+        String messageId = snsHelper.publishMessage(topicARN, "message", "subject");
+        assertEquals(1, server.getPublishedMessages().size());
+        assertEquals(messageId, server.getPublishedMessages().get(0).messageId);
+        assertEquals("message", server.getPublishedMessages().get(0).message);
+
+        snsHelper.emailUnsubscribe(topicARN, "user@example.com");
+        snsHelper.pushNotificationUnsubscribe(subscriptionARN);
+        assertFalse(snsHelper.subscriptionsByTopic(topicARN).iterator().hasNext());
+
+        snsHelper.deleteTopic(topicARN);
+        assertFalse(snsHelper.topics().iterator().hasNext());
+    }
+
+    @Test
+    public void listsArePagedWithNextToken() {
+        server.setPageSize(7);
+        snsHelper.getRateLimiter().setRate(SNSOperation.CREATE_TOPIC, 1000);
+        snsHelper.getRateLimiter().setRate(SNSOperation.CREATE_PLATFORM_ENDPOINT, 1000);
+        for (int i = 0; i < 50; i++) {
+            snsHelper.createTopic("topic" + i);
+            snsHelper.createPlatformEndpoint("token" + i);
+        }
+
+        Set<String> topics = new HashSet<>();
+        for (Topic topic : snsHelper.topics()) {
+            assertTrue(topics.add(topic.getTopicArn()));
+        }
+        Set<String> endpoints = new HashSet<>();
+        for (Endpoint endpoint : snsHelper.endpointsByPlatformApplication()) {
+            assertTrue(endpoints.add(endpoint.getEndpointArn()));
+            assertEquals("true", endpoint.getAttributes().get("Enabled"));
+        }
+
+        assertEquals(50, topics.size());
+        assertEquals(50, endpoints.size());
+        // 50 items in pages of 7 is 8 pages
+        assertEquals(8, server.getRequestCount("ListTopics"));
+    }
+
+    @Test
+    public void creatingTheSameEndpointTwiceGivesTheSameArn() {
+        assertEquals(snsHelper.createPlatformEndpoint("token"), snsHelper.createPlatformEndpoint("token"));
+        assertNotEquals(snsHelper.createPlatformEndpoint("token"), snsHelper.createPlatformEndpoint("otherToken"));
+    }
+
+    @Test
+    public void endpointAttributesCanBeReadAndChanged() {
+        String endpointARN = snsHelper.createPlatformEndpoint("token");
+        assertEquals("token", snsHelper.getEndpointAttributes(endpointARN).get("Token"));
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("Token", "newToken");
+        attributes.put("Enabled", "false");
+        snsHelper.setEndpointAttributes(endpointARN, attributes);
+
+        assertEquals("newToken", snsHelper.getEndpointAttributes(endpointARN).get("Token"));
+        assertEquals("false", snsHelper.getEndpointAttributes(endpointARN).get("Enabled"));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void publishingToAMissingTopicFails() {
+        snsHelper.publishMessage("arn:aws:sns:us-east-1:123456789012:missing", "message", "subject");
+    }
+
+    @Test
+    public void throttledCallsAreRetried() {
+        AmazonSNSHelper retryingHelper = newHelper(new SNSRetryPolicy(5, 10, 100));
+        String topicARN = retryingHelper.createTopic("throttledTopic");
+        server.failNext("Publish", 2, 400, "Throttling");
+
+        assertNotNull(retryingHelper.publishMessage(topicARN, "message", "subject"));
+        assertEquals(3, server.getRequestCount("Publish"));
+        assertEquals(2, retryingHelper.getMetrics().snapshot().get(SNSOperation.PUBLISH).throttleCount);
+    }
+
+    @Test
+    public void injectedFailuresReachTheCaller() {
+        server.failNext("CreateTopic", 1, 500, "InternalError");
+        try {
+            snsHelper.createTopic("failedTopic");
+            fail("The injected failure was not reported");
+        } catch (AmazonServiceException e) {
+            assertEquals(500, e.getStatusCode());
+            assertEquals("InternalError", e.getErrorCode());
+        }
+        assertNotNull(snsHelper.createTopic("failedTopic"));
+    }
+
+    @Test
+    public void rateLimitThrottlesExtraCalls() {
+        String topicARN = snsHelper.createTopic("limitedTopic");
+        server.setThrottle("Publish", 2);
+
+        int throttled = 0;
+        for (int i = 0; i < 5; i++) {
+            try {
+                snsHelper.publishMessage(topicARN, "message", "subject");
+            } catch (AmazonServiceException e) {
+                assertTrue(SNSRetryPolicy.isThrottle(e));
+                throttled++;
+            }
+        }
+        assertTrue(throttled >= 2);
+    }
+
+    @Test
+    public void latencyIsAddedToEveryCall() {
+        server.setLatencyMillis(50);
+        long start = System.nanoTime();
+        snsHelper.createTopic("slowTopic");
+        assertTrue(System.nanoTime() - start >= 50 * 1000 * 1000);
+    }
+
+    @Test
+    public void batchedMessagesAreSentInOneRequest() throws Exception {
+        String topicARN = snsHelper.createTopic("batchTopic");
+        SNSPublishBatcher batcher = new SNSPublishBatcher(snsHelper, TimeUnit.HOURS.toMillis(1));
+
+        List<Future<String>> messageIds = new ArrayList<>();
+        for (int i = 0; i < SNSPublishBatcher.MAX_BATCH_SIZE; i++) {
+            messageIds.add(batcher.publish(topicARN, i == 3 ? "" : "message" + i, "subject"));
+        }
+        batcher.close();
+
+        for (int i = 0; i < messageIds.size(); i++) {
+            if (i == 3) {
+                try {
+                    messageIds.get(i).get(5, TimeUnit.SECONDS);
+                    fail("An empty message should be refused");
+                } catch (ExecutionException e) {
+                    assertEquals("InvalidParameter", ((AmazonServiceException) e.getCause()).getErrorCode());
+                }
+            } else {
+                assertNotNull(messageIds.get(i).get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, server.getRequestCount("PublishBatch"));
+        assertEquals(0, server.getRequestCount("Publish"));
+        assertEquals(SNSPublishBatcher.MAX_BATCH_SIZE - 1, server.getPublishedMessages().size());
+    }
+
+    @Test
+    public void callsPastTheConnectionLimitWait() throws Exception {
+        server.setLatencyMillis(100);
+        SNSClientSettings settings = new SNSClientSettings.Builder()
+                .setEndpoint(server.getEndpoint())
+                .setRetryPolicy(SNSRetryPolicy.NONE)
+                .setMaxConnections(2)
+                .build();
+        final AmazonSNSHelper limitedHelper = new AmazonSNSHelper("accessKey", "secretKey", PLATFORM_APPLICATION_ARN,
+                null, settings, Executors.newSingleThreadExecutor());
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<String>> topicARNs = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) {
+                final String name = "limited" + i;
+                topicARNs.add(callers.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return limitedHelper.createTopic(name);
+                    }
+                }));
+            }
+            for (Future<String> topicARN : topicARNs) {
+                assertNotNull(topicARN.get());
+            }
+            // Two calls at a time take three rounds of the latency
+            assertTrue(System.nanoTime() - start >= 300 * 1000 * 1000);
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void warmUpOpensAConnectionWithoutCallingTheApi() {
+        assertTrue(snsHelper.warmUp());
+        assertEquals(0, server.getRequestCount("CreateTopic"));
+        assertNotNull(snsHelper.createTopic("warmTopic"));
+    }
+
+    @Test
+    public void warmUpFailsQuietlyWhenTheEndpointIsDown() {
+        server.close();
+        assertFalse(snsHelper.warmUp());
+    }
+
+    @Test
+    public void encodedMessagesArePublishedInChunksAndJoinedAgain() {
+        String topicARN = snsHelper.createTopic("largeTopic");
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            message.append(Integer.toHexString(i * 7919));
+        }
+
+        List<String> messageIds = snsHelper.publishEncodedMessage(topicARN, message.toString(), "subject", 1000);
+        assertTrue(messageIds.size() > 1);
+        assertEquals(messageIds.size(), server.getPublishedMessages().size());
+
+        SNSPayloadAssembler assembler = new SNSPayloadAssembler();
+        String joined = null;
+        for (SNSStandInServer.Message published : server.getPublishedMessages()) {
+            assertTrue(published.message.length() <= 1000);
+            joined = assembler.add(published.message);
+        }
+        assertEquals(message.toString(), joined);
+    }
+
+    @Test
+    public void fanOutReportsDisabledAndDeletedEndpointsSeparately() throws Exception {
+        List<SNSFanOutPublisher.Target> targets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            targets.add(new SNSFanOutPublisher.Target(snsHelper.createPlatformEndpoint("token" + i), "message" + i));
+        }
+        server.disableEndpoint(targets.get(3).endpointArn);
+        snsHelper.deleteEndpoint(new DeleteEndpointRequest().withEndpointArn(targets.get(7).endpointArn));
+
+        SNSFanOutPublisher publisher = new SNSFanOutPublisher(snsHelper, 4);
+        final Map<String, SNSFanOutPublisher.Status> statuses = new ConcurrentHashMap<>();
+        SNSFanOutPublisher.Totals totals = publisher.publish(targets, new SNSFanOutPublisher.Listener() {
+            @Override
+            public void onResult(SNSFanOutPublisher.Result result) {
+                statuses.put(result.endpointArn, result.status);
+            }
+        });
+        publisher.shutdown();
+
+        assertEquals(18, totals.sent);
+        assertEquals(SNSFanOutPublisher.Status.DISABLED, statuses.get(targets.get(3).endpointArn));
+        assertEquals(SNSFanOutPublisher.Status.INVALID, statuses.get(targets.get(7).endpointArn));
+        assertEquals(18, server.getPublishedMessages().size());
+    }
+
+    @Test
+    public void concurrentCallsDoNotMakeDuplicates() throws Exception {
+        final String topicARN = snsHelper.createTopic("concurrentTopic");
+        final int tokens = 3;
+        // Each thread has its own helper, so the helper does not merge the calls itself
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Set<String>> endpointARNs = new ArrayList<>();
+        for (int i = 0; i < tokens; i++) {
+            endpointARNs.add(Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final AmazonSNSHelper helper = newHelper(SNSRetryPolicy.NONE);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int token = 0; token < tokens; token++) {
+                        String endpointARN = helper.createPlatformEndpoint("token" + token);
+                        endpointARNs.get(token).add(endpointARN);
+                        helper.pushNotificationSubscribe(topicARN, endpointARN);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        for (Set<String> arns : endpointARNs) {
+            assertEquals(1, arns.size());
+        }
+        int endpoints = 0;
+        for (Endpoint endpoint : snsHelper.endpointsByPlatformApplication()) {
+            endpoints++;
+        }
+        assertEquals(tokens, endpoints);
+        int subscriptions = 0;
+        for (Subscription subscription : snsHelper.subscriptionsByTopic(topicARN)) {
+            subscriptions++;
+        }
+        assertEquals(tokens, subscriptions);
+    }
+
+    @Test
+    public void keepAliveCanBeTurnedOffPerClient() {
+        for (int i = 0; i < 3; i++) {
+            snsHelper.createTopic("keptAlive" + i);
+        }
+        assertEquals(1, server.getConnectionCount());
+
+        SNSClientSettings settings = new SNSClientSettings.Builder()
+                .setEndpoint(server.getEndpoint())
+                .setRetryPolicy(SNSRetryPolicy.NONE)
+                .setKeepAlive(false)
+                .build();
+        AmazonSNSHelper closingHelper = new AmazonSNSHelper("accessKey", "secretKey", PLATFORM_APPLICATION_ARN,
+                null, settings, Executors.newSingleThreadExecutor());
+        // The first call can still take the idle connection from the process-wide pool
+        closingHelper.createTopic("closed");
+        assertEquals("close", server.getLastConnectionHeader());
+        int connections = server.getConnectionCount();
+        for (int i = 0; i < 3; i++) {
+            closingHelper.createTopic("closed" + i);
+            assertEquals("close", server.getLastConnectionHeader());
+        }
+        assertEquals(connections + 3, server.getConnectionCount());
+
+        // The shared client still keeps its connection
+        snsHelper.createTopic("keptAlive");
+        snsHelper.createTopic("keptAlive2");
+        assertEquals(connections + 4, server.getConnectionCount());
+    }
+}